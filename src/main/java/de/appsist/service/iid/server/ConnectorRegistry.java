@@ -5,17 +5,20 @@ import org.vertx.java.core.json.JsonObject;
 
 import de.appsist.service.auth.connector.AuthServiceConnector;
 import de.appsist.service.iid.server.connector.CDSConnector;
+import de.appsist.service.iid.server.monitor.Metrics;
 import de.appsist.service.sms.connector.SMSGatewayConnector;
 
 public class ConnectorRegistry {
 	private final Vertx vertx;
+	private final Metrics metrics;
 	
 	private AuthServiceConnector authServiceConnector;
 	private CDSConnector cdsConnector;
 	private SMSGatewayConnector smsConnector;
 	
-	public ConnectorRegistry(Vertx vertx) {
+	public ConnectorRegistry(Vertx vertx, Metrics metrics) {
 		this.vertx = vertx;
+		this.metrics = metrics;
 	}
 	
 	/**
@@ -39,7 +42,7 @@ public class ConnectorRegistry {
 	 * @param httpEndpoint HTTP endpoint configuration to access the service. 
 	 */
 	public void initCDSConnector(JsonObject httpEndpoint) {
-		this.cdsConnector = new CDSConnector(vertx, httpEndpoint);
+		this.cdsConnector = new CDSConnector(vertx, httpEndpoint, metrics);
 	}
 	
 	/**
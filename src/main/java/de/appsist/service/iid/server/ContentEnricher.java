@@ -0,0 +1,218 @@
+package de.appsist.service.iid.server;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+/**
+ * Enrichment of display payloads with the descriptors of content packages.
+ * All methods work on JSON only and are free of side effects beyond the given objects, so they may be called from worker threads.
+ */
+public class ContentEnricher {
+	private static final Logger logger = LoggerFactory.getLogger(ContentEnricher.class);
+	
+	public static final String ASSISTANCE = "assistance";
+	public static final String LEARNING_OBJECT = "learningObject";
+	public static final String POPUP = "popup";
+	
+	/**
+	 * Processes an enrichment request.
+	 * <ul>
+	 * <li>assistance: Requires [assistance], [descriptor], and [basePath]. Returns the enriched [assistance].</li>
+	 * <li>learningObject: Requires [items], each with [descriptor] and [basePath]. Returns [items] with the fields to put into the content body [body] and the chapter [parent].</li>
+	 * <li>popup: Requires [title], [descriptor], and [basePath]. Returns the fields to put into the content body [body] and the popup [parent].</li>
+	 * </ul>
+	 * @param request Enrichment request containing the payload [type].
+	 * @return Response to be sent as reply.
+	 * @throws IllegalArgumentException The request is invalid or a descriptor contains invalid data.
+	 */
+	public static JsonObject process(JsonObject request) throws IllegalArgumentException {
+		String type = request.getString("type");
+		if (type == null) throw new IllegalArgumentException("Missing payload type [type].");
+		JsonObject response = EventBusHelper.okResponse();
+		switch (type) {
+		case ASSISTANCE:
+			JsonObject assistanceStepObject = request.getObject("assistance");
+			JsonObject descriptor = request.getObject("descriptor");
+			if (logger.isDebugEnabled()) {
+				logger.debug("Received content descriptor for assistance step: " + descriptor.encodePrettily());
+			}
+			importContentDescriptorForAssistanceStep(assistanceStepObject, descriptor, request.getString("basePath"));
+			response.putObject("assistance", assistanceStepObject);
+			break;
+		case LEARNING_OBJECT:
+			JsonArray results = new JsonArray();
+			for (Object entry : request.getArray("items")) {
+				JsonObject item = (JsonObject) entry;
+				JsonObject bodyFields = new JsonObject();
+				JsonObject parentFields = new JsonObject();
+				try {
+					importContentDescriptor(bodyFields, parentFields, item.getObject("descriptor"), item.getString("basePath"));
+				} catch (IllegalArgumentException e) {
+					logger.warn("Failed to import content package descriptor: " + item.getString("basePath"), e);
+				}
+				results.addObject(new JsonObject().putObject("body", bodyFields).putObject("parent", parentFields));
+			}
+			response.putArray("items", results);
+			break;
+		case POPUP:
+			JsonObject bodyFields = new JsonObject();
+			JsonObject parentFields = new JsonObject();
+			importPopupDescriptor(bodyFields, parentFields, request.getString("title"), request.getObject("descriptor"), request.getString("basePath"));
+			response.putObject("body", bodyFields);
+			response.putObject("parent", parentFields);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown payload type: " + type);
+		}
+		return response;
+	}
+	
+	/**
+	 * Imports a content package descriptor into an assistance step.
+	 * @param assistanceStepObject JSON representation of the assistance step. Will be modified.
+	 * @param descriptor Content package descriptor.
+	 * @param baseUrl URL to resolve relative references of the package.
+	 * @throws IllegalArgumentException The descriptor contains an invalid URI.
+	 */
+	public static void importContentDescriptorForAssistanceStep(JsonObject assistanceStepObject, JsonObject descriptor, String baseUrl) throws IllegalArgumentException {
+		JsonObject content = assistanceStepObject.getObject("content"); 
+		String main = descriptor.getString("main");
+		if (main != null) {
+			URI uri;
+			try {
+				uri = new URI(main);
+			} catch (URISyntaxException e) {
+				throw new IllegalArgumentException("The [main] field contains no valid URI.", e);
+			}
+			content.putString("main", uri.isAbsolute() ? main : baseUrl + main);
+			content.putString("mimeType", descriptor.getString("mimeType"));
+		}
+		
+		String lastUpdate = descriptor.getString("lastUpdate");
+		if (lastUpdate != null) content.putString("lastUpdate", lastUpdate);
+		
+		String version = descriptor.getString("version");
+		if (version != null) content.putString("version", version);
+		
+		String title = descriptor.getString("title");
+		if (title != null) {
+			JsonObject titleContainer = assistanceStepObject.getObject("title");
+			if (titleContainer == null) {
+				titleContainer = new JsonObject();
+				assistanceStepObject.putObject("title", titleContainer);
+			}
+			titleContainer.putString("current", title);
+		}
+		
+		String info = descriptor.getString("info");
+		if (info != null) assistanceStepObject.putString("info", info);
+		
+		String endorsement = descriptor.getString("endorsement");
+		if (endorsement != null) assistanceStepObject.putString("endorsement", endorsement);
+		
+		String arid = descriptor.getString("arid");
+		if (arid != null) assistanceStepObject.putString("arid", arid);
+		
+		JsonArray newWarnings = descriptor.getArray("warnings");
+		if (newWarnings != null) {
+			JsonArray existingWarnings = assistanceStepObject.getArray("warnings");
+			if (existingWarnings == null) {
+				existingWarnings = new JsonArray();
+				assistanceStepObject.putArray("warnings", existingWarnings);
+			}
+			for (Object entry : newWarnings) {
+				// Warnings are modified below, the descriptor may be shared.
+				existingWarnings.add(entry instanceof JsonObject ? ((JsonObject) entry).copy() : entry);
+			}
+			for (Object entry : existingWarnings) {
+				JsonObject warning = (JsonObject) entry;
+				String icon = warning.getString("icon");
+				if (icon != null) {
+					URI uri;
+					try {
+						uri = new URI(icon);
+					} catch (URISyntaxException e) {
+						throw new IllegalArgumentException("The [icon] field contains no valid URI.", e);
+					}
+					warning.putString("icon", uri.isAbsolute() ? icon : baseUrl + icon);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Imports a content package descriptor into a content body of a learning object chapter.
+	 * @param contentBody Object to put the content body fields into.
+	 * @param parent Object to put the chapter fields into.
+	 * @param descriptor Content package descriptor.
+	 * @param baseUrl URL to resolve relative references of the package.
+	 * @throws IllegalArgumentException The descriptor contains an invalid URI.
+	 */
+	public static void importContentDescriptor(JsonObject contentBody, JsonObject parent, JsonObject descriptor, String baseUrl) throws IllegalArgumentException {
+		String main = descriptor.getString("main");
+		if (main != null) {
+			URI uri;
+			try {
+				uri = new URI(main);
+			} catch (URISyntaxException e) {
+				throw new IllegalArgumentException("The [main] field contains no valid URI.", e);
+			}
+			contentBody.putString("main", uri.isAbsolute() ? main : baseUrl + main);
+            contentBody.putString("mimeType", descriptor.getString("mimeType"));
+            contentBody.putString("info", descriptor.getString("info", ""));
+            contentBody.putString("title", descriptor.getString("title", ""));
+        }
+        else {
+            contentBody.putString("mimeType", descriptor.getString("mimeType"));
+            contentBody.putString("info", descriptor.getString("info", ""));
+            contentBody.putString("title", descriptor.getString("title", ""));
+		}
+		
+		String lastUpdate = descriptor.getString("lastUpdate");
+		if (lastUpdate != null) contentBody.putString("lastUpdate", lastUpdate);
+		
+		String version = descriptor.getString("version");
+		if (version != null) contentBody.putString("version", version);
+		
+		String title = descriptor.getString("title");
+		if (title != null) {
+			parent.putString("caption", title);
+		}
+	}
+
+	/**
+	 * Imports a content package descriptor into a popup.
+	 * @param contentBody Object to put the content body fields into.
+	 * @param popup Object to put the popup fields into.
+	 * @param title Current title of the popup.
+	 * @param descriptor Content package descriptor.
+	 * @param baseUrl URL to resolve relative references of the package.
+	 * @throws IllegalArgumentException The descriptor contains an invalid URI.
+	 */
+	public static void importPopupDescriptor(JsonObject contentBody, JsonObject popup, String title, JsonObject descriptor, String baseUrl) throws IllegalArgumentException {
+		for (String field : descriptor.getFieldNames()) {
+			switch (field) {
+			case "title":
+				popup.putString("title", title + ": " + descriptor.getString("title"));
+				break;
+			case "main":
+				String main = descriptor.getString("main");
+				URI uri;
+				try {
+					uri = new URI(main);
+				} catch (URISyntaxException e) {
+					throw new IllegalArgumentException("The [main] field contains no valid URI.", e);
+				}
+				contentBody.putString("main", uri.isAbsolute() ? main : baseUrl + main);
+				break;
+			default:
+				contentBody.putValue(field, descriptor.getValue(field));
+			}
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package de.appsist.service.iid.server;
+
+import org.vertx.java.core.AsyncResultHandler;
+
+/**
+ * Handler for the result of an operation which may be deferred, e.g., a message to a view waiting for its client to reconnect.
+ * The result is delivered as usual when the operation completes.
+ */
+public interface DeferrableResultHandler extends AsyncResultHandler<Void> {
+	/**
+	 * Called when the operation is deferred. May be called at most once, before the result is handled.
+	 */
+	public void deferred();
+}
@@ -0,0 +1,52 @@
+package de.appsist.service.iid.server;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.platform.Verticle;
+
+/**
+ * Worker verticle enriching display payloads with content package descriptors.
+ * Requests are processed by the {@link ContentEnricher}, so that the event loop of the main verticle is not blocked.
+ */
+public class EnrichmentVerticle extends Verticle {
+	public static final String ADDRESS = "appsist:service:iid:server:enrichment";
+	
+	private Handler<Message<JsonObject>> requestHandler;
+	
+	@Override
+	public void start() {
+		requestHandler = new Handler<Message<JsonObject>>() {
+			
+			@Override
+			public void handle(Message<JsonObject> message) {
+				JsonObject request = message.body();
+				if (request == null) {
+					message.reply(EventBusHelper.errorResponse(400, "Missing message body."));
+					return;
+				}
+				message.reply(processRequest(request));
+			}
+		};
+		vertx.eventBus().registerLocalHandler(ADDRESS, requestHandler);
+	}
+	
+	/**
+	 * Processes an enrichment request, see {@link ContentEnricher#process(JsonObject)}.
+	 * Used by the workers and for requests processed locally if no workers are deployed.
+	 * @param request Enrichment request.
+	 * @return Response to be sent as reply. Invalid requests are answered with an error (400).
+	 */
+	public static JsonObject processRequest(JsonObject request) {
+		try {
+			return ContentEnricher.process(request);
+		} catch (IllegalArgumentException | NullPointerException | ClassCastException e) {
+			return EventBusHelper.errorResponse(400, "Failed to enrich payload: " + e.getMessage());
+		}
+	}
+	
+	@Override
+	public void stop() {
+		vertx.eventBus().unregisterHandler(ADDRESS, requestHandler);
+	}
+}
@@ -1,16 +1,32 @@
 package de.appsist.service.iid.server;
 
+import java.util.List;
+
 import org.vertx.java.core.Vertx;
 import org.vertx.java.core.eventbus.EventBus;
 import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.platform.Container;
 
 import de.appsist.service.iid.server.handler.ActionHandler;
+import de.appsist.service.iid.server.handler.CatalogPushHandler;
 import de.appsist.service.iid.server.handler.ClientHandler;
+import de.appsist.service.iid.server.handler.ContentProxyHandler;
+import de.appsist.service.iid.server.handler.EnrichmentHandler;
 import de.appsist.service.iid.server.handler.InternalBusHandler;
 import de.appsist.service.iid.server.handler.LocalSessionHandler;
+import de.appsist.service.iid.server.handler.LocationIndex;
+import de.appsist.service.iid.server.handler.ManifestPrefetcher;
+import de.appsist.service.iid.server.handler.NotificationStore;
+import de.appsist.service.iid.server.handler.PassThroughHandler;
 import de.appsist.service.iid.server.handler.SMSHandler;
+import de.appsist.service.iid.server.handler.SessionStatusIndex;
+import de.appsist.service.iid.server.handler.SnapshotHandler;
+import de.appsist.service.iid.server.handler.StatusEventPublisher;
 import de.appsist.service.iid.server.handler.TabletClientHandler;
+import de.appsist.service.iid.server.model.Location;
+import de.appsist.service.iid.server.monitor.EventLoopMonitor;
+import de.appsist.service.iid.server.monitor.Metrics;
+import de.appsist.service.iid.server.monitor.Tracer;
 
 public class HandlerRegistry {
 	public final static String SERVICE_ID = "appsist:service:iid";
@@ -18,17 +34,31 @@ public class HandlerRegistry {
 	private final Vertx vertx;
 	private final Container container;
 	private final ConnectorRegistry connectors;
+	private final Metrics metrics;
 	
 	private InternalBusHandler internalBusHandler = null;
 	private LocalSessionHandler localSessionHandler = null;
 	private ActionHandler actionHandler = null;
 	private ClientHandler clientHandler = null; 
 	private SMSHandler smsHandler = null;
-	
-	public HandlerRegistry(Vertx vertx, Container container, ConnectorRegistry connectors) {
+	private SnapshotHandler snapshotHandler = null;
+	private EventLoopMonitor eventLoopMonitor = null;
+	private Tracer tracer = null;
+	private PassThroughHandler passThroughHandler = null;
+	private EnrichmentHandler enrichmentHandler = null;
+	private CatalogPushHandler catalogPushHandler = null;
+	private NotificationStore notificationStore = null;
+	private SessionStatusIndex sessionStatusIndex = null;
+	private StatusEventPublisher statusEventPublisher = null;
+	private LocationIndex locationIndex = null;
+	private ContentProxyHandler contentProxyHandler = null;
+	private ManifestPrefetcher manifestPrefetcher = null;
+	
+	public HandlerRegistry(Vertx vertx, Container container, ConnectorRegistry connectors, Metrics metrics) {
 		this.vertx = vertx;
 		this.container = container;
 		this.connectors = connectors;
+		this.metrics = metrics;
 	}
 	
 	public Vertx vertx() {
@@ -43,6 +73,98 @@ public class HandlerRegistry {
 		return container;
 	}
 	
+	public Metrics metrics() {
+		return metrics;
+	}
+	
+	public void initEventLoopMonitor(JsonObject monitorConfig) {
+		eventLoopMonitor = new EventLoopMonitor(vertx, metrics, monitorConfig);
+	}
+	
+	public EventLoopMonitor eventLoopMonitor() {
+		return eventLoopMonitor;
+	}
+	
+	public void initTracer(JsonObject tracingConfig) {
+		tracer = new Tracer(tracingConfig);
+	}
+	
+	public Tracer tracer() {
+		return tracer;
+	}
+	
+	public void initPassThroughHandler(JsonObject passThroughConfig) {
+		passThroughHandler = new PassThroughHandler(metrics, passThroughConfig);
+	}
+	
+	public PassThroughHandler passThroughHandler() {
+		return passThroughHandler;
+	}
+	
+	public void initEnrichmentHandler(JsonObject enrichmentConfig) {
+		enrichmentHandler = new EnrichmentHandler(this, enrichmentConfig);
+	}
+	
+	public EnrichmentHandler enrichmentHandler() {
+		return enrichmentHandler;
+	}
+	
+	public void initCatalogPushHandler(JsonObject catalogPushConfig) {
+		catalogPushHandler = new CatalogPushHandler(this, catalogPushConfig);
+	}
+	
+	public CatalogPushHandler catalogPushHandler() {
+		return catalogPushHandler;
+	}
+	
+	public void initNotificationStore(JsonObject notificationConfig) {
+		notificationStore = new NotificationStore(this, notificationConfig);
+	}
+	
+	public NotificationStore notificationStore() {
+		return notificationStore;
+	}
+	
+	public void initSessionStatusIndex() {
+		sessionStatusIndex = new SessionStatusIndex();
+	}
+	
+	public SessionStatusIndex sessionStatusIndex() {
+		return sessionStatusIndex;
+	}
+	
+	public void initStatusEventPublisher(JsonObject statusEventConfig) {
+		statusEventPublisher = new StatusEventPublisher(this, statusEventConfig);
+	}
+	
+	public StatusEventPublisher statusEventPublisher() {
+		return statusEventPublisher;
+	}
+	
+	public void initLocationIndex(List<Location> locations) {
+		locationIndex = new LocationIndex(locations);
+	}
+	
+	public LocationIndex locationIndex() {
+		return locationIndex;
+	}
+	
+	public void initContentProxyHandler(String basePath, JsonObject contentProxyConfig) {
+		contentProxyHandler = new ContentProxyHandler(this, connectors, basePath, contentProxyConfig);
+	}
+	
+	public ContentProxyHandler contentProxyHandler() {
+		return contentProxyHandler;
+	}
+	
+	public void initManifestPrefetcher(JsonObject prefetchConfig) {
+		manifestPrefetcher = new ManifestPrefetcher(this, connectors, prefetchConfig);
+	}
+	
+	public ManifestPrefetcher manifestPrefetcher() {
+		return manifestPrefetcher;
+	}
+	
 	public JsonObject serviceConfig(String serviceId) {
 		return MainVerticle.getConfig().getServiceConfiguration(serviceId);
 	}
@@ -86,4 +208,12 @@ public class HandlerRegistry {
 	public SMSHandler smsHandler() {
 		return smsHandler;
 	}
+	
+	public void initSnapshotHandler(JsonObject snapshotConfig) {
+		snapshotHandler = new SnapshotHandler(this, snapshotConfig);
+	}
+	
+	public SnapshotHandler snapshotHandler() {
+		return snapshotHandler;
+	}
 }
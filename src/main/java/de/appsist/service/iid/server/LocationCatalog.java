@@ -0,0 +1,83 @@
+package de.appsist.service.iid.server;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.iid.server.model.Location;
+
+/**
+ * Catalog of the configured locations, precomputed once per configuration.
+ * The version of the catalog is derived from its content, so that clients can check if the locations they hold are up to date.
+ */
+public class LocationCatalog {
+	private final String version;
+	private final JsonArray locations;
+	private final Map<String, JsonArray> locationsForBuilding;
+	private final Map<String, JsonArray> locationsForType;
+
+	/**
+	 * Creates the catalog.
+	 * @param locations Configured locations.
+	 */
+	public LocationCatalog(List<Location> locations) {
+		this.locations = new JsonArray();
+		this.locationsForBuilding = new HashMap<>();
+		this.locationsForType = new HashMap<>();
+		for (Location location : locations) {
+			JsonObject locationObject = location.asJson();
+			this.locations.addObject(locationObject);
+			addToGroup(locationsForBuilding, locationObject.getString("building"), locationObject);
+			addToGroup(locationsForType, locationObject.getString("type"), locationObject);
+		}
+		CRC32 checksum = new CRC32();
+		checksum.update(this.locations.encode().getBytes(StandardCharsets.UTF_8));
+		this.version = Long.toHexString(checksum.getValue());
+	}
+
+	private static void addToGroup(Map<String, JsonArray> groups, String key, JsonObject locationObject) {
+		if (key == null) return;
+		JsonArray group = groups.get(key);
+		if (group == null) {
+			group = new JsonArray();
+			groups.put(key, group);
+		}
+		group.addObject(locationObject);
+	}
+
+	/**
+	 * Returns the version of the catalog.
+	 * @return Version string, changes whenever the configured locations change.
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the locations matching the given filters.
+	 * The returned array is shared and must not be modified.
+	 * @param building Building the locations are in. May be <code>null</code> to match all buildings.
+	 * @param type Type of the locations, e.g. "fix". May be <code>null</code> to match all types.
+	 * @return Array of JSON representations of the locations. May be empty.
+	 */
+	public JsonArray getLocations(String building, String type) {
+		if (building == null && type == null) return locations;
+		if (type == null) return getGroup(locationsForBuilding, building);
+		if (building == null) return getGroup(locationsForType, type);
+		JsonArray filteredLocations = new JsonArray();
+		for (Object entry : getGroup(locationsForBuilding, building)) {
+			if (type.equals(((JsonObject) entry).getString("type"))) filteredLocations.addObject((JsonObject) entry);
+		}
+		return filteredLocations;
+	}
+
+	private static JsonArray getGroup(Map<String, JsonArray> groups, String key) {
+		JsonArray group = groups.get(key);
+		return group != null ? group : new JsonArray();
+	}
+}
@@ -1,16 +1,29 @@
 package de.appsist.service.iid.server;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.TimeoutException;
 
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Future;
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.file.FileProps;
 import org.vertx.java.core.http.HttpServer;
 import org.vertx.java.core.http.HttpServerRequest;
 import org.vertx.java.core.http.HttpServerResponse;
 import org.vertx.java.core.http.RouteMatcher;
+import org.vertx.java.core.json.DecodeException;
 import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
@@ -19,7 +32,11 @@ import org.vertx.java.platform.Verticle;
 
 import de.appsist.commons.misc.StatusSignalConfiguration;
 import de.appsist.commons.misc.StatusSignalSender;
+import de.appsist.service.iid.server.connector.CDSConnector;
 import de.appsist.service.iid.server.connector.IIDConnector;
+import de.appsist.service.iid.server.handler.ContentProxyHandler;
+import de.appsist.service.iid.server.handler.InternalBusHandler;
+import de.appsist.service.iid.server.monitor.Metrics;
 import de.appsist.service.iid.server.model.AppsistEventAction;
 import de.appsist.service.iid.server.model.AssistanceStep;
 import de.appsist.service.iid.server.model.AssistanceStepBuilder;
@@ -45,33 +62,419 @@ import de.appsist.service.sms.connector.SMSGatewayConnector;
  */
 public class MainVerticle extends Verticle {
 	private static final Logger logger = LoggerFactory.getLogger(MainVerticle.class);
-	private static ModuleConfiguration config;
+	private static volatile ModuleConfiguration config;
+	public static final String CONFIG_ADDRESS = "appsist:service:iid:server:config";
 	private RouteMatcher routeMatcher;
 	private ConnectorRegistry connectorRegistry;
 	private HandlerRegistry handlerRegistry;
+	private Metrics metrics;
+	private Handler<Message<JsonObject>> configHandler;
+	private long configLastModified;
+	private JsonObject startupTimings;
+	private long deployTimerId;
+	private boolean isShutDown = false;
+	
+	// Default values if not configured.
+	private static final long DEPLOY_TIMEOUT = MILLISECONDS.convert(1, MINUTES);
+	private static final long DRAIN_TIMEOUT = MILLISECONDS.convert(10, SECONDS);
+	private static final int ENRICHMENT_WORKERS = 2;
+	private static final long DRAIN_CHECK_INTERVAL = 100l;
+	private static final int TRACE_LIMIT = 50;
+	private static final long CONFIG_WATCH_INTERVAL = MILLISECONDS.convert(10, SECONDS);
+	private static final long CONNECTOR_CLOSE_DELAY = MILLISECONDS.convert(1, MINUTES);
 	
 	@Override
-	public void start() {
+	public void start(final Future<Void> startedResult) {
+		final long startTime = System.currentTimeMillis();
 		config = new ModuleConfiguration(container.config());
+		startupTimings = new JsonObject();
 		
+		deployModules(new AsyncResultHandler<Void>() {
+			
+			@Override
+			public void handle(AsyncResult<Void> deployRequest) {
+				if (deployRequest.failed()) {
+					logger.error("Failed to deploy required modules.", deployRequest.cause());
+					startedResult.setFailure(deployRequest.cause());
+					return;
+				}
+				long phaseStart = System.currentTimeMillis();
+				startupTimings.putNumber("deployments", phaseStart - startTime);
+				initializeServices();
+				startupTimings.putNumber("initialization", System.currentTimeMillis() - phaseStart);
+				
+				final long warmupStart = System.currentTimeMillis();
+				warmUpConnections(new Handler<Void>() {
+					
+					@Override
+					public void handle(Void event) {
+						startupTimings.putNumber("warmup", System.currentTimeMillis() - warmupStart);
+						final long listenStart = System.currentTimeMillis();
+						startWebServer(new AsyncResultHandler<HttpServer>() {
+							
+							@Override
+							public void handle(AsyncResult<HttpServer> listenRequest) {
+								if (listenRequest.failed()) {
+									logger.error("Failed to start web server on port " + config.getWebserverPort() + ".", listenRequest.cause());
+									startedResult.setFailure(listenRequest.cause());
+									return;
+								}
+								startupTimings.putNumber("webserver", System.currentTimeMillis() - listenStart);
+								startStatusSignal();
+								startupTimings.putNumber("total", System.currentTimeMillis() - startTime);
+								logger.info("Inhalte-Interaktionsdienst (Server) is ready. Startup timings [ms]: " + startupTimings.encode());
+								logger.debug("Inhalte-Interaktionsdienst (Server) has been initialized with the following configuration:\n" + config.getJson().encodePrettily());
+								startedResult.setResult(null);
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Deploys all configured modules in parallel and waits for their completion.
+	 * @param resultHandler Handler notified when all modules are deployed, a deployment failed, or the deployment timed out.
+	 */
+	private void deployModules(final AsyncResultHandler<Void> resultHandler) {
 		JsonArray deploys = config.getDeployments();
-		if (deploys != null) for (Object deploy : deploys) {
-			JsonObject deployConfig = (JsonObject) deploy;
-			container.deployModule(deployConfig.getString("id"), deployConfig.getObject("config"));
+		if (deploys == null || deploys.size() == 0) {
+			resultHandler.handle(new AsyncResult<Void>() {
+				
+				@Override
+				public boolean succeeded() {
+					return true;
+				}
+				
+				@Override
+				public Void result() {
+					return null;
+				}
+				
+				@Override
+				public boolean failed() {
+					return false;
+				}
+				
+				@Override
+				public Throwable cause() {
+					return null;
+				}
+			});
+			return;
 		}
 		
-		connectorRegistry = new ConnectorRegistry(vertx);
+		final List<String> moduleIds = new ArrayList<>();
+		for (Object deploy : deploys) {
+			moduleIds.add(((JsonObject) deploy).getString("id"));
+		}
+		List<Integer> deployIndices = new ArrayList<>();
+		for (int i = 0; i < moduleIds.size(); i++) {
+			deployIndices.add(i);
+		}
+		final long deployTimeout = config.getStartupConfig().getLong("deployTimeout", DEPLOY_TIMEOUT);
+		final ValueAggregationHandler<Integer, String> aggregationHandler = new ValueAggregationHandler<Integer, String>(deployIndices, new AsyncResultHandler<Map<Integer, AsyncResult<String>>>() {
+			
+			@Override
+			public void handle(final AsyncResult<Map<Integer, AsyncResult<String>>> aggregatedRequest) {
+				vertx.cancelTimer(deployTimerId);
+				final Throwable cause;
+				if (aggregatedRequest.succeeded()) {
+					cause = null;
+				} else if (aggregatedRequest.cause() instanceof TimeoutException) {
+					cause = aggregatedRequest.cause();
+				} else {
+					StringBuilder builder = new StringBuilder("Failed to deploy modules:");
+					for (Entry<Integer, AsyncResult<String>> entry : aggregatedRequest.result().entrySet()) {
+						if (entry.getValue().failed()) {
+							builder.append(" ").append(moduleIds.get(entry.getKey())).append(" (").append(entry.getValue().cause().getMessage()).append(")");
+						}
+					}
+					cause = new Exception(builder.toString());
+				}
+				resultHandler.handle(cause == null ? new AsyncResult<Void>() {
+					
+					@Override
+					public boolean succeeded() {
+						return true;
+					}
+					
+					@Override
+					public Void result() {
+						return null;
+					}
+					
+					@Override
+					public boolean failed() {
+						return false;
+					}
+					
+					@Override
+					public Throwable cause() {
+						return null;
+					}
+				} : new FailResult(cause));
+			}
+		});
+		deployTimerId = vertx.setTimer(deployTimeout, new Handler<Long>() {
+			
+			@Override
+			public void handle(Long event) {
+				aggregationHandler.abort(new TimeoutException("Deployment of modules did not complete within " + deployTimeout + " ms."));
+			}
+		});
+		
+		for (int i = 0; i < moduleIds.size(); i++) {
+			JsonObject deployConfig = deploys.get(i);
+			final String moduleId = moduleIds.get(i);
+			final long deployStart = System.currentTimeMillis();
+			final AsyncResultHandler<String> requestHandler = aggregationHandler.getRequestHandler(i);
+			container.deployModule(moduleId, deployConfig.getObject("config"), new AsyncResultHandler<String>() {
+				
+				@Override
+				public void handle(AsyncResult<String> deployRequest) {
+					if (deployRequest.succeeded()) {
+						logger.debug("Deployed module " + moduleId + " in " + (System.currentTimeMillis() - deployStart) + " ms.");
+					}
+					requestHandler.handle(deployRequest);
+				}
+			});
+		}
+	}
+	
+	/**
+	 * Initializes connectors and handlers. Event bus handlers are registered in this phase.
+	 */
+	private void initializeServices() {
+		metrics = new Metrics();
+		connectorRegistry = new ConnectorRegistry(vertx, metrics);
 		connectorRegistry.initAuthService(config.getServiceConfiguration("auth").getString("eb"));
 		connectorRegistry.initCDSConnector(config.getServiceConfiguration("cds").getObject("http"));
 		connectorRegistry.initSMSConnector(SMSGatewayConnector.DEFAULT_SERVICE_ID);
 
-		handlerRegistry = new HandlerRegistry(vertx, container, connectorRegistry);
+		handlerRegistry = new HandlerRegistry(vertx, container, connectorRegistry, metrics);
+		handlerRegistry.initEventLoopMonitor(config.getEventLoopMonitorConfig());
+		handlerRegistry.eventLoopMonitor().start();
+		handlerRegistry.initTracer(config.getTracingConfig());
+		handlerRegistry.initPassThroughHandler(config.getPassThroughConfig());
+		handlerRegistry.initEnrichmentHandler(config.getEnrichmentConfig());
+		deployEnrichmentWorkers();
+		handlerRegistry.initCatalogPushHandler(config.getCatalogPushConfig());
+		handlerRegistry.initNotificationStore(config.getNotificationConfig());
+		handlerRegistry.initSessionStatusIndex();
+		handlerRegistry.initStatusEventPublisher(config.getStatusEventConfig());
+		handlerRegistry.initLocationIndex(config.getLocations());
+		JsonObject contentProxyConfig = config.getContentProxyConfig();
+		if (contentProxyConfig != null) {
+			handlerRegistry.initContentProxyHandler(config.getWebserverBasePath() + ContentProxyHandler.PATH, contentProxyConfig);
+			handlerRegistry.contentProxyHandler().start();
+		}
+		handlerRegistry.initManifestPrefetcher(config.getPrefetchConfig());
 		handlerRegistry.initLocalSessionHandler();
 		handlerRegistry.initInternalBusHandler();
 		handlerRegistry.initClientHandler();
 		handlerRegistry.initActionHandler();
 		handlerRegistry.initSMSHandler();
+		
+		JsonObject snapshotConfig = config.getSnapshotConfig();
+		if (snapshotConfig != null) {
+			handlerRegistry.initSnapshotHandler(snapshotConfig);
+			handlerRegistry.snapshotHandler().restore();
+			handlerRegistry.snapshotHandler().start();
+		}
+		initializeConfigReload();
+	}
+	
+	/**
+	 * Registers the handler to reload the configuration and starts watching the configuration file, if configured.
+	 * Reload requests [action: "reload"] may contain the new configuration [config], otherwise the configuration file is read.
+	 */
+	private void initializeConfigReload() {
+		final String configFile = config.getConfigReloadConfig().getString("file");
+		configHandler = new Handler<Message<JsonObject>>() {
+			
+			@Override
+			public void handle(final Message<JsonObject> message) {
+				JsonObject body = message.body();
+				if (!"reload".equals(body.getString("action"))) {
+					message.reply(EventBusHelper.errorResponse(400, "Invalid action command [action]: " + body.getString("action")));
+					return;
+				}
+				JsonObject configObject = body.getObject("config");
+				if (configObject != null) {
+					String error = reloadConfiguration(configObject);
+					message.reply(error == null ? EventBusHelper.okResponse() : EventBusHelper.errorResponse(400, error));
+				} else if (configFile != null) {
+					readConfigurationFile(configFile, new Handler<String>() {
+						
+						@Override
+						public void handle(String error) {
+							message.reply(error == null ? EventBusHelper.okResponse() : EventBusHelper.errorResponse(400, error));
+						}
+					});
+				} else {
+					message.reply(EventBusHelper.errorResponse(400, "Missing configuration [config], no configuration file to read."));
+				}
+			}
+		};
+		vertx.eventBus().registerLocalHandler(CONFIG_ADDRESS, configHandler);
+		
+		if (configFile == null) return;
+		long interval = config.getConfigReloadConfig().getLong("interval", CONFIG_WATCH_INTERVAL);
+		configLastModified = -1;
+		vertx.setPeriodic(interval, new Handler<Long>() {
+			
+			@Override
+			public void handle(Long timerId) {
+				if (isShutDown) {
+					vertx.cancelTimer(timerId);
+					return;
+				}
+				vertx.fileSystem().props(configFile, new AsyncResultHandler<FileProps>() {
+					
+					@Override
+					public void handle(AsyncResult<FileProps> propsRequest) {
+						if (propsRequest.failed()) {
+							logger.warn("Failed to check configuration file " + configFile + ": " + propsRequest.cause().getMessage());
+							return;
+						}
+						long lastModified = propsRequest.result().lastModifiedTime().getTime();
+						if (configLastModified < 0) {
+							// First check, the running configuration is current.
+							configLastModified = lastModified;
+						} else if (lastModified != configLastModified) {
+							configLastModified = lastModified;
+							readConfigurationFile(configFile, new Handler<String>() {
+								
+								@Override
+								public void handle(String error) {
+									if (error != null) logger.warn("Ignoring changed configuration file " + configFile + ": " + error);
+								}
+							});
+						}
+					}
+				});
+			}
+		});
+	}
+	
+	/**
+	 * Reads the configuration file and reloads the configuration.
+	 * @param configFile Path of the configuration file.
+	 * @param doneHandler Handler called with <code>null</code> on success, otherwise with an error message.
+	 */
+	private void readConfigurationFile(final String configFile, final Handler<String> doneHandler) {
+		vertx.fileSystem().readFile(configFile, new AsyncResultHandler<Buffer>() {
+			
+			@Override
+			public void handle(AsyncResult<Buffer> readRequest) {
+				if (readRequest.failed()) {
+					doneHandler.handle("Failed to read configuration file: " + readRequest.cause().getMessage());
+					return;
+				}
+				JsonObject configObject;
+				try {
+					configObject = new JsonObject(readRequest.result().toString("UTF-8"));
+				} catch (DecodeException e) {
+					doneHandler.handle("Invalid JSON in configuration file: " + e.getMessage());
+					return;
+				}
+				doneHandler.handle(reloadConfiguration(configObject));
+			}
+		});
+	}
+	
+	/**
+	 * Replaces the module configuration. 
+	 * Locations, heartbeat parameters, SMS settings, and the endpoint of the content delivery service take effect immediately, 
+	 * heartbeat parameters for views connecting afterwards. Other settings require a restart, changes of the command multiplexing are logged and ignored.
+	 * @param configObject New module configuration.
+	 * @return <code>null</code> if the configuration has been replaced, otherwise a description of the error.
+	 */
+	private String reloadConfiguration(JsonObject configObject) {
+		ModuleConfiguration newConfig;
+		try {
+			newConfig = new ModuleConfiguration(configObject);
+		} catch (IllegalArgumentException | ClassCastException e) {
+			return "Invalid configuration: " + e.getMessage();
+		}
+		JsonObject cdsConfig = newConfig.getServiceConfiguration("cds");
+		JsonObject cdsHttpConfig = cdsConfig != null ? cdsConfig.getObject("http") : null;
+		if (cdsHttpConfig == null) {
+			return "Invalid configuration: Endpoint of the content delivery service [services.cds.http] is missing.";
+		}
+		ModuleConfiguration oldConfig = config;
+		config = newConfig;
+		if (newConfig.isMultiplexed() != oldConfig.isMultiplexed()) {
+			logger.warn("Ignoring changed setting [clientConnection.multiplexed], the setting requires a restart.");
+		}
+		
+		if (!cdsHttpConfig.equals(oldConfig.getServiceConfiguration("cds").getObject("http"))) {
+			final CDSConnector oldConnector = connectorRegistry.cdsConnector();
+			connectorRegistry.initCDSConnector(cdsHttpConfig);
+			// Pending requests of the previous connector are completed before it is closed.
+			vertx.setTimer(CONNECTOR_CLOSE_DELAY, new Handler<Long>() {
 				
+				@Override
+				public void handle(Long timerId) {
+					oldConnector.close();
+				}
+			});
+		}
+		handlerRegistry.locationIndex().setLocations(newConfig.getLocations());
+		metrics.increment("config.reloaded");
+		logger.info("Configuration has been reloaded, location catalog version: " + newConfig.getLocationCatalog().getVersion());
+		return null;
+	}
+	
+	/**
+	 * Deploys the worker verticles for the enrichment of display payloads.
+	 * Until the workers are available, payloads are enriched on the event loop.
+	 */
+	private void deployEnrichmentWorkers() {
+		int workers = config.getEnrichmentConfig().getInteger("workers", ENRICHMENT_WORKERS);
+		if (workers <= 0) return;
+		container.deployWorkerVerticle(EnrichmentVerticle.class.getName(), new JsonObject(), workers, false, new AsyncResultHandler<String>() {
+			
+			@Override
+			public void handle(AsyncResult<String> deployRequest) {
+				if (deployRequest.succeeded()) {
+					handlerRegistry.enrichmentHandler().setWorkerPoolAvailable(true);
+				} else {
+					logger.warn("Failed to deploy enrichment workers, payloads are enriched on the event loop.", deployRequest.cause());
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Opens connections to required services in advance, if enabled.
+	 * Failures are logged but do not prevent the startup.
+	 * @param doneHandler Handler called when the warm up is completed.
+	 */
+	private void warmUpConnections(final Handler<Void> doneHandler) {
+		if (!config.getStartupConfig().getBoolean("warmup", false)) {
+			doneHandler.handle(null);
+			return;
+		}
+		connectorRegistry.cdsConnector().ping(new AsyncResultHandler<Void>() {
+			
+			@Override
+			public void handle(AsyncResult<Void> pingRequest) {
+				if (pingRequest.failed()) {
+					logger.warn("Failed to warm up connection to the content delivery service: " + pingRequest.cause().getMessage());
+				}
+				doneHandler.handle(null);
+			}
+		});
+	}
+	
+	/**
+	 * Starts the web server including the event bus bridge.
+	 * @param resultHandler Handler notified when the web server is listening.
+	 */
+	private void startWebServer(AsyncResultHandler<HttpServer> resultHandler) {
 		HttpServer httpServer = vertx.createHttpServer();
 		initializeHTTPRouting(httpServer);
 
@@ -83,9 +486,13 @@ public class MainVerticle extends Verticle {
 			vertx.createSockJSServer(httpServer).bridge(bridgeConfig, bridgeConfig.getArray("inbound"), bridgeConfig.getArray("outbound"));
 		}
 		
-		// Start web server.
-		httpServer.listen(config.getWebserverPort());
-		
+		httpServer.listen(config.getWebserverPort(), resultHandler);
+	}
+	
+	/**
+	 * Starts to send status signals to report the readiness of the service.
+	 */
+	private void startStatusSignal() {
 		JsonObject statusSignalObject = config.getStatusSingalConfiguration();
 		StatusSignalConfiguration statusSignalConfig;
 		if (statusSignalObject != null) {
@@ -97,15 +504,62 @@ public class MainVerticle extends Verticle {
 		StatusSignalSender statusSignalSender =
 		  new StatusSignalSender("iid-server", vertx, statusSignalConfig);
 		statusSignalSender.start();
-
-		logger.debug("Inhalte-Interaktionsdienst (Server) has been initialized with the following configuration:\n" + config.getJson().encodePrettily());
 	}
 	
 	@Override
 	public void stop() {
+		if (handlerRegistry != null) {
+			shutdownHandlers();
+		}
 		logger.debug("Inhalte-Interaktionsdienst (Server) has been stopped.");
 	}
 	
+	/**
+	 * Drains the service: New requests are rejected, while pending requests are completed until the given deadline.
+	 * Afterwards, the state is persisted and all handlers are unregistered.
+	 * @param timeout Time in milliseconds to wait for pending requests.
+	 * @param doneHandler Handler called with <code>true</code> if all pending requests have been completed, otherwise <code>false</code>.
+	 */
+	private void drain(long timeout, final Handler<Boolean> doneHandler) {
+		final InternalBusHandler internalBusHandler = handlerRegistry.internalBusHandler();
+		internalBusHandler.startDraining();
+		handlerRegistry.catalogPushHandler().flushAll();
+		logger.info("Draining service, waiting up to " + timeout + " ms for " + internalBusHandler.getPendingRequestCount() + " pending requests.");
+		final long deadline = System.currentTimeMillis() + timeout;
+		vertx.setPeriodic(DRAIN_CHECK_INTERVAL, new Handler<Long>() {
+			
+			@Override
+			public void handle(Long timerId) {
+				int pendingRequests = internalBusHandler.getPendingRequestCount();
+				if (pendingRequests > 0 && System.currentTimeMillis() < deadline) return;
+				vertx.cancelTimer(timerId);
+				if (pendingRequests > 0) {
+					logger.warn("Drain deadline reached with " + pendingRequests + " pending requests.");
+				}
+				shutdownHandlers();
+				doneHandler.handle(pendingRequests == 0);
+			}
+		});
+	}
+	
+	/**
+	 * Stops accepting requests, persists the state, and unregisters all handlers.
+	 */
+	private void shutdownHandlers() {
+		if (isShutDown) return;
+		isShutDown = true;
+		handlerRegistry.internalBusHandler().startDraining();
+		if (handlerRegistry.snapshotHandler() != null) {
+			handlerRegistry.snapshotHandler().stop();
+		}
+		handlerRegistry.clientHandler().destroy();
+		handlerRegistry.internalBusHandler().destroy();
+		handlerRegistry.eventLoopMonitor().stop();
+		if (configHandler != null) {
+			vertx.eventBus().unregisterHandler(CONFIG_ADDRESS, configHandler);
+		}
+	}
+	
 	/**
 	 * Returns the module configuration.
 	 * @return Module configuration.
@@ -113,8 +567,40 @@ public class MainVerticle extends Verticle {
 	public static ModuleConfiguration getConfig() {
 		return config;
 	}
+	
+	/**
+	 * Returns the durations of the startup phases.
+	 * @return JSON object with phase names as keys and durations in milliseconds as values.
+	 */
+	public JsonObject getStartupTimings() {
+		return startupTimings;
+	}
 
 
+	/**
+	 * Wraps the handler of an administration endpoint, so that only requests with the configured token are handled.
+	 * The token is expected in the authorization header: "Authorization: Bearer [token]".
+	 * @param adminToken Configured administration token.
+	 * @param handler Handler for authorized requests.
+	 * @return Handler rejecting unauthorized requests with status code 401.
+	 */
+	private static Handler<HttpServerRequest> requireAdminToken(String adminToken, final Handler<HttpServerRequest> handler) {
+		final byte[] expectedHeader = ("Bearer " + adminToken).getBytes(StandardCharsets.UTF_8);
+		return new Handler<HttpServerRequest>() {
+			
+			@Override
+			public void handle(HttpServerRequest request) {
+				String authorization = request.headers().get("Authorization");
+				// Compared in constant time to not reveal the token by response times.
+				if (authorization == null || !MessageDigest.isEqual(expectedHeader, authorization.getBytes(StandardCharsets.UTF_8))) {
+					request.response().putHeader("WWW-Authenticate", "Bearer").setStatusCode(401).end("Missing or invalid administration token.");
+					return;
+				}
+				handler.handle(request);
+			}
+		};
+	}
+
 	/**
 	 * Initialize the HTTP server endpoints.
 	 * @param httpServer HTTP server to add endpoints. 
@@ -122,6 +608,82 @@ public class MainVerticle extends Verticle {
 	private void initializeHTTPRouting(HttpServer httpServer) {
 		final String basePath = config.getWebserverBasePath();
 		routeMatcher = new BasePathRouteMatcher(basePath);
+		
+		if (handlerRegistry.contentProxyHandler() != null) {
+			routeMatcher.getWithRegEx(ContentProxyHandler.PATH + "/([^/]+)/(.+)", handlerRegistry.contentProxyHandler());
+		}
+		
+		final String adminToken = config.getAdminToken();
+		if (config.isAdminEndpointsEnabled() && adminToken == null) {
+			logger.warn("Administration endpoints are disabled as no token is configured [adminToken].");
+		} else if (config.isAdminEndpointsEnabled()) {
+			routeMatcher.get("/admin/metrics", requireAdminToken(adminToken, new Handler<HttpServerRequest>() {
+				
+				@Override
+				public void handle(HttpServerRequest request) {
+					HttpServerResponse response = request.response();
+					response.putHeader("Content-Type", "application/json");
+					response.end(metrics.asJson().encode());
+				}
+			})).get("/admin/traces", requireAdminToken(adminToken, new Handler<HttpServerRequest>() {
+				
+				@Override
+				public void handle(HttpServerRequest request) {
+					HttpServerResponse response = request.response();
+					String limitParam = request.params().get("limit");
+					int limit;
+					try {
+						limit = limitParam != null ? Integer.parseInt(limitParam) : TRACE_LIMIT;
+					} catch (NumberFormatException e) {
+						response.setStatusCode(400).end("Invalid limit: " + limitParam);
+						return;
+					}
+					response.putHeader("Content-Type", "application/json");
+					response.end(handlerRegistry.tracer().getTraces(limit).encode());
+				}
+			})).get("/admin/traces/:correlationId", requireAdminToken(adminToken, new Handler<HttpServerRequest>() {
+				
+				@Override
+				public void handle(HttpServerRequest request) {
+					HttpServerResponse response = request.response();
+					JsonObject trace = handlerRegistry.tracer().getTrace(request.params().get("correlationId"));
+					if (trace == null) {
+						response.setStatusCode(404).end("Trace not found.");
+						return;
+					}
+					response.putHeader("Content-Type", "application/json");
+					response.end(trace.encode());
+				}
+			})).post("/admin/drain", requireAdminToken(adminToken, new Handler<HttpServerRequest>() {
+				
+				@Override
+				public void handle(HttpServerRequest request) {
+					final HttpServerResponse response = request.response();
+					String timeoutParam = request.params().get("timeout");
+					long timeout;
+					try {
+						timeout = timeoutParam != null ? Long.parseLong(timeoutParam) : config.getShutdownConfig().getLong("drainTimeout", DRAIN_TIMEOUT);
+					} catch (NumberFormatException e) {
+						response.setStatusCode(400).end("Invalid timeout: " + timeoutParam);
+						return;
+					}
+					if (isShutDown) {
+						response.setStatusCode(409).end("Service is already shut down.");
+						return;
+					}
+					drain(timeout, new Handler<Boolean>() {
+						
+						@Override
+						public void handle(Boolean isDrained) {
+							JsonObject result = new JsonObject();
+							result.putBoolean("drained", isDrained);
+							response.putHeader("Content-Type", "application/json");
+							response.end(result.encode());
+						}
+					});
+				}
+			}));
+		}
 				
         if (config.isDebugModeEnabled()) {
 			final IIDConnector iidConnector = new IIDConnector(vertx.eventBus(), IIDConnector.DEFAULT_ADDRESS);
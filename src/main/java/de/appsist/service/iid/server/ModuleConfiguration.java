@@ -1,5 +1,9 @@
 package de.appsist.service.iid.server;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
 import java.util.ArrayList;
 import java.util.List;
 
@@ -10,11 +14,27 @@ import de.appsist.service.iid.server.model.Location;
 
 /**
  * Wrapper for the module configuration.
+ * The wrapper is an immutable snapshot: The given JSON object is copied, and values used frequently are read once on creation.
+ * A reload creates a new wrapper.
  * @author simon.schwantzer(at)im-c.de
  */
 public class ModuleConfiguration {
+	// Default values if not configured.
+	private static final long HEARTBEAT_INTERVAL = MILLISECONDS.convert(10, SECONDS);
+	private static final long HEARTBEAT_TIMEOUT = 1000l;
+	private static final long DISCONNECTION_TIMEOUT = MILLISECONDS.convert(2, MINUTES);
+	private static final int REPLAY_BUFFER_SIZE = 100;
+	
 	private final JsonObject config;
 	private final List<Location> locations;
+	private final LocationCatalog locationCatalog;
+	private final long heartbeatInterval;
+	private final long heartbeatTimeout;
+	private final long disconnectionTimeout;
+	private final int replayBufferSize;
+	private final boolean isMultiplexed;
+	private final String cdsPath;
+	private final boolean sendSMSNotifications;
 	
 	/**
 	 * Creates a wrapper for the given configuration object. 
@@ -26,13 +46,25 @@ public class ModuleConfiguration {
 			throw new IllegalArgumentException("Configuration is but may not be null.");
 		}
 		validateConfiguration(config);
-		this.config = config;
+		this.config = config.copy();
+		
+		JsonObject connConfig = getClientConnectionConfig();
+		heartbeatInterval = connConfig.getLong("heartbeatInterval", HEARTBEAT_INTERVAL);
+		heartbeatTimeout = connConfig.getLong("heartbeatTimeout", HEARTBEAT_TIMEOUT);
+		disconnectionTimeout = connConfig.getLong("disconnectionTimeout", DISCONNECTION_TIMEOUT);
+		replayBufferSize = connConfig.getInteger("replayBufferSize", REPLAY_BUFFER_SIZE);
+		isMultiplexed = connConfig.getBoolean("multiplexed", false);
+		JsonObject cdsConfig = getServiceConfiguration("cds");
+		JsonObject cdsHttpConfig = cdsConfig != null ? cdsConfig.getObject("http") : null;
+		cdsPath = cdsHttpConfig != null ? cdsHttpConfig.getString("path") : null;
+		sendSMSNotifications = this.config.getBoolean("sendSMSNotifications", false);
 		
 		locations = new ArrayList<>();
-		JsonArray locationsArray = config.getArray("locations");
+		JsonArray locationsArray = this.config.getArray("locations");
 		if (locationsArray != null) for (Object entry : locationsArray) {
 			locations.add(new Location((JsonObject) entry));
 		}
+		locationCatalog = new LocationCatalog(locations);
 	}
 	
 	/**
@@ -56,7 +88,7 @@ public class ModuleConfiguration {
 	 * @return JSON object containing the module configuration.
 	 */
 	public JsonObject getJson() {
-		return config;
+		return config.copy();
     }
 	
 	/**
@@ -67,6 +99,14 @@ public class ModuleConfiguration {
 		return config.getArray("deploys");
 	}
 	
+	/**
+	 * Returns the configuration for the startup sequence.
+	 * @return Startup configuration. May be empty.
+	 */
+	public JsonObject getStartupConfig() {
+		return config.getObject("startup", new JsonObject());
+	}
+	
 	/**
 	 * Returns the base path for the web server.
 	 * @return Web server base path or empty string if not set.
@@ -126,6 +166,14 @@ public class ModuleConfiguration {
 		return locations;
 	}
 	
+	/**
+	 * Returns the precomputed catalog of the configured locations.
+	 * @return Location catalog.
+	 */
+	public LocationCatalog getLocationCatalog() {
+		return locationCatalog;
+	}
+	
 	public JsonObject getStatusSingalConfiguration() {
 		return config.getObject("statusSignal");
 	}
@@ -135,6 +183,175 @@ public class ModuleConfiguration {
 	}
 	
 	public boolean sendSMSNotifications() {
-		return config.getBoolean("sendSMSNotifications", false);
+		return sendSMSNotifications;
+	}
+	
+	/**
+	 * Returns the interval for heartbeats sent to the clients.
+	 * @return Interval in milliseconds.
+	 */
+	public long getHeartbeatInterval() {
+		return heartbeatInterval;
+	}
+	
+	/**
+	 * Returns the time to wait for the response to a heartbeat.
+	 * @return Timeout in milliseconds.
+	 */
+	public long getHeartbeatTimeout() {
+		return heartbeatTimeout;
+	}
+	
+	/**
+	 * Returns the time without response after which a client is considered disconnected.
+	 * @return Timeout in milliseconds.
+	 */
+	public long getDisconnectionTimeout() {
+		return disconnectionTimeout;
+	}
+	
+	/**
+	 * Returns the number of messages kept per view to replay them after a reconnect.
+	 * @return Size of the replay buffer.
+	 */
+	public int getReplayBufferSize() {
+		return replayBufferSize;
+	}
+	
+	/**
+	 * Checks if the commands of all views are received on a single address.
+	 * @return <code>true</code> if commands are multiplexed, otherwise <code>false</code>.
+	 */
+	public boolean isMultiplexed() {
+		return isMultiplexed;
+	}
+	
+	/**
+	 * Returns the base path of the content delivery service.
+	 * @return Path of the content packages, or <code>null</code> if not configured.
+	 */
+	public String getCdsPath() {
+		return cdsPath;
+	}
+	
+	/**
+	 * Returns the configuration for reloading the configuration at runtime.
+	 * @return Reload configuration. May be empty.
+	 */
+	public JsonObject getConfigReloadConfig() {
+		return config.getObject("configReload", new JsonObject());
+	}
+	
+	/**
+	 * Returns the configuration for the admission control of service requests.
+	 * @return Admission control configuration. May be empty.
+	 */
+	public JsonObject getAdmissionConfig() {
+		return config.getObject("admission", new JsonObject());
+	}
+	
+	/**
+	 * Returns the configuration for the event loop monitor.
+	 * @return Event loop monitor configuration. May be empty.
+	 */
+	public JsonObject getEventLoopMonitorConfig() {
+		return config.getObject("eventLoopMonitor", new JsonObject());
+	}
+	
+	/**
+	 * Returns the configuration for request tracing.
+	 * @return Tracing configuration. May be empty.
+	 */
+	public JsonObject getTracingConfig() {
+		return config.getObject("tracing", new JsonObject());
+	}
+	
+	/**
+	 * Returns the configuration for the pass-through of display payloads.
+	 * @return Pass-through configuration. May be empty.
+	 */
+	public JsonObject getPassThroughConfig() {
+		return config.getObject("passThrough", new JsonObject());
+	}
+	
+	/**
+	 * Returns the configuration for the enrichment of display payloads.
+	 * @return Enrichment configuration. May be empty.
+	 */
+	public JsonObject getEnrichmentConfig() {
+		return config.getObject("enrichment", new JsonObject());
+	}
+	
+	/**
+	 * Returns the configuration for pushing service catalogs to the views.
+	 * @return Catalog push configuration. May be empty.
+	 */
+	public JsonObject getCatalogPushConfig() {
+		return config.getObject("catalogPush", new JsonObject());
+	}
+	
+	/**
+	 * Returns the configuration for the notifications kept by the server.
+	 * @return Notification configuration. May be empty.
+	 */
+	public JsonObject getNotificationConfig() {
+		return config.getObject("notifications", new JsonObject());
+	}
+	
+	/**
+	 * Returns the configuration for the events published on location and activity changes.
+	 * @return Status event configuration. May be empty.
+	 */
+	public JsonObject getStatusEventConfig() {
+		return config.getObject("statusEvents", new JsonObject());
+	}
+	
+	/**
+	 * Returns the configuration for the shutdown sequence.
+	 * @return Shutdown configuration. May be empty.
+	 */
+	public JsonObject getShutdownConfig() {
+		return config.getObject("shutdown", new JsonObject());
+	}
+	
+	/**
+	 * Checks if the administration endpoints of the web server are enabled.
+	 * @return <code>true</code> if the administration endpoints are enabled, otherwise <code>false</code>.
+	 */
+	public boolean isAdminEndpointsEnabled() {
+		return config.getBoolean("adminEndpoints", false);
+	}
+	
+	/**
+	 * Returns the token required to access the administration endpoints.
+	 * @return Administration token or <code>null</code> if not configured. The endpoints are not available without token.
+	 */
+	public String getAdminToken() {
+		String adminToken = config.getString("adminToken");
+		return adminToken != null && !adminToken.isEmpty() ? adminToken : null;
+	}
+	
+	/**
+	 * Returns the configuration for prefetching manifests of content packages.
+	 * @return Prefetch configuration. May be empty.
+	 */
+	public JsonObject getPrefetchConfig() {
+		return config.getObject("prefetch", new JsonObject());
+	}
+	
+	/**
+	 * Returns the configuration for the caching proxy for content packages.
+	 * @return Content proxy configuration or <code>null</code> if the proxy is disabled.
+	 */
+	public JsonObject getContentProxyConfig() {
+		return config.getObject("contentProxy");
+	}
+	
+	/**
+	 * Returns the configuration for state snapshots.
+	 * @return Snapshot configuration or <code>null</code> if snapshots are disabled.
+	 */
+	public JsonObject getSnapshotConfig() {
+		return config.getObject("snapshot");
 	}
 }
@@ -0,0 +1,180 @@
+package de.appsist.service.iid.server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Compiled schema to validate the structure of JSON payloads without creating model objects.
+ * <p>
+ * Schemas are specified as JSON: An object specifies the fields of an object, a field name ending with "?" marks the field as optional.
+ * An array with a single entry specifies an array whose elements match this entry.
+ * A string specifies the type of a value: "string", "number", "boolean", "object", "array", or "any".
+ * Fields not specified are ignored.
+ * </p>
+ * Example: <code>{"content": {"type": "string"}, "warnings?": [{"icon?": "string"}]}</code>
+ */
+public class PayloadSchema {
+	private final Node root;
+
+	private static abstract class Node {
+		/**
+		 * Validates a value.
+		 * @param value Value to validate.
+		 * @param path Path of the value, used for error messages.
+		 * @return <code>null</code> if the value is valid, otherwise a description of the mismatch.
+		 */
+		public abstract String validate(Object value, String path);
+	}
+
+	private static class TypeNode extends Node {
+		private final String type;
+
+		public TypeNode(String type) {
+			switch (type) {
+			case "string":
+			case "number":
+			case "boolean":
+			case "object":
+			case "array":
+			case "any":
+				this.type = type;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown type: " + type);
+			}
+		}
+
+		@Override
+		public String validate(Object value, String path) {
+			boolean isValid;
+			switch (type) {
+			case "string":
+				isValid = value instanceof String;
+				break;
+			case "number":
+				isValid = value instanceof Number;
+				break;
+			case "boolean":
+				isValid = value instanceof Boolean;
+				break;
+			case "object":
+				isValid = value instanceof JsonObject;
+				break;
+			case "array":
+				isValid = value instanceof JsonArray;
+				break;
+			default:
+				isValid = value != null;
+			}
+			return isValid ? null : "Expected " + type + " at " + path;
+		}
+	}
+
+	private static class Field {
+		private final String name;
+		private final boolean isRequired;
+		private final Node node;
+
+		public Field(String name, boolean isRequired, Node node) {
+			this.name = name;
+			this.isRequired = isRequired;
+			this.node = node;
+		}
+	}
+
+	private static class ObjectNode extends Node {
+		private final List<Field> fields;
+
+		public ObjectNode(List<Field> fields) {
+			this.fields = fields;
+		}
+
+		@Override
+		public String validate(Object value, String path) {
+			if (!(value instanceof JsonObject)) return "Expected object at " + path;
+			JsonObject object = (JsonObject) value;
+			for (Field field : fields) {
+				Object fieldValue = object.getValue(field.name);
+				if (fieldValue == null) {
+					if (field.isRequired) return "Missing field " + path + "." + field.name;
+					continue;
+				}
+				String error = field.node.validate(fieldValue, path + "." + field.name);
+				if (error != null) return error;
+			}
+			return null;
+		}
+	}
+
+	private static class ArrayNode extends Node {
+		private final Node elementNode;
+
+		public ArrayNode(Node elementNode) {
+			this.elementNode = elementNode;
+		}
+
+		@Override
+		public String validate(Object value, String path) {
+			if (!(value instanceof JsonArray)) return "Expected array at " + path;
+			int i = 0;
+			for (Object element : (JsonArray) value) {
+				String error = elementNode.validate(element, path + "[" + i++ + "]");
+				if (error != null) return error;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Compiles a schema.
+	 * @param spec Schema specification.
+	 * @throws IllegalArgumentException The specification is invalid.
+	 */
+	public PayloadSchema(JsonObject spec) throws IllegalArgumentException {
+		this.root = compile(spec);
+	}
+
+	private static Node compile(Object spec) throws IllegalArgumentException {
+		if (spec instanceof String) {
+			return new TypeNode((String) spec);
+		} else if (spec instanceof JsonObject) {
+			JsonObject objectSpec = (JsonObject) spec;
+			List<Field> fields = new ArrayList<>();
+			for (String fieldName : objectSpec.getFieldNames()) {
+				boolean isOptional = fieldName.endsWith("?");
+				String name = isOptional ? fieldName.substring(0, fieldName.length() - 1) : fieldName;
+				fields.add(new Field(name, !isOptional, compile(objectSpec.getValue(fieldName))));
+			}
+			return new ObjectNode(fields);
+		} else if (spec instanceof JsonArray) {
+			JsonArray arraySpec = (JsonArray) spec;
+			if (arraySpec.size() != 1) {
+				throw new IllegalArgumentException("Array specifications require exactly one element specification.");
+			}
+			return new ArrayNode(compile(arraySpec.get(0)));
+		} else {
+			throw new IllegalArgumentException("Invalid schema specification: " + spec);
+		}
+	}
+
+	/**
+	 * Validates a payload.
+	 * @param payload Payload to validate.
+	 * @return <code>null</code> if the payload matches the schema, otherwise a description of the first mismatch.
+	 */
+	public String validate(JsonObject payload) {
+		return root.validate(payload, "$");
+	}
+
+	/**
+	 * Checks if a payload matches the schema.
+	 * @param payload Payload to check.
+	 * @return <code>true</code> if the payload is valid, otherwise <code>false</code>.
+	 */
+	public boolean matches(JsonObject payload) {
+		return validate(payload) == null;
+	}
+}
@@ -14,26 +14,63 @@ import org.vertx.java.core.AsyncResultHandler;
 public class ResultAggregationHandler<T> {
 	private final AsyncResultHandler<Void> finalResultHandler;
 	private final Set<AsyncResultHandler<Void>> openRequests;
+	private final Set<AsyncResultHandler<Void>> deferredRequests;
 	private final Map<T, AsyncResultHandler<Void>> resultHandlers;
 	private boolean isAborted;
+	private boolean isDeferred;
 	
 	public ResultAggregationHandler(Set<T> requesters, AsyncResultHandler<Void> finalResultHandler) {
 		this.finalResultHandler = finalResultHandler;
 		openRequests = new HashSet<>();
+		deferredRequests = new HashSet<>();
 		isAborted = false;
+		isDeferred = false;
 		resultHandlers = new HashMap<>();
 		for (T requester : requesters) {
-			AsyncResultHandler<Void> resultHandler = new AsyncResultHandler<Void>() {
+			AsyncResultHandler<Void> resultHandler = new DeferrableResultHandler() {
 
 				@Override
 				public void handle(AsyncResult<Void> result) {
 					openRequests.remove(this);
+					deferredRequests.remove(this);
 					checkAndComplete(result);
+					checkDeferred();
+				}
+
+				@Override
+				public void deferred() {
+					if (openRequests.contains(this)) deferredRequests.add(this);
+					checkDeferred();
 				}
 			};
 			resultHandlers.put(requester, resultHandler);
 			openRequests.add(resultHandler);
 		}
+		if (requesters.isEmpty()) {
+			// Nothing to wait for.
+			checkAndComplete(new AsyncResult<Void>() {
+				
+				@Override
+				public boolean succeeded() {
+					return true;
+				}
+				
+				@Override
+				public Void result() {
+					return null;
+				}
+				
+				@Override
+				public boolean failed() {
+					return false;
+				}
+				
+				@Override
+				public Throwable cause() {
+					return null;
+				}
+			});
+		}
 	}
 	
 	public AsyncResultHandler<Void> getRequestHandler(T requester) {
@@ -41,6 +78,17 @@ public class ResultAggregationHandler<T> {
 	}
 	
 	
+	/**
+	 * Notifies the final result handler if all open requests are deferred.
+	 */
+	private void checkDeferred() {
+		if (isAborted || isDeferred || openRequests.isEmpty() || deferredRequests.size() < openRequests.size()) return;
+		isDeferred = true;
+		if (finalResultHandler instanceof DeferrableResultHandler) {
+			((DeferrableResultHandler) finalResultHandler).deferred();
+		}
+	}
+	
 	private void checkAndComplete(final AsyncResult<Void> result) {
 		if (isAborted) return; // We already threw an error.
 		if (openRequests.isEmpty() && result.succeeded()) {
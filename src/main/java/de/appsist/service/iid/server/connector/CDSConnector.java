@@ -1,36 +1,558 @@
 package de.appsist.service.iid.server.connector;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
 import org.vertx.java.core.Vertx;
-import org.vertx.java.core.http.HttpClient;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.file.AsyncFile;
+import org.vertx.java.core.http.HttpClientRequest;
+import org.vertx.java.core.http.HttpClientResponse;
+import org.vertx.java.core.json.DecodeException;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.appsist.service.iid.server.FailResult;
+import de.appsist.service.iid.server.monitor.Metrics;
 
 /**
  * Connector for the content delivery service.
  * @author simon.schwantzer(at)im-c.de
  */
 public class CDSConnector {
-	final HttpClient cdsClient;
+	private static final Logger logger = LoggerFactory.getLogger(CDSConnector.class);
+	
+	// Default values if not configured.
+	private static final int MAX_RESPONSE_SIZE = 4 * 1024 * 1024;
+	private static final long MANIFEST_TTL = MILLISECONDS.convert(1, MINUTES);
+	private static final int MANIFEST_CACHE_SIZE = 500;
+	private static final long REQUEST_TIMEOUT = 10000l;
+	private static final int MAX_FAILURES = 3;
+	private static final long EJECTION_TIME = MILLISECONDS.convert(30, SECONDS);
+	private static final long HEALTH_CHECK_INTERVAL = MILLISECONDS.convert(5, SECONDS);
+	private static final long HEALTH_CHECK_TIMEOUT = MILLISECONDS.convert(2, SECONDS);
+	
+	final Vertx vertx;
 	final String basePath;
+	private final List<CDSEndpoint> endpoints;
+	private int nextEndpoint;
+	private final long requestTimeout;
+	private final long healthCheckTimeout;
+	private final Long healthCheckTimerId;
+	private final int maxResponseSize;
+	private final long manifestTtl;
+	private final Metrics metrics;
+	private final Map<String, CachedManifest> manifestCache;
+	private final Map<String, List<AsyncResultHandler<JsonObject>>> pendingManifestRequests;
+	
+	/**
+	 * Manifest cached with the validators of the response.
+	 */
+	private static class CachedManifest {
+		private final JsonObject manifest;
+		private final String eTag;
+		private final String lastModified;
+		private long validationTime;
+		private boolean isRevalidating;
+		
+		public CachedManifest(JsonObject manifest, String eTag, String lastModified) {
+			this.manifest = manifest;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+			this.validationTime = System.currentTimeMillis();
+			this.isRevalidating = false;
+		}
+	}
 	
-	public CDSConnector(Vertx vertx, JsonObject httpConfig) {
-		cdsClient = vertx.createHttpClient();
-		cdsClient.setHost(httpConfig.getString("host", "localhost"));
-		cdsClient.setPort(httpConfig.getInteger("port", 8080));
-		cdsClient.setSSL(httpConfig.getBoolean("secure", false));
+	/**
+	 * Result of a request returning a JSON object, e.g., a cached manifest.
+	 */
+	private static class JsonResult implements AsyncResult<JsonObject> {
+		private final JsonObject result;
+		private final Throwable cause;
+		
+		public JsonResult(JsonObject result) {
+			this.result = result;
+			this.cause = null;
+		}
+		
+		public JsonResult(Throwable cause) {
+			this.result = null;
+			this.cause = cause;
+		}
+
+		@Override
+		public JsonObject result() {
+			return result;
+		}
+
+		@Override
+		public Throwable cause() {
+			return cause;
+		}
+
+		@Override
+		public boolean succeeded() {
+			return cause == null;
+		}
+
+		@Override
+		public boolean failed() {
+			return cause != null;
+		}
+	}
+	
+	public CDSConnector(Vertx vertx, JsonObject httpConfig, Metrics metrics) {
+		this.vertx = vertx;
+		this.metrics = metrics;
+		maxResponseSize = httpConfig.getInteger("maxResponseSize", MAX_RESPONSE_SIZE);
+		manifestTtl = httpConfig.getLong("manifestTtl", MANIFEST_TTL);
+		final int manifestCacheSize = httpConfig.getInteger("manifestCacheSize", MANIFEST_CACHE_SIZE);
+		manifestCache = new LinkedHashMap<String, CachedManifest>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedManifest> eldest) {
+				return size() > manifestCacheSize;
+			}
+		};
+		pendingManifestRequests = new HashMap<>();
 		basePath = httpConfig.getString("path");
+		requestTimeout = httpConfig.getLong("requestTimeout", REQUEST_TIMEOUT);
+		
+		int maxFailures = httpConfig.getInteger("maxFailures", MAX_FAILURES);
+		long ejectionTime = httpConfig.getLong("ejectionTime", EJECTION_TIME);
+		endpoints = new ArrayList<>();
+		JsonArray endpointsArray = httpConfig.getArray("endpoints");
+		if (endpointsArray != null && endpointsArray.size() > 0) {
+			for (Object entry : endpointsArray) {
+				endpoints.add(new CDSEndpoint(vertx, (JsonObject) entry, metrics, maxFailures, ejectionTime));
+			}
+		} else {
+			endpoints.add(new CDSEndpoint(vertx, httpConfig, metrics, maxFailures, ejectionTime));
+		}
+		nextEndpoint = 0;
+		
+		JsonObject healthCheckConfig = httpConfig.getObject("healthCheck", new JsonObject());
+		long healthCheckInterval = healthCheckConfig.getLong("interval", endpoints.size() > 1 ? HEALTH_CHECK_INTERVAL : 0);
+		healthCheckTimeout = healthCheckConfig.getLong("timeout", HEALTH_CHECK_TIMEOUT);
+		if (healthCheckInterval > 0) {
+			healthCheckTimerId = vertx.setPeriodic(healthCheckInterval, new Handler<Long>() {
+				
+				@Override
+				public void handle(Long timerId) {
+					for (CDSEndpoint endpoint : endpoints) {
+						checkHealth(endpoint);
+					}
+				}
+			});
+		} else {
+			healthCheckTimerId = null;
+		}
+	}
+	
+	/**
+	 * Selects the endpoint for the next request: The available endpoint with the least outstanding requests.
+	 * Ties are broken in turn. If no endpoint is available, the one with the least outstanding requests is used.
+	 * @return Endpoint to send the request to.
+	 */
+	private CDSEndpoint selectEndpoint() {
+		CDSEndpoint selectedEndpoint = null;
+		boolean isAvailable = false;
+		int size = endpoints.size();
+		for (int i = 0; i < size; i++) {
+			CDSEndpoint endpoint = endpoints.get((nextEndpoint + i) % size);
+			boolean isEndpointAvailable = endpoint.isAvailable();
+			if (selectedEndpoint == null || (isEndpointAvailable && !isAvailable)
+					|| (isEndpointAvailable == isAvailable && endpoint.getOutstandingRequests() < selectedEndpoint.getOutstandingRequests())) {
+				selectedEndpoint = endpoint;
+				isAvailable = isEndpointAvailable;
+			}
+		}
+		nextEndpoint = (nextEndpoint + 1) % size;
+		if (!isAvailable) metrics.increment("cds.endpoint.noneAvailable");
+		return selectedEndpoint;
+	}
+	
+	/**
+	 * Completes a request to an endpoint. Connection errors, timeouts, and server errors count as failure of the endpoint.
+	 * @param endpointRequest Request to complete.
+	 * @param cause Cause of the failure of the request, or <code>null</code> if the request succeeded.
+	 */
+	private static void completeRequest(CDSEndpoint.Request endpointRequest, Throwable cause) {
+		if (cause == null || cause instanceof DecodeException || (cause instanceof HttpException && ((HttpException) cause).getStatusCode() < 500)) {
+			endpointRequest.succeeded();
+		} else {
+			endpointRequest.failed();
+		}
+	}
+	
+	/**
+	 * Checks if an endpoint responds and updates its health. Any response without server error is considered as healthy.
+	 * @param endpoint Endpoint to check.
+	 */
+	private void checkHealth(final CDSEndpoint endpoint) {
+		HttpClientRequest request = endpoint.client().get(basePath + "/", new Handler<HttpClientResponse>() {
+			
+			@Override
+			public void handle(final HttpClientResponse response) {
+				response.bodyHandler(new Handler<Buffer>() {
+					
+					@Override
+					public void handle(Buffer buffer) {
+						endpoint.setHealthy(response.statusCode() < 500);
+					}
+				});
+			}
+		});
+		request.exceptionHandler(new Handler<Throwable>() {
+			
+			@Override
+			public void handle(Throwable t) {
+				endpoint.setHealthy(false);
+			}
+		});
+		request.setTimeout(healthCheckTimeout).end();
 	}
 	
 	/**
 	 * Requests the manifest of a content package.
+	 * Manifests are cached. Expired manifests are returned immediately while they are revalidated in the background.
+	 * Each request receives its own copy of the manifest, which may be modified.
 	 * @param contentId ID of the content package.
 	 * @param resultHandler Handler for the asynchronous request.
 	 */
-	public void retrieveContentManifest(String contentId, AsyncResultHandler<JsonObject> resultHandler) {
+	public void retrieveContentManifest(final String contentId, AsyncResultHandler<JsonObject> resultHandler) {
+		final CachedManifest cachedManifest = manifestCache.get(contentId);
+		if (cachedManifest != null) {
+			boolean isExpired = System.currentTimeMillis() - cachedManifest.validationTime >= manifestTtl;
+			metrics.increment(isExpired ? "cds.manifest.stale" : "cds.manifest.hit");
+			resultHandler.handle(new JsonResult(cachedManifest.manifest.copy()));
+			if (isExpired && !cachedManifest.isRevalidating) {
+				cachedManifest.isRevalidating = true;
+				fetchManifest(contentId, cachedManifest, new AsyncResultHandler<JsonObject>() {
+					
+					@Override
+					public void handle(AsyncResult<JsonObject> revalidationRequest) {
+						cachedManifest.isRevalidating = false;
+						if (revalidationRequest.failed()) {
+							Throwable cause = revalidationRequest.cause();
+							if (cause instanceof HttpException && ((HttpException) cause).getStatusCode() == 404) {
+								manifestCache.remove(contentId);
+							}
+							logger.debug("Failed to revalidate manifest of content package " + contentId + ": " + cause);
+						}
+					}
+				});
+			}
+			return;
+		}
+		
+		// Concurrent requests for the same manifest share a single request.
+		List<AsyncResultHandler<JsonObject>> pendingRequests = pendingManifestRequests.get(contentId);
+		if (pendingRequests != null) {
+			metrics.increment("cds.manifest.coalesced");
+			pendingRequests.add(resultHandler);
+			return;
+		}
+		pendingRequests = new ArrayList<>();
+		pendingRequests.add(resultHandler);
+		pendingManifestRequests.put(contentId, pendingRequests);
+		metrics.increment("cds.manifest.miss");
+		fetchManifest(contentId, null, new AsyncResultHandler<JsonObject>() {
+			
+			@Override
+			public void handle(AsyncResult<JsonObject> manifestRequest) {
+				List<AsyncResultHandler<JsonObject>> pendingRequests = pendingManifestRequests.remove(contentId);
+				if (pendingRequests == null) return; // Already completed.
+				for (AsyncResultHandler<JsonObject> pendingRequest : pendingRequests) {
+					// The fetched manifest is cached, so each request receives a copy.
+					pendingRequest.handle(manifestRequest.succeeded() ? new JsonResult(manifestRequest.result().copy()) : manifestRequest);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Checks if the manifest of a content package is cached. Expired manifests are cached as well, as they are returned immediately.
+	 * @param contentId ID of the content package.
+	 * @return <code>true</code> if a request for the manifest would be answered from the cache without waiting for the service, otherwise <code>false</code>.
+	 */
+	public boolean isManifestCached(String contentId) {
+		return manifestCache.containsKey(contentId);
+	}
+	
+	/**
+	 * Fetches a manifest from the content delivery service and caches it.
+	 * @param contentId ID of the content package.
+	 * @param cachedManifest Cached manifest to revalidate, or <code>null</code> for an unconditional request.
+	 * @param resultHandler Handler for the manifest. On revalidation, the cached manifest is returned if it has not been modified.
+	 */
+	private void fetchManifest(final String contentId, final CachedManifest cachedManifest, final AsyncResultHandler<JsonObject> manifestHandler) {
 		String path = basePath + "/" + contentId + "/content.json";
-        cdsClient.get(path, new JsonResponseHandler(resultHandler)).setTimeout(10000).end();
+		final CDSEndpoint.Request endpointRequest = selectEndpoint().startRequest();
+		final AsyncResultHandler<JsonObject> resultHandler = new AsyncResultHandler<JsonObject>() {
+			
+			@Override
+			public void handle(AsyncResult<JsonObject> manifestRequest) {
+				completeRequest(endpointRequest, manifestRequest.cause());
+				manifestHandler.handle(manifestRequest);
+			}
+		};
+		HttpClientRequest request = endpointRequest.client().get(path, new Handler<HttpClientResponse>() {
+			
+			@Override
+			public void handle(HttpClientResponse response) {
+				if (cachedManifest != null && response.statusCode() == 304) {
+					metrics.increment("cds.manifest.notModified");
+					cachedManifest.validationTime = System.currentTimeMillis();
+					resultHandler.handle(new JsonResult(cachedManifest.manifest));
+					return;
+				}
+				final String eTag = response.headers().get("ETag");
+				final String lastModified = response.headers().get("Last-Modified");
+				new JsonResponseHandler(new AsyncResultHandler<JsonObject>() {
+					
+					@Override
+					public void handle(AsyncResult<JsonObject> manifestRequest) {
+						if (manifestRequest.succeeded()) {
+							manifestCache.put(contentId, new CachedManifest(manifestRequest.result(), eTag, lastModified));
+						}
+						resultHandler.handle(manifestRequest);
+					}
+				}, maxResponseSize, metrics, "cds").handle(response);
+			}
+		});
+		if (cachedManifest != null) {
+			if (cachedManifest.eTag != null) request.putHeader("If-None-Match", cachedManifest.eTag);
+			if (cachedManifest.lastModified != null) request.putHeader("If-Modified-Since", cachedManifest.lastModified);
+		}
+		request.exceptionHandler(new Handler<Throwable>() {
+			
+			@Override
+			public void handle(Throwable t) {
+				resultHandler.handle(new JsonResult(t));
+			}
+		});
+		request.setTimeout(requestTimeout).end();
+	}
+	
+	/**
+	 * Checks if the content delivery service is reachable. Any HTTP response is considered as success.
+	 * @param resultHandler Handler for the asynchronous request.
+	 */
+	public void ping(final AsyncResultHandler<Void> resultHandler) {
+		HttpClientRequest request = selectEndpoint().client().get(basePath + "/", new Handler<HttpClientResponse>() {
+			
+			@Override
+			public void handle(HttpClientResponse response) {
+				response.bodyHandler(new Handler<Buffer>() {
+					
+					@Override
+					public void handle(Buffer buffer) {
+						resultHandler.handle(new AsyncResult<Void>() {
+							
+							@Override
+							public boolean succeeded() {
+								return true;
+							}
+							
+							@Override
+							public Void result() {
+								return null;
+							}
+							
+							@Override
+							public boolean failed() {
+								return false;
+							}
+							
+							@Override
+							public Throwable cause() {
+								return null;
+							}
+						});
+					}
+				});
+			}
+		});
+		request.exceptionHandler(new Handler<Throwable>() {
+			
+			@Override
+			public void handle(Throwable t) {
+				resultHandler.handle(new FailResult(t));
+			}
+		});
+		request.setTimeout(requestTimeout).end();
+	}
+	
+	/**
+	 * Stops the health checks and closes the HTTP clients of the connector.
+	 */
+	public void close() {
+		if (healthCheckTimerId != null) vertx.cancelTimer(healthCheckTimerId);
+		for (CDSEndpoint endpoint : endpoints) {
+			endpoint.close();
+		}
+	}
+	
+	/**
+	 * Downloads a file of a content package to the local file system.
+	 * The file is only complete when the result handler reports success. On failure, a partially written file may remain.
+	 * @param contentId ID of the content package.
+	 * @param fileName Name of the file relative to the package.
+	 * @param targetFile Path of the local file to write.
+	 * @param maxSize Maximum size of the file in bytes. The download fails with status code 413 if the file is larger, and the connection is closed.
+	 * @param resultHandler Handler for the asynchronous request. Returns the size [size], and, if delivered by the service, the content type [contentType] and last modification [lastModified].
+	 */
+	public void downloadFile(String contentId, String fileName, final String targetFile, final long maxSize, final AsyncResultHandler<JsonObject> downloadHandler) {
+		final CDSEndpoint.Request endpointRequest = selectEndpoint().startRequest();
+		final AsyncResultHandler<JsonObject> resultHandler = new AsyncResultHandler<JsonObject>() {
+			
+			@Override
+			public void handle(AsyncResult<JsonObject> downloadRequest) {
+				completeRequest(endpointRequest, downloadRequest.cause());
+				downloadHandler.handle(downloadRequest);
+			}
+		};
+		HttpClientRequest request = endpointRequest.client().get(getUrlForFile(contentId, fileName), new Handler<HttpClientResponse>() {
+			
+			@Override
+			public void handle(final HttpClientResponse response) {
+				if (response.statusCode() != 200) {
+					response.bodyHandler(new Handler<Buffer>() {
+						
+						@Override
+						public void handle(Buffer body) {
+							resultHandler.handle(new JsonResult(new HttpException(body.toString(), response.statusCode())));
+						}
+					});
+					return;
+				}
+				long contentLength = -1;
+				try {
+					String contentLengthHeader = response.headers().get("Content-Length");
+					if (contentLengthHeader != null) contentLength = Long.parseLong(contentLengthHeader);
+				} catch (NumberFormatException e) {
+					// Length unknown.
+				}
+				if (contentLength > maxSize) {
+					// The body is not read, so the connection is closed instead of being returned to the pool.
+					response.netSocket().close();
+					resultHandler.handle(new JsonResult(new HttpException("File exceeds the maximum size of " + maxSize + " bytes.", 413)));
+					return;
+				}
+				final JsonObject fileInfo = new JsonObject();
+				if (response.headers().contains("Content-Type")) fileInfo.putString("contentType", response.headers().get("Content-Type"));
+				if (response.headers().contains("Last-Modified")) fileInfo.putString("lastModified", response.headers().get("Last-Modified"));
+				response.pause();
+				vertx.fileSystem().open(targetFile, null, false, true, true, new Handler<AsyncResult<AsyncFile>>() {
+					
+					@Override
+					public void handle(AsyncResult<AsyncFile> openRequest) {
+						if (openRequest.failed()) {
+							response.resume();
+							resultHandler.handle(new JsonResult(openRequest.cause()));
+							return;
+						}
+						writeToFile(response, openRequest.result(), maxSize, fileInfo, resultHandler);
+					}
+				});
+			}
+		});
+		request.exceptionHandler(new Handler<Throwable>() {
+			
+			@Override
+			public void handle(Throwable t) {
+				resultHandler.handle(new JsonResult(t));
+			}
+		});
+		request.setTimeout(requestTimeout).end();
 	}
 	
+	/**
+	 * Writes the body of a response to a file, pausing the response while the file cannot keep up.
+	 */
+	private void writeToFile(final HttpClientResponse response, final AsyncFile file, final long maxSize, final JsonObject fileInfo, final AsyncResultHandler<JsonObject> resultHandler) {
+		final long[] size = {0l};
+		final boolean[] isFailed = {false};
+		response.dataHandler(new Handler<Buffer>() {
+			
+			@Override
+			public void handle(Buffer chunk) {
+				if (isFailed[0]) return;
+				size[0] += chunk.length();
+				if (size[0] > maxSize) {
+					isFailed[0] = true;
+					file.close();
+					// Stops the transfer of the remaining body.
+					response.netSocket().close();
+					resultHandler.handle(new JsonResult(new HttpException("File exceeds the maximum size of " + maxSize + " bytes.", 413)));
+					return;
+				}
+				file.write(chunk);
+				if (file.writeQueueFull()) {
+					response.pause();
+					file.drainHandler(new Handler<Void>() {
+						
+						@Override
+						public void handle(Void event) {
+							response.resume();
+						}
+					});
+				}
+			}
+		});
+		response.exceptionHandler(new Handler<Throwable>() {
+			
+			@Override
+			public void handle(Throwable t) {
+				if (isFailed[0]) return;
+				isFailed[0] = true;
+				file.close();
+				resultHandler.handle(new JsonResult(t));
+			}
+		});
+		response.endHandler(new Handler<Void>() {
+			
+			@Override
+			public void handle(Void event) {
+				if (isFailed[0]) return;
+				file.close(new Handler<AsyncResult<Void>>() {
+					
+					@Override
+					public void handle(AsyncResult<Void> closeRequest) {
+						if (closeRequest.failed()) {
+							resultHandler.handle(new JsonResult(closeRequest.cause()));
+						} else {
+							metrics.record("cds.file.size", size[0]);
+							resultHandler.handle(new JsonResult(fileInfo.putNumber("size", size[0])));
+						}
+					}
+				});
+			}
+		});
+		response.resume();
+	}
+	
+	/**
+	 * Returns the path of a file of a content package on the content delivery service.
+	 * @param contentId ID of the content package.
+	 * @param fileName Name of the file relative to the package.
+	 * @return Absolute path of the file on the service host.
+	 */
 	public String getUrlForFile(String contentId, String fileName) {
 		return basePath + "/" + contentId + "/" + fileName;
 	}
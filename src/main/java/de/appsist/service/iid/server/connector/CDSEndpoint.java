@@ -0,0 +1,154 @@
+package de.appsist.service.iid.server.connector;
+
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.http.HttpClient;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.iid.server.monitor.Metrics;
+
+/**
+ * Single endpoint of the content delivery service.
+ * The endpoint tracks its outstanding requests and is ejected for a while after repeated failures or timeouts.
+ */
+public class CDSEndpoint {
+	private final String name;
+	private final HttpClient client;
+	private final Metrics metrics;
+	private final int maxFailures;
+	private final long ejectionTime;
+	private int outstandingRequests;
+	private int consecutiveFailures;
+	private long ejectedUntil;
+	private boolean isHealthy;
+
+	/**
+	 * Request sent to an endpoint. The request is completed once, further completions are ignored.
+	 */
+	public class Request {
+		private final long startTime;
+		private boolean isCompleted;
+
+		private Request() {
+			this.startTime = System.currentTimeMillis();
+			this.isCompleted = false;
+		}
+
+		/**
+		 * Returns the HTTP client to send the request with.
+		 * @return HTTP client of the endpoint.
+		 */
+		public HttpClient client() {
+			return client;
+		}
+
+		/**
+		 * Completes the request, i.e., the service has responded.
+		 */
+		public void succeeded() {
+			if (isCompleted) return;
+			isCompleted = true;
+			outstandingRequests--;
+			consecutiveFailures = 0;
+			metrics.record("cds.endpoint." + name + ".latency", System.currentTimeMillis() - startTime);
+		}
+
+		/**
+		 * Completes the request as failed, e.g., on connection errors, timeouts, or server errors.
+		 */
+		public void failed() {
+			if (isCompleted) return;
+			isCompleted = true;
+			outstandingRequests--;
+			metrics.increment("cds.endpoint." + name + ".failed");
+			if (++consecutiveFailures >= maxFailures) {
+				consecutiveFailures = 0;
+				ejectedUntil = System.currentTimeMillis() + ejectionTime;
+				metrics.increment("cds.endpoint." + name + ".ejected");
+			}
+		}
+	}
+
+	/**
+	 * Creates an endpoint.
+	 * @param vertx Vert.x instance to create the HTTP client.
+	 * @param endpointConfig Endpoint configuration with host [host], port [port], and SSL flag [secure].
+	 * @param metrics Metrics to record latencies, failures, and ejections.
+	 * @param maxFailures Number of consecutive failures after which the endpoint is ejected.
+	 * @param ejectionTime Time in milliseconds the endpoint is ejected.
+	 */
+	public CDSEndpoint(Vertx vertx, JsonObject endpointConfig, Metrics metrics, int maxFailures, long ejectionTime) {
+		String host = endpointConfig.getString("host", "localhost");
+		int port = endpointConfig.getInteger("port", 8080);
+		this.name = host + ":" + port;
+		this.client = vertx.createHttpClient();
+		client.setHost(host);
+		client.setPort(port);
+		client.setSSL(endpointConfig.getBoolean("secure", false));
+		this.metrics = metrics;
+		this.maxFailures = maxFailures;
+		this.ejectionTime = ejectionTime;
+		this.outstandingRequests = 0;
+		this.consecutiveFailures = 0;
+		this.ejectedUntil = 0;
+		this.isHealthy = true;
+	}
+
+	/**
+	 * Returns the name of the endpoint.
+	 * @return Host and port, e.g., "localhost:8080".
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the HTTP client for the endpoint.
+	 * @return HTTP client.
+	 */
+	public HttpClient client() {
+		return client;
+	}
+
+	/**
+	 * Registers a request sent to the endpoint.
+	 * @return Request to complete when the response has been received or the request failed.
+	 */
+	public Request startRequest() {
+		outstandingRequests++;
+		return new Request();
+	}
+
+	/**
+	 * Returns the number of requests without response.
+	 * @return Number of outstanding requests.
+	 */
+	public int getOutstandingRequests() {
+		return outstandingRequests;
+	}
+
+	/**
+	 * Checks if the endpoint may receive requests, i.e., it has passed the last health check and is not ejected.
+	 * @return <code>true</code> if the endpoint is available, otherwise <code>false</code>.
+	 */
+	public boolean isAvailable() {
+		return isHealthy && System.currentTimeMillis() >= ejectedUntil;
+	}
+
+	/**
+	 * Sets the result of the last active health check.
+	 * @param isHealthy <code>true</code> if the endpoint has responded to the health check, otherwise <code>false</code>.
+	 */
+	public void setHealthy(boolean isHealthy) {
+		if (this.isHealthy != isHealthy) {
+			metrics.increment("cds.endpoint." + name + (isHealthy ? ".recovered" : ".unhealthy"));
+		}
+		this.isHealthy = isHealthy;
+	}
+
+	/**
+	 * Closes the HTTP client.
+	 */
+	public void close() {
+		client.close();
+	}
+}
@@ -1,48 +1,165 @@
 package de.appsist.service.iid.server.connector;
 
+import java.io.IOException;
+import java.util.Map;
+
+import io.netty.buffer.ByteBufInputStream;
+
 import org.vertx.java.core.*;
 import org.vertx.java.core.buffer.Buffer;
 import org.vertx.java.core.http.HttpClientResponse;
+import org.vertx.java.core.json.DecodeException;
 import org.vertx.java.core.json.JsonObject;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import de.appsist.service.iid.server.monitor.Metrics;
+
+/**
+ * Handler for HTTP responses with a JSON body.
+ * The body is collected chunk by chunk up to a maximum size and decoded directly from the received bytes, exactly once.
+ */
 public class JsonResponseHandler implements Handler<HttpClientResponse> {
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final int INITIAL_BUFFER_SIZE = 8192;
+
 	private final AsyncResultHandler<JsonObject> resultHandler;
-	
-	public JsonResponseHandler(AsyncResultHandler<JsonObject> resultHandler) {
+	private final int maxBodySize;
+	private final Metrics metrics;
+	private final String metricsPrefix;
+	private boolean isCompleted;
+
+	/**
+	 * JSON object wrapping the decoded map without copying it.
+	 */
+	private static class DecodedJsonObject extends JsonObject {
+		private static final long serialVersionUID = 1L;
+
+		public DecodedJsonObject(Map<String, Object> map) {
+			super(map, false);
+		}
+	}
+
+	/**
+	 * Result of a response, computed once.
+	 */
+	private static class ResponseResult implements AsyncResult<JsonObject> {
+		private final JsonObject result;
+		private final Throwable cause;
+
+		public ResponseResult(JsonObject result, Throwable cause) {
+			this.result = result;
+			this.cause = cause;
+		}
+
+		@Override
+		public JsonObject result() {
+			return result;
+		}
+
+		@Override
+		public Throwable cause() {
+			return cause;
+		}
+
+		@Override
+		public boolean succeeded() {
+			return cause == null;
+		}
+
+		@Override
+		public boolean failed() {
+			return cause != null;
+		}
+	}
+
+	/**
+	 * Creates a response handler.
+	 * @param resultHandler Handler for the decoded body. The request fails if the status code is not 200, the body is too large, or invalid.
+	 * @param maxBodySize Maximum size of the body in bytes.
+	 * @param metrics Metrics to record payload sizes [prefix.response.size] and decode times in microseconds [prefix.response.decodeMicros]. May be <code>null</code>.
+	 * @param metricsPrefix Prefix for the metrics, e.g. "cds".
+	 */
+	public JsonResponseHandler(AsyncResultHandler<JsonObject> resultHandler, int maxBodySize, Metrics metrics, String metricsPrefix) {
 		this.resultHandler = resultHandler;
+		this.maxBodySize = maxBodySize;
+		this.metrics = metrics;
+		this.metricsPrefix = metricsPrefix;
+		this.isCompleted = false;
 	}
-	
+
 	@Override
 	public void handle(final HttpClientResponse response) {
-			response.bodyHandler(new Handler<Buffer>() {
-			
+		int contentLength = -1;
+		String contentLengthHeader = response.headers().get("Content-Length");
+		if (contentLengthHeader != null) try {
+			contentLength = Integer.parseInt(contentLengthHeader);
+		} catch (NumberFormatException e) {
+			// Length unknown.
+		}
+		if (contentLength > maxBodySize) {
+			complete(null, new HttpException("Response body of " + contentLength + " bytes exceeds the maximum size of " + maxBodySize + " bytes.", 502));
+			return;
+		}
+
+		final Buffer body = new Buffer(contentLength >= 0 ? contentLength : INITIAL_BUFFER_SIZE);
+		response.dataHandler(new Handler<Buffer>() {
+
+			@Override
+			public void handle(Buffer chunk) {
+				if (isCompleted) return;
+				if (body.length() + chunk.length() > maxBodySize) {
+					complete(null, new HttpException("Response body exceeds the maximum size of " + maxBodySize + " bytes.", 502));
+					return;
+				}
+				body.appendBuffer(chunk);
+			}
+		});
+		response.exceptionHandler(new Handler<Throwable>() {
+
 			@Override
-			public void handle(Buffer buffer) {
-				final String body = buffer.toString();
-				resultHandler.handle(new AsyncResult<JsonObject>() {
-					
-					@Override
-					public boolean succeeded() {
-						return response.statusCode() == 200;
-					}
-					
-					@Override
-					public JsonObject result() {
-						return succeeded() ? new JsonObject(body) : null;
-					}
-					
-					@Override
-					public boolean failed() {
-						return !succeeded();
-					}
-					
-					@Override
-					public Throwable cause() {
-						return failed() ? new HttpException(body, response.statusCode()) : null;
-					}
-				});
-				
+			public void handle(Throwable t) {
+				complete(null, t);
 			}
 		});
+		response.endHandler(new Handler<Void>() {
+
+			@Override
+			public void handle(Void event) {
+				if (isCompleted) return;
+				if (metrics != null) metrics.record(metricsPrefix + ".response.size", body.length());
+				if (response.statusCode() != 200) {
+					complete(null, new HttpException(body.toString(), response.statusCode()));
+					return;
+				}
+				long decodeStart = System.nanoTime();
+				JsonObject result;
+				try {
+					result = decode(body);
+				} catch (DecodeException e) {
+					complete(null, e);
+					return;
+				}
+				if (metrics != null) metrics.record(metricsPrefix + ".response.decodeMicros", (System.nanoTime() - decodeStart) / 1000);
+				complete(result, null);
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static JsonObject decode(Buffer body) throws DecodeException {
+		try (ByteBufInputStream inputStream = new ByteBufInputStream(body.getByteBuf())) {
+			Map<String, Object> map = MAPPER.readValue(inputStream, Map.class);
+			if (map == null) throw new DecodeException("Empty response body.");
+			return new DecodedJsonObject(map);
+		} catch (IOException | ClassCastException e) {
+			throw new DecodeException("Failed to decode response body: " + e.getMessage());
+		}
+	}
+
+	private void complete(JsonObject result, Throwable cause) {
+		if (isCompleted) return;
+		isCompleted = true;
+		resultHandler.handle(new ResponseResult(result, cause));
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,138 @@
+package de.appsist.service.iid.server.handler;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.iid.server.DeferrableResultHandler;
+import de.appsist.service.iid.server.HandlerRegistry;
+import de.appsist.service.iid.server.ResultAggregationHandler;
+import de.appsist.service.iid.server.model.ServiceCatalog;
+
+/**
+ * Handler pushing service catalogs to the views of a session.
+ * Pushes of the same catalog within the coalescing window are combined, so that each view receives only one update.
+ */
+public class CatalogPushHandler {
+	// Default values if not configured.
+	private static final long COALESCING_WINDOW = 25l;
+
+	private final HandlerRegistry handlers;
+	private final long coalescingWindow;
+	private final Map<String, PendingPush> pendingPushes;
+
+	/**
+	 * Push waiting for the end of the coalescing window.
+	 */
+	private class PendingPush {
+		private final String sessionId;
+		private final ServiceCatalog catalog;
+		private final List<AsyncResultHandler<Void>> resultHandlers;
+
+		public PendingPush(String sessionId, ServiceCatalog catalog) {
+			this.sessionId = sessionId;
+			this.catalog = catalog;
+			this.resultHandlers = new ArrayList<>();
+		}
+	}
+
+	/**
+	 * Creates the handler.
+	 * @param handlers Handler registry to retrieve views.
+	 * @param config Catalog push configuration. May be empty.
+	 */
+	public CatalogPushHandler(HandlerRegistry handlers, JsonObject config) {
+		this.handlers = handlers;
+		this.coalescingWindow = config.getLong("coalescingWindow", COALESCING_WINDOW);
+		this.pendingPushes = new HashMap<>();
+	}
+
+	/**
+	 * Pushes a catalog to all views of a session.
+	 * The catalog must already contain all changes, it is sent as it is at the end of the coalescing window.
+	 * @param sessionId Session to push the catalog to.
+	 * @param catalog Updated catalog.
+	 * @param resultHandler Handler called when all views have been updated.
+	 */
+	public void push(String sessionId, ServiceCatalog catalog, AsyncResultHandler<Void> resultHandler) {
+		if (coalescingWindow <= 0) {
+			sendCatalog(sessionId, catalog, resultHandler);
+			return;
+		}
+		final String key = sessionId + "/" + catalog.getId();
+		PendingPush pendingPush = pendingPushes.get(key);
+		if (pendingPush == null) {
+			pendingPush = new PendingPush(sessionId, catalog);
+			pendingPushes.put(key, pendingPush);
+			handlers.vertx().setTimer(coalescingWindow, new Handler<Long>() {
+
+				@Override
+				public void handle(Long timerId) {
+					flush(key);
+				}
+			});
+		} else {
+			handlers.metrics().increment("catalogPush.coalesced");
+		}
+		pendingPush.resultHandlers.add(resultHandler);
+	}
+
+	/**
+	 * Sends all pending pushes immediately.
+	 */
+	public void flushAll() {
+		for (String key : new ArrayList<>(pendingPushes.keySet())) {
+			flush(key);
+		}
+	}
+
+	private void flush(String key) {
+		final PendingPush pendingPush = pendingPushes.remove(key);
+		if (pendingPush == null) return; // Already flushed.
+		sendCatalog(pendingPush.sessionId, pendingPush.catalog, new DeferrableResultHandler() {
+
+			@Override
+			public void handle(AsyncResult<Void> pushResult) {
+				for (AsyncResultHandler<Void> resultHandler : pendingPush.resultHandlers) {
+					resultHandler.handle(pushResult);
+				}
+			}
+
+			@Override
+			public void deferred() {
+				for (AsyncResultHandler<Void> resultHandler : pendingPush.resultHandlers) {
+					if (resultHandler instanceof DeferrableResultHandler) ((DeferrableResultHandler) resultHandler).deferred();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sends a service catalog to the views of a session. The push is low priority and deferred if the event loop is overloaded.
+	 * @param sessionId Session to push the catalog to.
+	 * @param catalog Catalog to push.
+	 * @param resultHandler Handler called when all views have been updated.
+	 */
+	private void sendCatalog(final String sessionId, final ServiceCatalog catalog, final AsyncResultHandler<Void> resultHandler) {
+		handlers.eventLoopMonitor().runLowPriority("catalogPush", new Handler<Void>() {
+
+			@Override
+			public void handle(Void event) {
+				handlers.metrics().increment("catalogPush.sent");
+				Set<ViewHandler> clientConnections = Collections.unmodifiableSet(handlers.clientHandler().getViewHandlersForSession(sessionId));
+				final ResultAggregationHandler<ViewHandler> aggregationHandler = new ResultAggregationHandler<ViewHandler>(clientConnections, resultHandler);
+				for (ViewHandler clientConnection : clientConnections) {
+					clientConnection.updateCatalog(catalog, aggregationHandler.getRequestHandler(clientConnection));
+				}
+			}
+		});
+	}
+}
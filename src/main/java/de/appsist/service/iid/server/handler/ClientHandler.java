@@ -2,6 +2,8 @@ package de.appsist.service.iid.server.handler;
 
 import java.util.Set;
 
+import org.vertx.java.core.json.JsonArray;
+
 import de.appsist.service.auth.connector.model.User;
 import de.appsist.service.iid.server.handler.ViewHandler;
 
@@ -31,5 +33,22 @@ public interface ClientHandler {
 	 * @return User of the session or <code>null</code> if the requested session does not exist.
 	 */
 	public User getUserForSession(String sessionId);
+	
+	/**
+	 * Returns snapshots of all views managed by this handler.
+	 * @return Array of view snapshots. May be empty.
+	 */
+	public JsonArray getViewSnapshots();
+	
+	/**
+	 * Restores views from snapshots. Views are reattached when the related device registers again.
+	 * @param snapshots Array of view snapshots as returned by {@link #getViewSnapshots()}.
+	 */
+	public void restoreViews(JsonArray snapshots);
+	
+	/**
+	 * Unregisters all handlers and releases all views without closing their sessions.
+	 */
+	public void destroy();
 
 }
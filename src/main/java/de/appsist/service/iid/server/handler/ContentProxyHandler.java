@@ -0,0 +1,427 @@
+package de.appsist.service.iid.server.handler;
+
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.buffer.Buffer;
+import org.vertx.java.core.file.AsyncFile;
+import org.vertx.java.core.file.FileSystem;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.http.HttpServerResponse;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.appsist.service.iid.server.ConnectorRegistry;
+import de.appsist.service.iid.server.HandlerRegistry;
+import de.appsist.service.iid.server.connector.HttpException;
+
+/**
+ * Caching proxy for the files of content packages.
+ * Files are fetched from the content delivery service once and delivered to all tablets from a local directory.
+ * The cache is limited in size, the least recently used files are removed first.
+ * Files are stored in a dedicated subdirectory of the configured directory. On startup, files left by a previous run are removed from it, other files are not touched.
+ * Files larger than the cache are not cached, requests for them are redirected to the content delivery service.
+ * Such files are remembered for the maximum age of cached files, so that they are not downloaded again on each request.
+ */
+public class ContentProxyHandler implements Handler<HttpServerRequest> {
+	private static final Logger logger = LoggerFactory.getLogger(ContentProxyHandler.class);
+	public static final String PATH = "/content";
+	private static final int CHUNK_SIZE = 64 * 1024;
+	private static final String SUBDIRECTORY = "iid-content-proxy";
+	// Name pattern of cached files: [run]-[file].cache
+	private static final String FILE_PATTERN = "[0-9]+-[0-9]+\\.cache";
+	private static final int MAX_OVERSIZED_FILES = 1000;
+
+	// Default values if not configured.
+	private static final String DIRECTORY = "content-cache";
+	private static final long MAX_SIZE = 2l * 1024 * 1024 * 1024;
+	private static final long MAX_AGE = MILLISECONDS.convert(1, HOURS);
+
+	private final HandlerRegistry handlers;
+	private final ConnectorRegistry connectors;
+	private final String basePath;
+	private final String directory;
+	private final long maxSize;
+	private final long maxAge;
+	private final Map<String, CachedFile> cache;
+	private final Map<String, List<AsyncResultHandler<CachedFile>>> pendingDownloads;
+	// Files too large to be cached, with the time they have been detected.
+	private final Map<String, Long> oversizedFiles;
+	private long totalSize;
+	private long nextFileId;
+	private final long runId;
+
+	/**
+	 * File stored in the cache directory.
+	 */
+	private static class CachedFile {
+		private final String path;
+		private final long size;
+		private final String contentType;
+		private final String lastModified;
+		private final long creationTime;
+
+		public CachedFile(String path, JsonObject fileInfo) {
+			this.path = path;
+			this.size = fileInfo.getLong("size");
+			this.contentType = fileInfo.getString("contentType");
+			this.lastModified = fileInfo.getString("lastModified");
+			this.creationTime = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Result of a download into the cache.
+	 */
+	private static class DownloadResult implements AsyncResult<CachedFile> {
+		private final CachedFile file;
+		private final Throwable cause;
+
+		public DownloadResult(CachedFile file, Throwable cause) {
+			this.file = file;
+			this.cause = cause;
+		}
+
+		@Override
+		public CachedFile result() {
+			return file;
+		}
+
+		@Override
+		public Throwable cause() {
+			return cause;
+		}
+
+		@Override
+		public boolean succeeded() {
+			return cause == null;
+		}
+
+		@Override
+		public boolean failed() {
+			return cause != null;
+		}
+	}
+
+	/**
+	 * Creates the proxy.
+	 * @param handlers Handler registry to access the file system and metrics.
+	 * @param connectors Connector registry to access the content delivery service.
+	 * @param basePath Path of the proxy on the web server, e.g., "/services/iid-server/content".
+	 * @param config Content proxy configuration. May be empty.
+	 */
+	public ContentProxyHandler(HandlerRegistry handlers, ConnectorRegistry connectors, String basePath, JsonObject config) {
+		this.handlers = handlers;
+		this.connectors = connectors;
+		this.basePath = basePath;
+		this.directory = config.getString("directory", DIRECTORY) + "/" + SUBDIRECTORY;
+		this.maxSize = config.getLong("maxSize", MAX_SIZE);
+		this.maxAge = config.getLong("maxAge", MAX_AGE);
+		this.cache = new LinkedHashMap<>(16, 0.75f, true);
+		this.pendingDownloads = new HashMap<>();
+		this.oversizedFiles = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > MAX_OVERSIZED_FILES;
+			}
+		};
+		this.totalSize = 0;
+		this.nextFileId = 0;
+		this.runId = System.currentTimeMillis();
+	}
+
+	/**
+	 * Creates the cache directory and removes the files cached by previous runs in the background.
+	 */
+	public void start() {
+		final FileSystem fileSystem = handlers.vertx().fileSystem();
+		if (!fileSystem.existsSync(directory)) {
+			fileSystem.mkdirSync(directory, true);
+		}
+		fileSystem.readDir(directory, FILE_PATTERN, new Handler<AsyncResult<String[]>>() {
+
+			@Override
+			public void handle(AsyncResult<String[]> readRequest) {
+				if (readRequest.failed()) {
+					logger.warn("Failed to list cache directory " + directory + ": " + readRequest.cause());
+					return;
+				}
+				String currentRunPrefix = runId + "-";
+				for (String path : readRequest.result()) {
+					String fileName = path.substring(path.lastIndexOf(File.separatorChar) + 1);
+					if (!fileName.startsWith(currentRunPrefix)) deleteFile(path);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the path of the proxy on the web server.
+	 * The files of a content package are available at [basePath]/[contentId]/[fileName].
+	 * @return Base path for content packages.
+	 */
+	public String getBasePath() {
+		return basePath;
+	}
+
+	@Override
+	public void handle(final HttpServerRequest request) {
+		final String contentId = request.params().get("param0");
+		final String fileName = request.params().get("param1");
+		if (contentId.equals("..") || contentId.equals(".")) {
+			request.response().setStatusCode(400).end("Invalid content id: " + contentId);
+			return;
+		}
+		for (String segment : fileName.split("/")) {
+			if (segment.equals("..") || segment.equals(".")) {
+				request.response().setStatusCode(400).end("Invalid file name: " + fileName);
+				return;
+			}
+		}
+		final String key = contentId + "/" + fileName;
+		CachedFile cachedFile = cache.get(key);
+		if (cachedFile != null && System.currentTimeMillis() - cachedFile.creationTime >= maxAge) {
+			removeFromCache(key);
+			cachedFile = null;
+		}
+		if (cachedFile != null) {
+			handlers.metrics().increment("contentProxy.hit");
+			sendFile(request, cachedFile);
+			return;
+		}
+		Long detectionTime = oversizedFiles.get(key);
+		if (detectionTime != null) {
+			if (System.currentTimeMillis() - detectionTime < maxAge) {
+				handlers.metrics().increment("contentProxy.oversized");
+				redirect(request, contentId, fileName);
+				return;
+			}
+			oversizedFiles.remove(key);
+		}
+
+		// Concurrent requests for the same file share a single download.
+		List<AsyncResultHandler<CachedFile>> pendingRequests = pendingDownloads.get(key);
+		boolean isDownloading = pendingRequests != null;
+		if (!isDownloading) {
+			pendingRequests = new ArrayList<>();
+			pendingDownloads.put(key, pendingRequests);
+		}
+		pendingRequests.add(new AsyncResultHandler<CachedFile>() {
+
+			@Override
+			public void handle(AsyncResult<CachedFile> downloadRequest) {
+				if (downloadRequest.succeeded()) {
+					sendFile(request, downloadRequest.result());
+					return;
+				}
+				HttpServerResponse response = request.response();
+				Throwable cause = downloadRequest.cause();
+				if (cause instanceof HttpException && ((HttpException) cause).getStatusCode() == 413) {
+					// Too large to cache, delivered by the content delivery service.
+					redirect(request, contentId, fileName);
+				} else if (cause instanceof HttpException) {
+					response.setStatusCode(((HttpException) cause).getStatusCode()).end(cause.getMessage());
+				} else {
+					response.setStatusCode(502).end("Failed to retrieve file from content delivery service.");
+				}
+			}
+		});
+		if (isDownloading) {
+			handlers.metrics().increment("contentProxy.coalesced");
+		} else {
+			handlers.metrics().increment("contentProxy.miss");
+			download(key, contentId, fileName);
+		}
+	}
+
+	/**
+	 * Downloads a file into the cache and notifies all pending requests for it.
+	 */
+	private void download(final String key, String contentId, String fileName) {
+		final String path = directory + "/" + runId + "-" + (nextFileId++) + ".cache";
+		connectors.cdsConnector().downloadFile(contentId, fileName, path, maxSize, new AsyncResultHandler<JsonObject>() {
+
+			@Override
+			public void handle(AsyncResult<JsonObject> downloadRequest) {
+				List<AsyncResultHandler<CachedFile>> pendingRequests = pendingDownloads.remove(key);
+				if (pendingRequests == null) return; // Already completed.
+				DownloadResult result;
+				if (downloadRequest.succeeded()) {
+					CachedFile cachedFile = new CachedFile(path, downloadRequest.result());
+					cache.put(key, cachedFile);
+					totalSize += cachedFile.size;
+					evict();
+					result = new DownloadResult(cachedFile, null);
+				} else {
+					Throwable cause = downloadRequest.cause();
+					if (cause instanceof HttpException && ((HttpException) cause).getStatusCode() == 413) {
+						oversizedFiles.put(key, System.currentTimeMillis());
+					}
+					logger.debug("Failed to download content file " + key + ": " + cause);
+					deleteFile(path);
+					result = new DownloadResult(null, downloadRequest.cause());
+				}
+				for (AsyncResultHandler<CachedFile> pendingRequest : pendingRequests) {
+					pendingRequest.handle(result);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Redirects a request to the file on the content delivery service.
+	 */
+	private void redirect(HttpServerRequest request, String contentId, String fileName) {
+		HttpServerResponse response = request.response();
+		response.putHeader("Location", connectors.cdsConnector().getUrlForFile(contentId, fileName));
+		response.setStatusCode(302).end();
+	}
+
+	/**
+	 * Removes the least recently used files until the cache size is within its limit. The most recent file is always kept.
+	 */
+	private void evict() {
+		Iterator<Map.Entry<String, CachedFile>> iterator = cache.entrySet().iterator();
+		while (totalSize > maxSize && cache.size() > 1) {
+			CachedFile cachedFile = iterator.next().getValue();
+			iterator.remove();
+			totalSize -= cachedFile.size;
+			deleteFile(cachedFile.path);
+			handlers.metrics().increment("contentProxy.evicted");
+		}
+	}
+
+	private void removeFromCache(String key) {
+		CachedFile cachedFile = cache.remove(key);
+		if (cachedFile == null) return;
+		totalSize -= cachedFile.size;
+		deleteFile(cachedFile.path);
+	}
+
+	private void deleteFile(final String path) {
+		handlers.vertx().fileSystem().delete(path, new Handler<AsyncResult<Void>>() {
+
+			@Override
+			public void handle(AsyncResult<Void> deleteRequest) {
+				if (deleteRequest.failed()) {
+					logger.debug("Failed to delete cached content file " + path + ": " + deleteRequest.cause());
+				}
+			}
+		});
+	}
+
+	/**
+	 * Sends a cached file. Complete files are sent without copying them into user space, single byte ranges are streamed.
+	 */
+	private void sendFile(HttpServerRequest request, CachedFile cachedFile) {
+		HttpServerResponse response = request.response();
+		if (cachedFile.contentType != null) response.putHeader("Content-Type", cachedFile.contentType);
+		if (cachedFile.lastModified != null) response.putHeader("Last-Modified", cachedFile.lastModified);
+		response.putHeader("Accept-Ranges", "bytes");
+
+		String range = request.headers().get("Range");
+		if (range == null || !range.startsWith("bytes=") || range.contains(",")) {
+			// Multiple ranges are not supported, the complete file is sent instead.
+			response.sendFile(cachedFile.path);
+			return;
+		}
+		long start, end;
+		try {
+			String[] bounds = range.substring(6).trim().split("-", -1);
+			if (bounds[0].isEmpty()) {
+				// Suffix range, e.g., "bytes=-500" for the last 500 bytes.
+				start = Math.max(0, cachedFile.size - Long.parseLong(bounds[1]));
+				end = cachedFile.size - 1;
+			} else {
+				start = Long.parseLong(bounds[0]);
+				end = bounds[1].isEmpty() ? cachedFile.size - 1 : Math.min(Long.parseLong(bounds[1]), cachedFile.size - 1);
+			}
+		} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			response.sendFile(cachedFile.path);
+			return;
+		}
+		if (start > end || start >= cachedFile.size) {
+			response.putHeader("Content-Range", "bytes */" + cachedFile.size);
+			response.setStatusCode(416).end();
+			return;
+		}
+		handlers.metrics().increment("contentProxy.range");
+		sendRange(response, cachedFile, start, end);
+	}
+
+	private void sendRange(final HttpServerResponse response, final CachedFile cachedFile, final long start, final long end) {
+		handlers.vertx().fileSystem().open(cachedFile.path, null, true, false, false, new Handler<AsyncResult<AsyncFile>>() {
+
+			@Override
+			public void handle(AsyncResult<AsyncFile> openRequest) {
+				if (openRequest.failed()) {
+					response.setStatusCode(500).end("Failed to read cached file.");
+					return;
+				}
+				final AsyncFile file = openRequest.result();
+				final boolean[] isClosed = {false};
+				response.closeHandler(new Handler<Void>() {
+
+					@Override
+					public void handle(Void event) {
+						isClosed[0] = true;
+					}
+				});
+				response.setStatusCode(206);
+				response.putHeader("Content-Range", "bytes " + start + "-" + end + "/" + cachedFile.size);
+				response.putHeader("Content-Length", String.valueOf(end - start + 1));
+				writeChunk(response, file, start, end + 1, isClosed);
+			}
+		});
+	}
+
+	/**
+	 * Writes the next chunk of a range and continues when the response is able to take more data.
+	 */
+	private void writeChunk(final HttpServerResponse response, final AsyncFile file, final long position, final long endPosition, final boolean[] isClosed) {
+		if (isClosed[0] || position >= endPosition) {
+			file.close();
+			if (!isClosed[0]) response.end();
+			return;
+		}
+		final int length = (int) Math.min(CHUNK_SIZE, endPosition - position);
+		file.read(new Buffer(length), 0, position, length, new Handler<AsyncResult<Buffer>>() {
+
+			@Override
+			public void handle(AsyncResult<Buffer> readRequest) {
+				if (readRequest.failed() || isClosed[0]) {
+					file.close();
+					if (!isClosed[0]) response.close();
+					return;
+				}
+				response.write(readRequest.result());
+				if (response.writeQueueFull()) {
+					response.drainHandler(new Handler<Void>() {
+
+						@Override
+						public void handle(Void event) {
+							response.drainHandler(null);
+							writeChunk(response, file, position + length, endPosition, isClosed);
+						}
+					});
+				} else {
+					writeChunk(response, file, position + length, endPosition, isClosed);
+				}
+			}
+		});
+	}
+}
@@ -0,0 +1,153 @@
+package de.appsist.service.iid.server.handler;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Display state of a view, i.e. the content, popup, and notifications currently shown by the client.
+ * The state is kept as the messages sent to the client, so that they can be replayed after a reconnect.
+ * Only the latest popup is kept, as the client replaces a popup with the next one.
+ */
+public class DisplayState {
+	private JsonObject content;
+	private JsonObject popup;
+	private final Map<String, JsonObject> notifications;
+
+	/**
+	 * Creates an empty display state.
+	 */
+	public DisplayState() {
+		content = null;
+		popup = null;
+		notifications = new LinkedHashMap<>();
+	}
+
+	/**
+	 * Restores a display state.
+	 * @param json JSON representation of the state as returned by {@link #asJson()}.
+	 */
+	public DisplayState(JsonObject json) {
+		this();
+		content = json.getObject("content");
+		popup = json.getObject("popup");
+		JsonObject notificationsObject = json.getObject("notifications", new JsonObject());
+		for (String notificationId : notificationsObject.getFieldNames()) {
+			notifications.put(notificationId, notificationsObject.getObject(notificationId));
+		}
+	}
+
+	/**
+	 * Updates the state with a message sent to the client.
+	 * Display commands replace the current content, a popup replaces the current popup, and a release clears content and popup.
+	 * Other messages are ignored.
+	 * @param message Message sent to the client.
+	 */
+	public void update(JsonObject message) {
+		switch (message.getString("action", "")) {
+		case "displayAssistance":
+		case "displayLearningObject":
+		case "displaySiteOverview":
+		case "displayStationInfo":
+			content = message;
+			break;
+		case "displayPopup":
+			popup = message;
+			break;
+		case "releaseView":
+			content = null;
+			popup = null;
+			break;
+		default:
+			// Not part of the display state.
+		}
+	}
+
+	/**
+	 * Removes the popup, e.g., when the user has closed it.
+	 */
+	public void closePopup() {
+		popup = null;
+	}
+
+	/**
+	 * Adds an active notification.
+	 * @param notificationId Identifier of the notification.
+	 * @param message Message sent to show the notification.
+	 */
+	public void addNotification(String notificationId, JsonObject message) {
+		notifications.put(notificationId, message);
+	}
+
+	/**
+	 * Removes an active notification.
+	 * @param notificationId Identifier of the notification.
+	 */
+	public void removeNotification(String notificationId) {
+		notifications.remove(notificationId);
+	}
+
+	/**
+	 * Removes all active notifications.
+	 */
+	public void clearNotifications() {
+		notifications.clear();
+	}
+
+	/**
+	 * Checks if a notification is shown.
+	 * @param notificationId Identifier of the notification.
+	 * @return <code>true</code> if the notification is active, otherwise <code>false</code>.
+	 */
+	public boolean hasNotification(String notificationId) {
+		return notifications.containsKey(notificationId);
+	}
+	
+	/**
+	 * Checks if any notification is shown.
+	 * @return <code>true</code> if at least one notification is active, otherwise <code>false</code>.
+	 */
+	public boolean hasNotifications() {
+		return !notifications.isEmpty();
+	}
+	
+	/**
+	 * Checks if nothing is displayed.
+	 * @return <code>true</code> if neither content, popup, nor notifications are shown, otherwise <code>false</code>.
+	 */
+	public boolean isEmpty() {
+		return content == null && popup == null && notifications.isEmpty();
+	}
+
+	/**
+	 * Returns the messages to replay the state, in the order they should be applied.
+	 * @return Array of client messages.
+	 */
+	public JsonArray getMessages() {
+		JsonArray messages = new JsonArray();
+		if (content != null) messages.addObject(content);
+		if (popup != null) messages.addObject(popup);
+		for (JsonObject notification : notifications.values()) {
+			messages.addObject(notification);
+		}
+		return messages;
+	}
+
+	/**
+	 * Returns a JSON representation of the state.
+	 * @return JSON object to be restored with {@link #DisplayState(JsonObject)}.
+	 */
+	public JsonObject asJson() {
+		JsonObject json = new JsonObject();
+		if (content != null) json.putObject("content", content);
+		if (popup != null) json.putObject("popup", popup);
+		JsonObject notificationsObject = new JsonObject();
+		for (Map.Entry<String, JsonObject> entry : notifications.entrySet()) {
+			notificationsObject.putObject(entry.getKey(), entry.getValue());
+		}
+		json.putObject("notifications", notificationsObject);
+		return json;
+	}
+}
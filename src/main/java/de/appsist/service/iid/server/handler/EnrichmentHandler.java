@@ -0,0 +1,108 @@
+package de.appsist.service.iid.server.handler;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.iid.server.ContentEnricher;
+import de.appsist.service.iid.server.EnrichmentVerticle;
+import de.appsist.service.iid.server.HandlerRegistry;
+import de.appsist.service.iid.server.OperationFailedException;
+
+/**
+ * Handler dispatching enrichment requests to the worker pool.
+ * If no workers are deployed, requests are processed on the calling thread.
+ */
+public class EnrichmentHandler {
+	// Default values if not configured.
+	private static final long TIMEOUT = 5000l;
+	
+	private final HandlerRegistry handlers;
+	private final long timeout;
+	private boolean isWorkerPoolAvailable;
+	
+	/**
+	 * Creates the handler.
+	 * @param handlers Handler registry to access the event bus and metrics.
+	 * @param config Enrichment configuration. May be empty.
+	 */
+	public EnrichmentHandler(HandlerRegistry handlers, JsonObject config) {
+		this.handlers = handlers;
+		this.timeout = config.getLong("timeout", TIMEOUT);
+		this.isWorkerPoolAvailable = false;
+	}
+	
+	/**
+	 * Sets whether the worker pool is deployed.
+	 * @param isAvailable <code>true</code> to dispatch requests to the workers, <code>false</code> to process them locally.
+	 */
+	public void setWorkerPoolAvailable(boolean isAvailable) {
+		this.isWorkerPoolAvailable = isAvailable;
+	}
+	
+	/**
+	 * Enriches a payload. See {@link ContentEnricher#process(JsonObject)} for the request format.
+	 * The request must not be modified after the call.
+	 * @param request Enrichment request.
+	 * @param resultHandler Handler for the enrichment response.
+	 */
+	public void enrich(JsonObject request, final AsyncResultHandler<JsonObject> resultHandler) {
+		if (!isWorkerPoolAvailable) {
+			handlers.metrics().increment("enrichment.local");
+			handleResponse(EnrichmentVerticle.processRequest(request), resultHandler);
+			return;
+		}
+		handlers.metrics().increment("enrichment.worker");
+		handlers.eventBus().sendWithTimeout(EnrichmentVerticle.ADDRESS, request, timeout, new Handler<AsyncResult<Message<JsonObject>>>() {
+			
+			@Override
+			public void handle(AsyncResult<Message<JsonObject>> enrichmentRequest) {
+				if (enrichmentRequest.failed()) {
+					resultHandler.handle(new EnrichmentResult(null, new OperationFailedException(500, "Enrichment timed out.")));
+					return;
+				}
+				handleResponse(enrichmentRequest.result().body(), resultHandler);
+			}
+		});
+	}
+	
+	private static void handleResponse(JsonObject response, AsyncResultHandler<JsonObject> resultHandler) {
+		if ("ok".equals(response.getString("status"))) {
+			resultHandler.handle(new EnrichmentResult(response, null));
+		} else {
+			resultHandler.handle(new EnrichmentResult(null, new OperationFailedException(response.getInteger("code", 500), response.getString("message"))));
+		}
+	}
+	
+	private static class EnrichmentResult implements AsyncResult<JsonObject> {
+		private final JsonObject response;
+		private final Throwable cause;
+		
+		public EnrichmentResult(JsonObject response, Throwable cause) {
+			this.response = response;
+			this.cause = cause;
+		}
+		
+		@Override
+		public JsonObject result() {
+			return response;
+		}
+		
+		@Override
+		public Throwable cause() {
+			return cause;
+		}
+		
+		@Override
+		public boolean succeeded() {
+			return cause == null;
+		}
+		
+		@Override
+		public boolean failed() {
+			return !succeeded();
+		}
+	}
+}
@@ -4,8 +4,12 @@ import static de.appsist.service.iid.server.EventBusHelper.errorResponse;
 import static de.appsist.service.iid.server.EventBusHelper.okResponse;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -19,7 +23,9 @@ import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
 
+import de.appsist.service.iid.server.DeferrableResultHandler;
 import de.appsist.service.iid.server.EventBusHelper;
+import de.appsist.service.iid.server.FailResult;
 import de.appsist.service.iid.server.HandlerRegistry;
 import de.appsist.service.iid.server.MainVerticle;
 import de.appsist.service.iid.server.OperationFailedException;
@@ -35,6 +41,8 @@ import de.appsist.service.iid.server.model.ServiceCatalog;
 import de.appsist.service.iid.server.model.ServiceItem;
 import de.appsist.service.iid.server.model.SiteOverview;
 import de.appsist.service.iid.server.model.StationInfo;
+import de.appsist.service.iid.server.monitor.Metrics;
+import de.appsist.service.iid.server.monitor.Trace;
 
 /**
  * Handler for messages sent from other services.
@@ -43,114 +51,401 @@ import de.appsist.service.iid.server.model.StationInfo;
 public class InternalBusHandler {
 	private static final Logger logger = LoggerFactory.getLogger(InternalBusHandler.class); 
 	private static final String SERVICE_ID = "appsist:service:iid";
+	// Address for requests forwarded to the sessions of a user, not propagated to other cluster nodes.
+	private static final String LOCAL_ADDRESS = SERVICE_ID + ":local";
 	private final HandlerRegistry handlers;
+	private final Handler<Message<JsonObject>> messageHandler;
+	private final Handler<Message<JsonObject>> forwardedMessageHandler;
+	private final Map<Message<JsonObject>, String> pendingRequests;
+	private final Map<String, Integer> pendingRequestsPerSession;
+	private final Map<Message<JsonObject>, Trace> traces;
+	private final int maxPendingRequests;
+	private final int maxPendingRequestsPerSession;
+	private final long retryAfter;
+	private final long forwardTimeout;
+	private boolean isDraining;
 	
-	private static class AggregatedMessageResponseHandler extends ResultAggregationHandler<ViewHandler> {
+	// Actions which may address a user [userId] instead of a session.
+	private static final Set<String> USER_ACTIONS = new HashSet<>(Arrays.asList("addServiceItems", "notify", "displayAssistance", "displayLearningContent", "displaySiteOverview", "displayStationInfo", "displayPopup", "endDisplay"));
+	
+	// Default values if not configured.
+	private static final int MAX_PENDING_REQUESTS = 1000;
+	private static final int MAX_PENDING_REQUESTS_PER_SESSION = 50;
+	private static final long RETRY_AFTER = 1000l;
+	private static final long FORWARD_TIMEOUT = 180000l;
+	
+	private class AggregatedMessageResponseHandler extends ResultAggregationHandler<ViewHandler> {
 		public AggregatedMessageResponseHandler(Set<ViewHandler> requesters, final Message<JsonObject> messageToReply) {
-			super(requesters, new MessageResponseHandler(messageToReply));
+			// Requests for sessions without views are answered immediately, indicating that nothing was displayed.
+			super(requesters, new MessageResponseHandler(messageToReply, requesters.isEmpty() ? EventBusHelper.okResponse().putString("result", "noViews") : EventBusHelper.okResponse()));
 		}
 	} 
 	
-	public static class MessageResponseHandler implements AsyncResultHandler<Void> {
+	public class MessageResponseHandler implements DeferrableResultHandler {
 		private Message<JsonObject> messageToReply;
+		private JsonObject okResponse;
 		public MessageResponseHandler(Message<JsonObject> message) {
+			this(message, EventBusHelper.okResponse());
+		}
+		
+		/**
+		 * Creates a handler replying with the given response if the operation succeeded.
+		 * @param message Message to reply.
+		 * @param okResponse Response for a successful operation.
+		 */
+		public MessageResponseHandler(Message<JsonObject> message, JsonObject okResponse) {
 			messageToReply = message;
+			this.okResponse = okResponse;
+		}
+		
+		@Override
+		public void deferred() {
+			// The request waits for a view to reconnect and no longer counts against the admission limits.
+			if (release(messageToReply)) handlers.metrics().increment("admission.deferred");
 		}
 
 		@Override
 		public void handle(AsyncResult<Void> result) {
 			if (result.succeeded()) {
-				messageToReply.reply(EventBusHelper.okResponse());
+				reply(messageToReply, okResponse);
 			} else {
 				Throwable cause = result.cause();
 				if (cause != null) {
 					if (cause instanceof OperationFailedException) {
 						OperationFailedException e = (OperationFailedException) cause;
-						messageToReply.reply(e.generateErrorResponse());
+						reply(messageToReply, e.generateErrorResponse());
 					} else {
-						messageToReply.reply(EventBusHelper.errorResponse(500, cause.getMessage()));
+						reply(messageToReply, EventBusHelper.errorResponse(500, cause.getMessage()));
 					}
 				} else {
-					messageToReply.reply(EventBusHelper.errorResponse(500, "Operation failed by unknown reason."));
+					reply(messageToReply, EventBusHelper.errorResponse(500, "Operation failed by unknown reason."));
 				}
 			}
         }
 	}
 	
+	/**
+	 * Handler for the delivery of a request which has already been acknowledged. Failures are logged only.
+	 */
+	private class DeliveryLogHandler implements AsyncResultHandler<Void> {
+		private final String action;
+		private final String sessionId;
+		
+		public DeliveryLogHandler(String action, String sessionId) {
+			this.action = action;
+			this.sessionId = sessionId;
+		}
+		
+		@Override
+		public void handle(AsyncResult<Void> result) {
+			if (result.failed()) {
+				handlers.metrics().increment("delivery.failed." + action);
+				logger.warn("Failed to deliver " + action + " to session " + sessionId + ": " + (result.cause() != null ? result.cause().getMessage() : "unknown reason"));
+			}
+		}
+	}
+	
 	public InternalBusHandler(HandlerRegistry handlerRegistry) {
 		this.handlers = handlerRegistry;
+		this.pendingRequests = new IdentityHashMap<>();
+		this.pendingRequestsPerSession = new HashMap<>();
+		this.traces = new IdentityHashMap<>();
+		JsonObject admissionConfig = MainVerticle.getConfig().getAdmissionConfig();
+		this.maxPendingRequests = admissionConfig.getInteger("maxPendingRequests", MAX_PENDING_REQUESTS);
+		this.maxPendingRequestsPerSession = admissionConfig.getInteger("maxPendingRequestsPerSession", MAX_PENDING_REQUESTS_PER_SESSION);
+		this.retryAfter = admissionConfig.getLong("retryAfter", RETRY_AFTER);
+		this.forwardTimeout = admissionConfig.getLong("forwardTimeout", FORWARD_TIMEOUT);
+		this.isDraining = false;
 		// this.logger = handlerRegistry.getLogger();
-        handlerRegistry.eventBus().registerHandler(SERVICE_ID, new Handler<Message<JsonObject>>()
-        {
+		messageHandler = new Handler<Message<JsonObject>>() {
 			
 			@Override
 			public void handle(Message<JsonObject> message) {
-				JsonObject body = message.body();
-				String action = body.getString("action");
-				if (action == null) {
-					message.reply(EventBusHelper.errorResponse(400, "Missing action command."));
-					return;
-				}
-				
-				switch (action) {
-				case "addServiceItems":
-					handleAddServiceItems(message);
-					break;
-				case "purgeServiceItems":
-					handlePurgeServiceItems(message);
-					break;
-				case "notify":
-					handleNotify(message);
-					break;
-				case "dismissNotification":
-					handleDismissNotification(message);
-					break;
-				case "displayAssistance":
-					handleDisplayAssistance(message);
-					break;
-				case "displayLearningContent":
-					handleDisplayLearningObject(message);
-					break;
-				case "displaySiteOverview":
-					handleDisplaySiteOverview(message);
-					break;
-				case "displayStationInfo":
-					handleDisplayStationInfo(message);
-					break;
-				case "endDisplay":
-					handleEndDisplay(message);
-					break;
-				case "displayPopup":
-					handleDisplayPopup(message);
-					break;
-				case "getLastKnownLocation":
-					handleGetLastKnownLocation(message);
-					break;
-				case "getUserActivity":
-					handleGetUserActivity(message);
-					break;
-                    case "purgeNotifications" :
-                        handlePurgeNotifications(message);
-                        break;
-				default:
-                    logger.warn("Received invalid action command: " + action);
-					message.reply(EventBusHelper.errorResponse(400, "Invalid action command."));
-				}
+				dispatch(message, false);
+			}
+		};
+		forwardedMessageHandler = new Handler<Message<JsonObject>>() {
+			
+			@Override
+			public void handle(Message<JsonObject> message) {
+				dispatch(message, true);
+			}
+		};
+		handlerRegistry.eventBus().registerHandler(SERVICE_ID, messageHandler);
+		handlerRegistry.eventBus().registerLocalHandler(LOCAL_ADDRESS, forwardedMessageHandler);
+	}
+	
+	/**
+	 * Dispatches a request to the handler for its action.
+	 * @param message Request message.
+	 * @param isForwarded <code>true</code> if the request is a copy forwarded to one of the sessions of a user. Forwarded requests are covered by the admission of the original request.
+	 */
+	private void dispatch(Message<JsonObject> message, boolean isForwarded) {
+		// Forwarded requests belong to a request accepted before draining started.
+		if (isDraining && !isForwarded) {
+			message.reply(EventBusHelper.errorResponse(503, "Service is shutting down."));
+			return;
+		}
+		JsonObject body = message.body();
+		String action = body.getString("action");
+		if (action == null) {
+			message.reply(EventBusHelper.errorResponse(400, "Missing action command."));
+			return;
+		}
+		
+		if (body.getString("sessionId") == null && body.getString("userId") != null && USER_ACTIONS.contains(action)) {
+			if (!resolveUser(message)) return;
+		}
+		
+		if (!isForwarded && !admit(message)) {
+			return;
+		}
+		traces.put(message, handlers.tracer().startTrace(body.getString("correlationId"), action, body.getBoolean("trace", false)));
+		long startTime = System.currentTimeMillis();
+		try {
+			switch (action) {
+			case "addServiceItems":
+				handleAddServiceItems(message);
+				break;
+			case "purgeServiceItems":
+				handlePurgeServiceItems(message);
+				break;
+			case "purgeServiceItemsGlobal":
+				handlePurgeServiceItemsGlobal(message);
+				break;
+			case "notify":
+				handleNotify(message);
+				break;
+			case "dismissNotification":
+				handleDismissNotification(message);
+				break;
+			case "displayAssistance":
+				handleDisplayAssistance(message);
+				break;
+			case "displayLearningContent":
+				handleDisplayLearningObject(message);
+				break;
+			case "displaySiteOverview":
+				handleDisplaySiteOverview(message);
+				break;
+			case "displayStationInfo":
+				handleDisplayStationInfo(message);
+				break;
+			case "endDisplay":
+				handleEndDisplay(message);
+				break;
+			case "displayPopup":
+				handleDisplayPopup(message);
+				break;
+			case "getLastKnownLocation":
+				handleGetLastKnownLocation(message);
+				break;
+			case "getUserActivity":
+				handleGetUserActivity(message);
+				break;
+			case "getViewsAtLocation":
+				handleGetViewsAtLocation(message);
+				break;
+			case "getLastKnownLocations":
+			case "getUserActivities":
+				handleGetSessionStatus(message);
+				break;
+			case "purgeNotifications":
+				handlePurgeNotifications(message);
+				break;
+			default:
+				logger.warn("Received invalid action command: " + action);
+				reply(message, EventBusHelper.errorResponse(400, "Invalid action command."));
+			}
+		} catch (RuntimeException e) {
+			logger.error("Failed to handle action " + action + ".", e);
+			handlers.metrics().increment("requests.failed." + action);
+			// Requests which have already been answered are not replied again.
+			if (traces.containsKey(message)) {
+				reply(message, EventBusHelper.errorResponse(500, "Failed to handle action: " + action));
+			} else {
+				release(message);
+			}
+		}
+		handlers.eventLoopMonitor().handlerCompleted(action, startTime);
+}
+	
+	/**
+	 * Resolves the sessions of the user addressed by a request.
+	 * If the user has a single session, the session identifier is added to the request. 
+	 * If the user has multiple sessions, the request is admitted and forwarded to this instance once for each session. The aggregated result is sent as reply.
+	 * @param message Request addressing a user [userId].
+	 * @return <code>true</code> if the request is ready to be handled, <code>false</code> if it has been replied or forwarded.
+	 */
+	private boolean resolveUser(final Message<JsonObject> message) {
+		JsonObject body = message.body();
+		String userId = body.getString("userId");
+		Set<String> sessionIds = handlers.localSessionHandler().getSessionIdsForUser(userId);
+		handlers.metrics().increment("userRouting.sessions." + Math.min(sessionIds.size(), 2));
+		switch (sessionIds.size()) {
+		case 0:
+			message.reply(EventBusHelper.errorResponse(404, "No session for user: " + userId));
+			return false;
+		case 1:
+			body.putString("sessionId", sessionIds.iterator().next());
+			return true;
+		default:
+			if (!admit(message)) return false;
+			traces.put(message, handlers.tracer().startTrace(body.getString("correlationId"), body.getString("action"), body.getBoolean("trace", false)));
+			ResultAggregationHandler<String> aggregationHandler = new ResultAggregationHandler<String>(sessionIds, new MessageResponseHandler(message));
+			for (final String sessionId : sessionIds) {
+				final AsyncResultHandler<Void> sessionResultHandler = aggregationHandler.getRequestHandler(sessionId);
+				JsonObject sessionRequest = body.copy().putString("sessionId", sessionId);
+				handlers.eventBus().sendWithTimeout(LOCAL_ADDRESS, sessionRequest, forwardTimeout, new Handler<AsyncResult<Message<JsonObject>>>() {
+					
+					@Override
+					public void handle(AsyncResult<Message<JsonObject>> sessionRequest) {
+						if (sessionRequest.failed()) {
+							sessionResultHandler.handle(new FailResult(new OperationFailedException(504, "Request for session " + sessionId + " timed out.")));
+							return;
+						}
+						final JsonObject replyBody = sessionRequest.result().body();
+						sessionResultHandler.handle(new AsyncResult<Void>() {
+							
+							@Override
+							public boolean succeeded() {
+								return "ok".equals(replyBody.getString("status"));
+							}
+							
+							@Override
+							public Void result() {
+								return null;
+							}
+							
+							@Override
+							public boolean failed() {
+								return !succeeded();
+							}
+							
+							@Override
+							public Throwable cause() {
+								return succeeded() ? null : new OperationFailedException(replyBody.getInteger("code", 500), replyBody.getString("message"));
+							}
+						});
+					}
+				});
 			}
-		});		
+			return false;
+		}
+	}
+	
+	/**
+	 * Sends a reply and marks the request as completed.
+	 * The correlation id of the request is added to the response.
+	 * @param message Message to reply to.
+	 * @param response Response to send.
+	 */
+	private void reply(Message<JsonObject> message, JsonObject response) {
+		Trace trace = traces.remove(message);
+		if (trace != null) {
+			response.putString("correlationId", trace.getId());
+			handlers.tracer().finishTrace(trace, response.getString("status"));
+		}
+		release(message);
+		message.reply(response);
+	}
+	
+	/**
+	 * Removes a request from the pending requests. Requests which are not pending are ignored.
+	 * @param message Request message.
+	 * @return <code>true</code> if the request has been pending, otherwise <code>false</code>.
+	 */
+	private boolean release(Message<JsonObject> message) {
+		if (!pendingRequests.containsKey(message)) return false;
+		String sessionId = pendingRequests.remove(message);
+		if (sessionId != null) {
+			int count = pendingRequestsPerSession.get(sessionId) - 1;
+			if (count > 0) {
+				pendingRequestsPerSession.put(sessionId, count);
+			} else {
+				pendingRequestsPerSession.remove(sessionId);
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Checks the limits for pending requests and registers the request as pending if admitted.
+	 * Rejected requests are answered with an error (429) containing a hint when to retry [retryAfter].
+	 * @param message Request message.
+	 * @return <code>true</code> if the request is admitted, otherwise <code>false</code>.
+	 */
+	private boolean admit(Message<JsonObject> message) {
+		String sessionId = message.body().getString("sessionId");
+		String rejection = null;
+		if (pendingRequests.size() >= maxPendingRequests) {
+			rejection = "global";
+		} else if (sessionId != null) {
+			Integer sessionCount = pendingRequestsPerSession.get(sessionId);
+			if (sessionCount != null && sessionCount >= maxPendingRequestsPerSession) {
+				rejection = "session";
+			}
+		}
+		Metrics metrics = handlers.metrics();
+		if (rejection != null) {
+			metrics.increment("admission.rejected." + rejection);
+			JsonObject response = EventBusHelper.errorResponse(429, "Too many pending requests (" + rejection + " limit), please retry later.");
+			response.putNumber("retryAfter", retryAfter);
+			message.reply(response);
+			return false;
+		}
+		metrics.increment("admission.accepted");
+		pendingRequests.put(message, sessionId);
+		if (sessionId != null) {
+			Integer sessionCount = pendingRequestsPerSession.get(sessionId);
+			pendingRequestsPerSession.put(sessionId, sessionCount != null ? sessionCount + 1 : 1);
+		}
+		return true;
+	}
+	
+	/**
+	 * Stops accepting new requests. Further requests are answered with an error (503).
+	 */
+	public void startDraining() {
+		isDraining = true;
+	}
+	
+	/**
+	 * Checks if the handler is draining.
+	 * @return <code>true</code> if no new requests are accepted, otherwise <code>false</code>.
+	 */
+	public boolean isDraining() {
+		return isDraining;
+	}
+	
+	/**
+	 * Returns the number of requests which are accepted but not completed yet.
+	 * @return Number of pending requests.
+	 */
+	public int getPendingRequestCount() {
+		return pendingRequests.size();
+	}
+	
+	/**
+	 * Unregisters the handler from the event bus.
+	 */
+	public void destroy() {
+		isDraining = true;
+		handlers.eventBus().unregisterHandler(SERVICE_ID, messageHandler);
+		handlers.eventBus().unregisterHandler(LOCAL_ADDRESS, forwardedMessageHandler);
 	}
 	
 	private void handleAddServiceItems(final Message<JsonObject> message) {
 		final JsonObject body = message.body();
 		String sessionId = body.getString("sessionId");
 		if (sessionId == null || !handlers.localSessionHandler().hasSession(sessionId)) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
 			return;
 		}
 		LocalSession session = handlers.localSessionHandler().getSession(sessionId);
 		JsonArray itemsArray = body.getArray("items");
 		if (itemsArray == null) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing items to add (items)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing items to add (items)."));
 			return;
 		}
 		List<ServiceItem> items = new ArrayList<ServiceItem>();
@@ -160,10 +455,11 @@ public class InternalBusHandler {
 				item = new ServiceItem((JsonObject) itemObject);
 				items.add(item);
 			} catch (IllegalArgumentException | ClassCastException e) {
-				message.reply(EventBusHelper.errorResponse(400, "Invalid item: " + e.getMessage()));
+				reply(message, EventBusHelper.errorResponse(400, "Invalid item: " + e.getMessage()));
 				return;
 			}
 		}
+		handlers.manifestPrefetcher().prefetch(itemsArray);
 		
 		Map<String, List<ServiceItem>> itemsForCatalog = new HashMap<>();
 		for (ServiceItem item : items) {
@@ -175,7 +471,6 @@ public class InternalBusHandler {
 			}
 			itemCatalog.add(item);
 		}
-		Set<ViewHandler> clientConnections = Collections.unmodifiableSet(handlers.clientHandler().getViewHandlersForSession(sessionId));
 		Set<String> catalogIds = itemsForCatalog.keySet();
 		ResultAggregationHandler<String> completeHandler = new ResultAggregationHandler<String>(catalogIds, new MessageResponseHandler(message));
 		for (String catalogId : catalogIds) {
@@ -185,12 +480,8 @@ public class InternalBusHandler {
 				session.addServiceCatalog(catalog);
 			}
 			catalog.addItems(itemsForCatalog.get(catalogId));
-			
-			AsyncResultHandler<Void> resultHandler = completeHandler.getRequestHandler(catalogId);
-			final ResultAggregationHandler<ViewHandler> aggregationHandler = new ResultAggregationHandler<ViewHandler>(clientConnections, resultHandler);
-			for (ViewHandler clientConnection : clientConnections) {
-				clientConnection.updateCatalog(catalog, aggregationHandler.getRequestHandler(clientConnection));
-			}
+			handlers.localSessionHandler().indexServiceItems(sessionId, catalogId, itemsForCatalog.get(catalogId));
+			handlers.catalogPushHandler().push(sessionId, catalog, completeHandler.getRequestHandler(catalogId));
 		}
 	}
 	
@@ -198,48 +489,81 @@ public class InternalBusHandler {
 		final JsonObject body = message.body();
 		String sessionId = body.getString("sessionId");
 		if (sessionId == null || !handlers.localSessionHandler().hasSession(sessionId)) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
 			return;
 		}
 		LocalSession session = handlers.localSessionHandler().getSession(sessionId);
 		String serviceId = body.getString("serviceId");
 		if (serviceId == null) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing service id (serviceId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing service id (serviceId)."));
 			return;
 		}
 		
-		Set<ViewHandler> clientConnections = Collections.unmodifiableSet(handlers.clientHandler().getViewHandlersForSession(sessionId));
-		Set<String> catalogIds = session.getServiceCatalogIds();
+		// The index may refer to catalogs the session no longer has, e.g., after the session has been replaced.
+		Set<String> catalogIds = new HashSet<>();
+		for (String catalogId : handlers.localSessionHandler().removeServiceFromIndex(serviceId, sessionId)) {
+			if (session.getServiceCatalog(catalogId) != null) catalogIds.add(catalogId);
+		}
 		ResultAggregationHandler<String> completeHandler = new ResultAggregationHandler<String>(catalogIds, new MessageResponseHandler(message));
 		for (String catalogId : catalogIds) {
 			ServiceCatalog catalog = session.getServiceCatalog(catalogId);
 			catalog.removeItemsOfService(serviceId);
-			
-			AsyncResultHandler<Void> resultHandler = completeHandler.getRequestHandler(catalogId);
-			final ResultAggregationHandler<ViewHandler> aggregationHandler = new ResultAggregationHandler<ViewHandler>(clientConnections, resultHandler);
-			for (ViewHandler clientConnection : clientConnections) {
-				clientConnection.updateCatalog(catalog, aggregationHandler.getRequestHandler(clientConnection));
+			handlers.catalogPushHandler().push(sessionId, catalog, completeHandler.getRequestHandler(catalogId));
+		}
+	}
+	
+	/**
+	 * Removes the items of a service from the catalogs of all sessions.
+	 * Only catalogs containing items of the service are changed and pushed to the views.
+	 * @param message Message containing the service identifier [serviceId].
+	 */
+	private void handlePurgeServiceItemsGlobal(Message<JsonObject> message) {
+		String serviceId = message.body().getString("serviceId");
+		if (serviceId == null) {
+			reply(message, EventBusHelper.errorResponse(400, "Missing service id (serviceId)."));
+			return;
+		}
+		
+		LocalSessionHandler sessionHandler = handlers.localSessionHandler();
+		Map<String, Set<String>> catalogsForSession = sessionHandler.removeServiceFromIndex(serviceId);
+		Set<String> catalogKeys = new HashSet<>();
+		for (Map.Entry<String, Set<String>> entry : catalogsForSession.entrySet()) {
+			LocalSession session = sessionHandler.getSession(entry.getKey());
+			if (session == null) continue; // Session is gone, nothing to update.
+			for (String catalogId : entry.getValue()) {
+				if (session.getServiceCatalog(catalogId) != null) catalogKeys.add(entry.getKey() + "/" + catalogId);
 			}
 		}
+		ResultAggregationHandler<String> completeHandler = new ResultAggregationHandler<String>(catalogKeys, new MessageResponseHandler(message));
+		for (Map.Entry<String, Set<String>> entry : catalogsForSession.entrySet()) {
+			String sessionId = entry.getKey();
+			for (String catalogId : entry.getValue()) {
+				if (!catalogKeys.contains(sessionId + "/" + catalogId)) continue;
+				ServiceCatalog catalog = sessionHandler.getSession(sessionId).getServiceCatalog(catalogId);
+				catalog.removeItemsOfService(serviceId);
+				handlers.catalogPushHandler().push(sessionId, catalog, completeHandler.getRequestHandler(sessionId + "/" + catalogId));
+			}
+		}
+		handlers.metrics().increment("catalogPush.globalPurge");
 	}
 	
 	private void handleNotify(Message<JsonObject> message) {
 		final JsonObject body = message.body();
 		String sessionId = body.getString("sessionId");
 		if (sessionId == null || !handlers.localSessionHandler().hasSession(sessionId)) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
 			return;
 		}
 		JsonObject notificationObject = body.getObject("notification");
 		if (notificationObject == null) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing notification field (notification)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing notification field (notification)."));
 			return;
 		}
 		Notification notification;
 		try {
 			notification = new Notification(notificationObject);
 		} catch (IllegalArgumentException e) {
-			message.reply(EventBusHelper.errorResponse(400, e.getMessage()));
+			reply(message, EventBusHelper.errorResponse(400, e.getMessage()));
 			return;
 		}
 		String viewId = body.getString("viewId");
@@ -250,10 +574,12 @@ public class InternalBusHandler {
 			if (viewHandler != null) {
 				viewHandler.showNotification(notification, new MessageResponseHandler(message));
 			} else {
-				message.reply(EventBusHelper.errorResponse(404, "View not found."));
+				reply(message, EventBusHelper.errorResponse(404, "View not found."));
 				return;				
 			}
 		} else {
+			Number ttl = body.getNumber("ttl");
+			handlers.notificationStore().add(sessionId, notification, ttl != null ? ttl.longValue() : null);
 			Set<ViewHandler> viewHandlers = Collections.unmodifiableSet(clientHandler.getViewHandlersForSession(sessionId));
 			final ResultAggregationHandler<ViewHandler> resultAggregationHandler = new AggregatedMessageResponseHandler(viewHandlers, message);
 			for (ViewHandler viewHandler : viewHandlers) {
@@ -269,16 +595,21 @@ public class InternalBusHandler {
 		final JsonObject body = message.body();
 		String sessionId = body.getString("sessionId");
 		if (sessionId == null || !handlers.localSessionHandler().hasSession(sessionId)) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
 			return;
 		}
 		String notificationId = body.getString("notificationId");
 		if (notificationId == null) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing notification identifierion (notificationId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing notification identifierion (notificationId)."));
 			return;
 		}
 
-		Set<ViewHandler> clientConnections = Collections.unmodifiableSet(handlers.clientHandler().getViewHandlersForSession(sessionId));
+		handlers.notificationStore().remove(sessionId, notificationId);
+		// Only views showing the notification are updated.
+		Set<ViewHandler> clientConnections = new HashSet<>();
+		for (ViewHandler connection : handlers.clientHandler().getViewHandlersForSession(sessionId)) {
+			if (connection.hasNotification(notificationId)) clientConnections.add(connection);
+		}
 		final ResultAggregationHandler<ViewHandler> resultAggregationHandler = new AggregatedMessageResponseHandler(clientConnections, message);
 		for (ViewHandler connection : clientConnections) {
 			connection.dismissNotification(notificationId, resultAggregationHandler.getRequestHandler(connection));
@@ -290,13 +621,17 @@ public class InternalBusHandler {
         final JsonObject body = message.body();
         String sessionId = body.getString("sessionId");
         if (sessionId == null || !handlers.localSessionHandler().hasSession(sessionId)) {
-            message.reply(EventBusHelper.errorResponse(400,
+            reply(message, EventBusHelper.errorResponse(400,
                     "Missing or wrong session information (sessionId)."));
             return;
         }
 
-        Set<ViewHandler> clientConnections = Collections
-                .unmodifiableSet(handlers.clientHandler().getViewHandlersForSession(sessionId));
+        handlers.notificationStore().clear(sessionId);
+        // Only views showing notifications are updated.
+        Set<ViewHandler> clientConnections = new HashSet<>();
+        for (ViewHandler connection : handlers.clientHandler().getViewHandlersForSession(sessionId)) {
+            if (connection.hasNotifications()) clientConnections.add(connection);
+        }
         final ResultAggregationHandler<ViewHandler> resultAggregationHandler = new AggregatedMessageResponseHandler(
                 clientConnections, message);
         for (ViewHandler connection : clientConnections) {
@@ -308,87 +643,139 @@ public class InternalBusHandler {
 		final JsonObject body = message.body();
 		String sessionId = body.getString("sessionId");
 		if (sessionId == null || !handlers.localSessionHandler().hasSession(sessionId)) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
 			return;
 		}
 		String serviceId = body.getString("serviceId");
 		if (serviceId == null) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing service id (serviceId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing service id (serviceId)."));
 			return;
 		}
 		String viewId = body.getString("viewId");
 
 		JsonObject assistanceObject = body.getObject("assistance");
 		if (assistanceObject == null) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing assistance step information (assistance)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing assistance step information (assistance)."));
 			return;
 		}
-		AssistanceStep assistance;
-		try {
-			assistance = new AssistanceStep(assistanceObject);
-		} catch (IllegalArgumentException e) {
-			message.reply(EventBusHelper.errorResponse(400, "Invalid assistance information: " + e.getMessage()));
-			return;
+		handlers.manifestPrefetcher().prefetch(assistanceObject);
+		Trace trace = traces.get(message);
+		trace.addSpan("validation", trace.getStartTime());
+		long parseStart = System.currentTimeMillis();
+		AssistanceStep assistance = null;
+		if (!handlers.passThroughHandler().accepts(serviceId, PassThroughHandler.ASSISTANCE, assistanceObject)) {
+			try {
+				assistance = new AssistanceStep(assistanceObject);
+			} catch (IllegalArgumentException e) {
+				reply(message, EventBusHelper.errorResponse(400, "Invalid assistance information: " + e.getMessage()));
+				return;
+			}
 		}
+		trace.addSpan("parse", parseStart);
 		
 		if (viewId != null) {
 			ViewHandler connection = handlers.clientHandler().getViewHandler(sessionId, viewId);
 			if (connection != null) {
-				connection.displayAssistance(assistance, new MessageResponseHandler(message));
+				AsyncResultHandler<Void> resultHandler = new DeliveryLogHandler("displayAssistance", sessionId);
+				if (assistance != null) {
+					connection.displayAssistance(assistance, trace, resultHandler);
+				} else {
+					connection.displayAssistance(assistanceObject, trace, resultHandler);
+				}
 			} else {
-				message.reply(EventBusHelper.errorResponse(404, "View not found."));
+				reply(message, EventBusHelper.errorResponse(404, "View not found."));
 				return;				
 			}
 		} else {
 			Set<ViewHandler> clientConnections = Collections.unmodifiableSet(handlers.clientHandler().getViewHandlersForSession(sessionId));
-			final ResultAggregationHandler<ViewHandler> resultAggregationHandler = new AggregatedMessageResponseHandler(clientConnections, message);
+			final ResultAggregationHandler<ViewHandler> resultAggregationHandler = new ResultAggregationHandler<ViewHandler>(clientConnections, new DeliveryLogHandler("displayAssistance", sessionId));
+			// The payload is enriched in place, so each view requires its own copy. All copies are taken before the first view is served.
+			List<JsonObject> payloads = new ArrayList<>();
+			if (assistance == null) {
+				for (int i = 1; i < clientConnections.size(); i++) {
+					payloads.add(assistanceObject.copy());
+				}
+				payloads.add(assistanceObject);
+			}
+			int i = 0;
 			for (ViewHandler connection : clientConnections) {
-				connection.displayAssistance(assistance, resultAggregationHandler.getRequestHandler(connection));
+				AsyncResultHandler<Void> resultHandler = resultAggregationHandler.getRequestHandler(connection);
+				if (assistance != null) {
+					connection.displayAssistance(assistance, trace, resultHandler);
+				} else {
+					connection.displayAssistance(payloads.get(i++), trace, resultHandler);
+				}
 			}
 		}
-		message.reply(EventBusHelper.okResponse());
+		// Acknowledge immediately, delivery failures are logged only.
+		reply(message, EventBusHelper.okResponse());
 	}
 	
 	private void handleDisplayLearningObject(Message<JsonObject> message) {
 		final JsonObject body = message.body();
 		String sessionId = body.getString("sessionId");
 		if (sessionId == null || !handlers.localSessionHandler().hasSession(sessionId)) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
 			return;
 		}
 		String serviceId = body.getString("serviceId");
 		if (serviceId == null) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing service id (serviceId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing service id (serviceId)."));
 			return;
 		}
 		String viewId = body.getString("viewId");
 
 		JsonObject learningObjectJson = body.getObject("learningObject");
 		if (learningObjectJson == null) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing learning object to display (learningObject)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing learning object to display (learningObject)."));
 			return;
 		}
-		LearningObject learningObject;
-		try {
-			learningObject = new LearningObject(learningObjectJson);
-		} catch (IllegalArgumentException e) {
-			message.reply(EventBusHelper.errorResponse(400, "Invalid learning object information: " + e.getMessage()));
-			return;
+		Trace trace = traces.get(message);
+		trace.addSpan("validation", trace.getStartTime());
+		long parseStart = System.currentTimeMillis();
+		LearningObject learningObject = null;
+		if (!handlers.passThroughHandler().accepts(serviceId, PassThroughHandler.LEARNING_OBJECT, learningObjectJson)) {
+			try {
+				learningObject = new LearningObject(learningObjectJson);
+			} catch (IllegalArgumentException e) {
+				reply(message, EventBusHelper.errorResponse(400, "Invalid learning object information: " + e.getMessage()));
+				return;
+			}
 		}
+		trace.addSpan("parse", parseStart);
 		
 		if (viewId != null) {
 			ViewHandler connection = handlers.clientHandler().getViewHandler(sessionId, viewId);
 			if (connection != null) {
-				connection.displayLearningObject(learningObject, new MessageResponseHandler(message));
+				AsyncResultHandler<Void> resultHandler = new MessageResponseHandler(message);
+				if (learningObject != null) {
+					connection.displayLearningObject(learningObject, trace, resultHandler);
+				} else {
+					connection.displayLearningObject(learningObjectJson, trace, resultHandler);
+				}
 			} else {
-				message.reply(EventBusHelper.errorResponse(404, "View not found."));
+				reply(message, EventBusHelper.errorResponse(404, "View not found."));
 				return;				
 			}
 		} else {
 			Set<ViewHandler> clientConnections = Collections.unmodifiableSet(handlers.clientHandler().getViewHandlersForSession(sessionId));
 			final ResultAggregationHandler<ViewHandler> resultAggregationHandler = new AggregatedMessageResponseHandler(clientConnections, message);
+			// The payload is enriched in place, so each view requires its own copy. All copies are taken before the first view is served.
+			List<JsonObject> payloads = new ArrayList<>();
+			if (learningObject == null) {
+				for (int i = 1; i < clientConnections.size(); i++) {
+					payloads.add(learningObjectJson.copy());
+				}
+				payloads.add(learningObjectJson);
+			}
+			int i = 0;
 			for (ViewHandler connection : clientConnections) {
-				connection.displayLearningObject(learningObject, resultAggregationHandler.getRequestHandler(connection));
+				AsyncResultHandler<Void> resultHandler = resultAggregationHandler.getRequestHandler(connection);
+				if (learningObject != null) {
+					connection.displayLearningObject(learningObject, trace, resultHandler);
+				} else {
+					connection.displayLearningObject(payloads.get(i++), trace, resultHandler);
+				}
 			}
 		}
 	}
@@ -397,42 +784,54 @@ public class InternalBusHandler {
 		final JsonObject body = message.body();
 		String sessionId = body.getString("sessionId");
 		if (sessionId == null || !handlers.localSessionHandler().hasSession(sessionId)) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
 			return;
 		}
 		String serviceId = body.getString("serviceId");
 		if (serviceId == null) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing service id (serviceId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing service id (serviceId)."));
 			return;
 		}
 		String viewId = body.getString("viewId");
 
 		JsonObject siteOverviewObject = body.getObject("siteOverview");
 		if (siteOverviewObject == null) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing site overview to display (siteOverview)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing site overview to display (siteOverview)."));
 			return;
 		}
-		SiteOverview siteOverview;
-		try {
-			siteOverview = new SiteOverview(siteOverviewObject);
-		} catch (IllegalArgumentException e) {
-			message.reply(EventBusHelper.errorResponse(400, "Invalid site overview information: " + e.getMessage()));
-			return;
+		SiteOverview siteOverview = null;
+		if (!handlers.passThroughHandler().accepts(serviceId, PassThroughHandler.SITE_OVERVIEW, siteOverviewObject)) {
+			try {
+				siteOverview = new SiteOverview(siteOverviewObject);
+			} catch (IllegalArgumentException e) {
+				reply(message, EventBusHelper.errorResponse(400, "Invalid site overview information: " + e.getMessage()));
+				return;
+			}
 		}
 		
 		if (viewId != null) {
 			ViewHandler connection = handlers.clientHandler().getViewHandler(sessionId, viewId);
 			if (connection != null) {
-				connection.displaySiteOverview(siteOverview, new MessageResponseHandler(message));
+				AsyncResultHandler<Void> resultHandler = new MessageResponseHandler(message);
+				if (siteOverview != null) {
+					connection.displaySiteOverview(siteOverview, resultHandler);
+				} else {
+					connection.displaySiteOverview(siteOverviewObject, resultHandler);
+				}
 			} else {
-				message.reply(EventBusHelper.errorResponse(404, "View not found."));
+				reply(message, EventBusHelper.errorResponse(404, "View not found."));
 				return;				
 			}
 		} else {
 			Set<ViewHandler> clientConnections = Collections.unmodifiableSet(handlers.clientHandler().getViewHandlersForSession(sessionId));
 			final ResultAggregationHandler<ViewHandler> resultAggregationHandler = new AggregatedMessageResponseHandler(clientConnections, message);
 			for (ViewHandler connection : clientConnections) {
-				connection.displaySiteOverview(siteOverview, resultAggregationHandler.getRequestHandler(connection));
+				AsyncResultHandler<Void> resultHandler = resultAggregationHandler.getRequestHandler(connection);
+				if (siteOverview != null) {
+					connection.displaySiteOverview(siteOverview, resultHandler);
+				} else {
+					connection.displaySiteOverview(siteOverviewObject, resultHandler);
+				}
 			}
 		}
 	}
@@ -441,26 +840,26 @@ public class InternalBusHandler {
 		final JsonObject body = message.body();
 		String sessionId = body.getString("sessionId");
 		if (sessionId == null || !handlers.localSessionHandler().hasSession(sessionId)) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
 			return;
 		}
 		String serviceId = body.getString("serviceId");
 		if (serviceId == null) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing service id (serviceId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing service id (serviceId)."));
 			return;
 		}
 		String viewId = body.getString("viewId");
 
 		JsonObject stationInfoObject = body.getObject("stationInfo");
 		if (stationInfoObject == null) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing station info to display (stationInfo)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing station info to display (stationInfo)."));
 			return;
 		}
 		StationInfo stationInfo;
 		try {
 			stationInfo = new StationInfo(stationInfoObject);
 		} catch (IllegalArgumentException e) {
-			message.reply(EventBusHelper.errorResponse(400, "Invalid station info data: " + e.getMessage()));
+			reply(message, EventBusHelper.errorResponse(400, "Invalid station info data: " + e.getMessage()));
 			return;
 		}
 		
@@ -469,7 +868,7 @@ public class InternalBusHandler {
 			if (connection != null) {
 				connection.displayStationInfo(stationInfo, new MessageResponseHandler(message));
 			} else {
-				message.reply(EventBusHelper.errorResponse(404, "View not found."));
+				reply(message, EventBusHelper.errorResponse(404, "View not found."));
 				return;				
 			}
 		} else {
@@ -485,7 +884,7 @@ public class InternalBusHandler {
 		final JsonObject body = message.body();
 		String sessionId = body.getString("sessionId");
 		if (sessionId == null || !handlers.localSessionHandler().hasSession(sessionId)) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
 			return;
 		}
 		String viewId = body.getString("viewId");
@@ -494,7 +893,7 @@ public class InternalBusHandler {
 			if (connection != null) {
 				connection.releaseView(new MessageResponseHandler(message));
 			} else {
-				message.reply(EventBusHelper.errorResponse(404, "View not found."));
+				reply(message, EventBusHelper.errorResponse(404, "View not found."));
 				return;				
 			}
 		} else {
@@ -510,41 +909,66 @@ public class InternalBusHandler {
 		final JsonObject body = message.body();
 		String sessionId = body.getString("sessionId");
 		if (sessionId == null || !handlers.localSessionHandler().hasSession(sessionId)) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
 			return;
 		}
 		String serviceId = body.getString("serviceId");
 		if (serviceId == null) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing service id (serviceId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing service id (serviceId)."));
 			return;
 		}
 		String viewId = body.getString("viewId");
 		JsonObject popupObject = body.getObject("popup");
 		if (popupObject == null) {
-			message.reply(errorResponse(400, "Missing popup to display (popup)."));
+			reply(message, errorResponse(400, "Missing popup to display (popup)."));
 			return;
 		}
-		Popup popup;
-		try {
-			popup = new Popup(popupObject);
-		} catch (IllegalArgumentException e) {
-			message.reply(errorResponse(400, "Invalid popup object: " + e.getMessage()));
-			return;
+		Trace trace = traces.get(message);
+		trace.addSpan("validation", trace.getStartTime());
+		long parseStart = System.currentTimeMillis();
+		Popup popup = null;
+		if (!handlers.passThroughHandler().accepts(serviceId, PassThroughHandler.POPUP, popupObject)) {
+			try {
+				popup = new Popup(popupObject);
+			} catch (IllegalArgumentException e) {
+				reply(message, errorResponse(400, "Invalid popup object: " + e.getMessage()));
+				return;
+			}
 		}
+		trace.addSpan("parse", parseStart);
 		
 		if (viewId != null) {
 			ViewHandler connection = handlers.clientHandler().getViewHandler(sessionId, viewId);
 			if (connection != null) {
-				connection.displayPopup(popup, new MessageResponseHandler(message));
+				AsyncResultHandler<Void> resultHandler = new MessageResponseHandler(message);
+				if (popup != null) {
+					connection.displayPopup(popup, trace, resultHandler);
+				} else {
+					connection.displayPopup(popupObject, trace, resultHandler);
+				}
 			} else {
-				message.reply(errorResponse(404, "View not found."));
+				reply(message, errorResponse(404, "View not found."));
 				return;				
 			}
 		} else {
 			Set<ViewHandler> clientConnections = Collections.unmodifiableSet(handlers.clientHandler().getViewHandlersForSession(sessionId));
 			final ResultAggregationHandler<ViewHandler> resultAggregationHandler = new AggregatedMessageResponseHandler(clientConnections, message);
+			// The payload is enriched in place, so each view requires its own copy. All copies are taken before the first view is served.
+			List<JsonObject> payloads = new ArrayList<>();
+			if (popup == null) {
+				for (int i = 1; i < clientConnections.size(); i++) {
+					payloads.add(popupObject.copy());
+				}
+				payloads.add(popupObject);
+			}
+			int i = 0;
 			for (ViewHandler connection : clientConnections) {
-				connection.displayPopup(popup, resultAggregationHandler.getRequestHandler(connection));
+				AsyncResultHandler<Void> resultHandler = resultAggregationHandler.getRequestHandler(connection);
+				if (popup != null) {
+					connection.displayPopup(popup, trace, resultHandler);
+				} else {
+					connection.displayPopup(payloads.get(i++), trace, resultHandler);
+				}
 			}
 		}
 	}
@@ -553,47 +977,121 @@ public class InternalBusHandler {
 		final JsonObject body = message.body();
 		String sessionId = body.getString("sessionId");
 		if (sessionId == null || !handlers.localSessionHandler().hasSession(sessionId)) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
 			return;
 		}
 
-		Set<ViewHandler> clientConnections = Collections.unmodifiableSet(handlers.clientHandler().getViewHandlersForSession(sessionId));
-		
-		Location lastKnownLocation = null;
-		for (ViewHandler connection : clientConnections) {
-			Location location = connection.getLastKnownLocation();
-			if (location == null || location.getLastUpdate() == null) continue;
-			if (lastKnownLocation == null || location.getLastUpdate().after(lastKnownLocation.getLastUpdate())) {
-				lastKnownLocation = location;
-			}	
-		}
-		JsonObject response = okResponse();
-		if (lastKnownLocation != null) {
-			response.putObject("location", lastKnownLocation.asJson());
-		}
-		message.reply(response);
+		final String querySessionId = sessionId;
+		handlers.eventLoopMonitor().runLowPriority("locationQuery", new Handler<Void>() {
+			
+			@Override
+			public void handle(Void event) {
+				Set<ViewHandler> clientConnections = Collections.unmodifiableSet(handlers.clientHandler().getViewHandlersForSession(querySessionId));
+				
+				Location lastKnownLocation = null;
+				for (ViewHandler connection : clientConnections) {
+					Location location = connection.getLastKnownLocation();
+					if (location == null || location.getLastUpdate() == null) continue;
+					if (lastKnownLocation == null || location.getLastUpdate().after(lastKnownLocation.getLastUpdate())) {
+						lastKnownLocation = location;
+					}	
+				}
+				JsonObject response = okResponse();
+				if (lastKnownLocation != null) {
+					response.putObject("location", lastKnownLocation.asJson());
+				}
+				reply(message, response);
+			}
+		});
 	}
 	
 	private void handleGetUserActivity(final Message<JsonObject> message) {
 		final JsonObject body = message.body();
 		String sessionId = body.getString("sessionId");
 		if (sessionId == null || !handlers.localSessionHandler().hasSession(sessionId)) {
-			message.reply(EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
+			reply(message, EventBusHelper.errorResponse(400, "Missing or wrong session information (sessionId)."));
 			return;
 		}
 
-		Set<ViewHandler> clientConnections = Collections.unmodifiableSet(handlers.clientHandler().getViewHandlersForSession(sessionId));
-		
-		Activity activity = Activity.UNKNOWN;
-		for (ViewHandler connection : clientConnections) {
-			Activity clientActivity = connection.getUserActivity();
-			if (clientActivity != Activity.UNKNOWN) {
-				activity = clientActivity;
+		final String querySessionId = sessionId;
+		handlers.eventLoopMonitor().runLowPriority("activityQuery", new Handler<Void>() {
+			
+			@Override
+			public void handle(Void event) {
+				Set<ViewHandler> clientConnections = Collections.unmodifiableSet(handlers.clientHandler().getViewHandlersForSession(querySessionId));
+				
+				Activity activity = Activity.UNKNOWN;
+				for (ViewHandler connection : clientConnections) {
+					Activity clientActivity = connection.getUserActivity();
+					if (clientActivity != Activity.UNKNOWN) {
+						activity = clientActivity;
+					}
+				}
+				
+				JsonObject response = okResponse();
+				response.putString("activity", activity.toString());
+				reply(message, response);
 			}
+		});
+	}
+	
+	/**
+	 * Returns the views and sessions currently at a fix location [locationId] or in a building [building].
+	 * @param message Request message.
+	 */
+	private void handleGetViewsAtLocation(Message<JsonObject> message) {
+		final JsonObject body = message.body();
+		String locationId = body.getString("locationId");
+		String building = body.getString("building");
+		if (locationId == null && building == null) {
+			reply(message, EventBusHelper.errorResponse(400, "Missing location identifier (locationId) or building (building)."));
+			return;
+		}
+		LocationIndex index = handlers.locationIndex();
+		JsonArray views = locationId != null ? index.getViewsAtLocation(locationId) : index.getViewsInBuilding(building);
+		Set<String> sessionIds = new LinkedHashSet<>();
+		for (Object view : views) {
+			sessionIds.add(((JsonObject) view).getString("sessionId"));
 		}
+		JsonObject response = okResponse();
+		response.putArray("views", views);
+		response.putArray("sessionIds", new JsonArray(new ArrayList<Object>(sessionIds)));
+		reply(message, response);
+	}
+	
+	/**
+	 * Answers bulk queries for the locations and activities of multiple sessions from the session status index.
+	 * The request contains the sessions to query [sessionIds], either as array or as "all".
+	 * Optionally, the index version known by the client [since] may be given to receive only the sessions changed since.
+	 * Removed sessions are reported as tombstones [removed]. If the given version is older than [minVersion], removals may be missing.
+	 * @param message Request message.
+	 */
+	private void handleGetSessionStatus(Message<JsonObject> message) {
+		final JsonObject body = message.body();
+		Object sessionIds = body.getValue("sessionIds");
+		if (!(sessionIds instanceof JsonArray) && !"all".equals(sessionIds)) {
+			reply(message, EventBusHelper.errorResponse(400, "Missing or invalid session list (sessionIds), expecting an array or \"all\"."));
+			return;
+		}
+		Number sinceNumber = body.getNumber("since");
+		long since = sinceNumber != null ? sinceNumber.longValue() : -1l;
 		
+		SessionStatusIndex index = handlers.sessionStatusIndex();
+		JsonObject sessions;
+		if (sessionIds instanceof JsonArray) {
+			sessions = new JsonObject();
+			for (Object sessionId : (JsonArray) sessionIds) {
+				if (!(sessionId instanceof String)) continue;
+				JsonObject status = index.getStatus((String) sessionId, since);
+				if (status != null) sessions.putObject((String) sessionId, status);
+			}
+		} else {
+			sessions = index.getAll(since);
+		}
 		JsonObject response = okResponse();
-		response.putString("activity", activity.toString());
-		message.reply(response);
+		response.putNumber("version", index.getVersion());
+		response.putNumber("minVersion", index.getMinVersion());
+		response.putObject("sessions", sessions);
+		reply(message, response);
 	}
 }
\ No newline at end of file
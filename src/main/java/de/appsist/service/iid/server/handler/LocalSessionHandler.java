@@ -4,14 +4,19 @@ import java.util.*;
 
 import org.vertx.java.core.AsyncResult;
 import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
 
 import de.appsist.service.auth.connector.model.*;
 import de.appsist.service.iid.server.ConnectorRegistry;
 import de.appsist.service.iid.server.HandlerRegistry;
 import de.appsist.service.iid.server.model.LocalSession;
+import de.appsist.service.iid.server.model.ServiceItem;
 
 public class LocalSessionHandler {
 	private final Map<String, LocalSession> sessions;
+	private final ServiceItemIndex serviceItemIndex;
+	private final Map<String, Set<String>> sessionIdsForUser;
 	// private final HandlerRegistry handlers;
 	private final ConnectorRegistry connectors;
 	
@@ -19,6 +24,23 @@ public class LocalSessionHandler {
 		// this.handlers = handlers;
 		this.connectors = connectors;
 		this.sessions = new HashMap<>();
+		this.serviceItemIndex = new ServiceItemIndex();
+		this.sessionIdsForUser = new HashMap<>();
+	}
+	
+	/**
+	 * Adds or replaces a session and indexes it by its user.
+	 * @param session Session to store.
+	 */
+	private void putSession(LocalSession session) {
+		sessions.put(session.getId(), session);
+		String userId = session.getUser().getId();
+		Set<String> sessionIds = sessionIdsForUser.get(userId);
+		if (sessionIds == null) {
+			sessionIds = new LinkedHashSet<>();
+			sessionIdsForUser.put(userId, sessionIds);
+		}
+		sessionIds.add(session.getId());
 	}
 	
 	private void createSession(final User user, String token, View view, final AsyncResultHandler<LocalSession> resultHandler) {
@@ -32,7 +54,7 @@ public class LocalSessionHandler {
 			public void handle(final AsyncResult<Void> storeRequest) {
 				final LocalSession localSession = new LocalSession(session.getId(), session.getViews(), user);
 				if (storeRequest.succeeded()) {
-					sessions.put(session.getId(), localSession);
+					putSession(localSession);
 				}
 				resultHandler.handle(new AsyncResult<LocalSession>() {
 					
@@ -75,7 +97,7 @@ public class LocalSessionHandler {
 							if (registerRequest.succeeded()) {
 								Session session = registerRequest.result();
 								localSession = new LocalSession(session.getId(), session.getViews(), user);
-								sessions.put(localSession.getId(), localSession);
+								putSession(localSession);
 							} else {
 								localSession = null;
 							}
@@ -119,7 +141,7 @@ public class LocalSessionHandler {
 					Session session = removeRequest.result();
 					User user = sessions.get(sessionId).getUser();
 					LocalSession localSession = new LocalSession(session.getId(), session.getViews(), user);
-					sessions.put(session.getId(), localSession);
+					putSession(localSession);
 				}
 				resultHandler.handle(new AsyncResult<Void>() {
 					
@@ -152,7 +174,75 @@ public class LocalSessionHandler {
 		return sessions.get(sessionId);
 	}
 	
+	/**
+	 * Returns the sessions of a user.
+	 * @param userId Identifier of the user.
+	 * @return Identifiers of the sessions of the user. May be empty.
+	 */
+	public Set<String> getSessionIdsForUser(String userId) {
+		Set<String> sessionIds = sessionIdsForUser.get(userId);
+		return sessionIds != null ? Collections.unmodifiableSet(sessionIds) : Collections.<String>emptySet();
+	}
+	
 	public boolean hasSession(String sessionId) {
 		return sessions.containsKey(sessionId);
 	}
+	
+	/**
+	 * Returns all local sessions.
+	 * @return Collection of local sessions. May be empty.
+	 */
+	public Collection<LocalSession> getSessions() {
+		return sessions.values();
+	}
+	
+	/**
+	 * Adds a session restored from a snapshot. Existing sessions with the same identifier are not replaced.
+	 * @param session Session to restore.
+	 */
+	public void restoreSession(LocalSession session) {
+		if (!sessions.containsKey(session.getId())) {
+			putSession(session);
+			JsonArray catalogs = session.asJson().getArray("catalogs", new JsonArray());
+			for (Object catalogEntry : catalogs) {
+				JsonObject catalogObject = (JsonObject) catalogEntry;
+				List<ServiceItem> items = new ArrayList<>();
+				for (Object itemEntry : catalogObject.getArray("items", new JsonArray())) {
+					items.add(new ServiceItem((JsonObject) itemEntry));
+				}
+				indexServiceItems(session.getId(), catalogObject.getString("id"), items);
+			}
+		}
+	}
+	
+	/**
+	 * Records the catalog the given items have been added to, so that they can be purged by service.
+	 * @param sessionId Session the catalog belongs to.
+	 * @param catalogId Identifier of the catalog.
+	 * @param items Items added to the catalog.
+	 */
+	public void indexServiceItems(String sessionId, String catalogId, List<ServiceItem> items) {
+		for (ServiceItem item : items) {
+			serviceItemIndex.add(item.getService(), sessionId, catalogId);
+		}
+	}
+	
+	/**
+	 * Returns and forgets the catalogs of all sessions containing items of a service.
+	 * @param serviceId Identifier of the service.
+	 * @return Map with the session identifiers as keys and the identifiers of the affected catalogs as values. May be empty.
+	 */
+	public Map<String, Set<String>> removeServiceFromIndex(String serviceId) {
+		return serviceItemIndex.remove(serviceId);
+	}
+	
+	/**
+	 * Returns and forgets the catalogs of a session containing items of a service.
+	 * @param serviceId Identifier of the service.
+	 * @param sessionId Identifier of the session.
+	 * @return Identifiers of the affected catalogs. May be empty.
+	 */
+	public Set<String> removeServiceFromIndex(String serviceId, String sessionId) {
+		return serviceItemIndex.remove(serviceId, sessionId);
+	}
 }
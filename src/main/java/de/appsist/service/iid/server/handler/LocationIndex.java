@@ -0,0 +1,142 @@
+package de.appsist.service.iid.server.handler;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.iid.server.model.Location;
+
+/**
+ * Index for the views and sessions currently located at a fix location or in a building.
+ */
+public class LocationIndex {
+	private Map<String, String> buildingForLocation;
+	private final Map<String, Entry> entryForView;
+	private final Map<String, Set<String>> viewsForLocation;
+	private final Map<String, Set<String>> viewsForBuilding;
+
+	/**
+	 * Location of a single view.
+	 */
+	private static class Entry {
+		private final String viewId;
+		private final String sessionId;
+		private final String locationId;
+		private final String building;
+
+		public Entry(String viewId, String sessionId, String locationId, String building) {
+			this.viewId = viewId;
+			this.sessionId = sessionId;
+			this.locationId = locationId;
+			this.building = building;
+		}
+
+		public JsonObject asJson() {
+			JsonObject json = new JsonObject();
+			json.putString("viewId", viewId);
+			json.putString("sessionId", sessionId);
+			json.putString("locationId", locationId);
+			if (building != null) json.putString("building", building);
+			return json;
+		}
+	}
+
+	/**
+	 * Creates an empty index.
+	 * @param locations Configured locations, used to determine the building of a location if not reported by the view.
+	 */
+	public LocationIndex(Iterable<Location> locations) {
+		setLocations(locations);
+		entryForView = new HashMap<>();
+		viewsForLocation = new HashMap<>();
+		viewsForBuilding = new HashMap<>();
+	}
+
+	/**
+	 * Sets the configured locations. Entries already indexed are kept.
+	 * @param locations Configured locations, used to determine the building of a location if not reported by the view.
+	 */
+	public void setLocations(Iterable<Location> locations) {
+		Map<String, String> buildingForLocation = new HashMap<>();
+		for (Location location : locations) {
+			JsonObject locationObject = location.asJson();
+			String building = locationObject.getString("building");
+			if (building != null) buildingForLocation.put(locationObject.getString("id"), building);
+		}
+		this.buildingForLocation = buildingForLocation;
+	}
+	
+	/**
+	 * Updates the location of a view.
+	 * @param viewId Identifier of the view.
+	 * @param sessionId Session connected with the view.
+	 * @param location JSON representation of the fix location reported by the view.
+	 */
+	public void update(String viewId, String sessionId, JsonObject location) {
+		String locationId = location.getString("id");
+		if (locationId == null) return;
+		String building = location.getString("building", buildingForLocation.get(locationId));
+		remove(viewId);
+		Entry entry = new Entry(viewId, sessionId, locationId, building);
+		entryForView.put(viewId, entry);
+		addToIndex(viewsForLocation, locationId, viewId);
+		if (building != null) addToIndex(viewsForBuilding, building, viewId);
+	}
+
+	/**
+	 * Removes a view from the index, e.g. on logout or disconnect.
+	 * @param viewId Identifier of the view.
+	 */
+	public void remove(String viewId) {
+		Entry entry = entryForView.remove(viewId);
+		if (entry == null) return;
+		removeFromIndex(viewsForLocation, entry.locationId, viewId);
+		if (entry.building != null) removeFromIndex(viewsForBuilding, entry.building, viewId);
+	}
+
+	/**
+	 * Returns the views at a fix location.
+	 * @param locationId Identifier of the location.
+	 * @return Array of objects with view [viewId], session [sessionId], location [locationId], and building [building]. May be empty.
+	 */
+	public JsonArray getViewsAtLocation(String locationId) {
+		return getEntries(viewsForLocation.get(locationId));
+	}
+
+	/**
+	 * Returns the views in a building.
+	 * @param building Name of the building.
+	 * @return Array of objects with view [viewId], session [sessionId], location [locationId], and building [building]. May be empty.
+	 */
+	public JsonArray getViewsInBuilding(String building) {
+		return getEntries(viewsForBuilding.get(building));
+	}
+
+	private JsonArray getEntries(Set<String> viewIds) {
+		JsonArray entries = new JsonArray();
+		if (viewIds != null) for (String viewId : viewIds) {
+			entries.addObject(entryForView.get(viewId).asJson());
+		}
+		return entries;
+	}
+
+	private static void addToIndex(Map<String, Set<String>> index, String key, String viewId) {
+		Set<String> viewIds = index.get(key);
+		if (viewIds == null) {
+			viewIds = new LinkedHashSet<>();
+			index.put(key, viewIds);
+		}
+		viewIds.add(viewId);
+	}
+
+	private static void removeFromIndex(Map<String, Set<String>> index, String key, String viewId) {
+		Set<String> viewIds = index.get(key);
+		if (viewIds == null) return;
+		viewIds.remove(viewId);
+		if (viewIds.isEmpty()) index.remove(key);
+	}
+}
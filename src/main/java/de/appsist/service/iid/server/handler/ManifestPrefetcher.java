@@ -0,0 +1,124 @@
+package de.appsist.service.iid.server.handler;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonElement;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.appsist.service.iid.server.ConnectorRegistry;
+import de.appsist.service.iid.server.HandlerRegistry;
+
+/**
+ * Prefetcher warming the manifest cache of the content delivery service connector.
+ * Content packages referenced in service items or assistance steps, e.g., by the actions leading to the next step, are fetched in the background,
+ * so that the content is displayed without waiting for the content delivery service.
+ * Only a limited number of manifests is fetched at the same time, further packages are queued. If the queue is full, packages are dropped.
+ */
+public class ManifestPrefetcher {
+	private static final Logger logger = LoggerFactory.getLogger(ManifestPrefetcher.class);
+	private static final int MAX_DEPTH = 8;
+
+	// Default values if not configured.
+	private static final int CONCURRENCY = 2;
+	private static final int QUEUE_SIZE = 100;
+
+	private final HandlerRegistry handlers;
+	private final ConnectorRegistry connectors;
+	private final int concurrency;
+	private final int queueSize;
+	private final Set<String> queuedPackageIds;
+	private final Set<String> activePackageIds;
+
+	/**
+	 * Creates the prefetcher.
+	 * @param handlers Handler registry to access metrics and the event loop monitor.
+	 * @param connectors Connector registry to access the content delivery service.
+	 * @param config Prefetch configuration. May be empty. A concurrency [concurrency] of 0 disables prefetching.
+	 */
+	public ManifestPrefetcher(HandlerRegistry handlers, ConnectorRegistry connectors, JsonObject config) {
+		this.handlers = handlers;
+		this.connectors = connectors;
+		this.concurrency = config.getInteger("concurrency", CONCURRENCY);
+		this.queueSize = config.getInteger("queueSize", QUEUE_SIZE);
+		this.queuedPackageIds = new LinkedHashSet<>();
+		this.activePackageIds = new LinkedHashSet<>();
+	}
+
+	/**
+	 * Prefetches the manifests of all content packages referenced in the given payload.
+	 * References are content bodies or action bodies with a package identifier [packageId].
+	 * @param payload JSON representation of service items or a display payload, e.g., an assistance step.
+	 */
+	public void prefetch(JsonElement payload) {
+		if (concurrency <= 0) return;
+		Set<String> packageIds = new LinkedHashSet<>();
+		collectPackageIds(payload, packageIds, 0);
+		for (String packageId : packageIds) {
+			if (queuedPackageIds.contains(packageId) || activePackageIds.contains(packageId)) continue;
+			if (connectors.cdsConnector().isManifestCached(packageId)) continue;
+			if (queuedPackageIds.size() >= queueSize) {
+				handlers.metrics().increment("prefetch.dropped");
+				continue;
+			}
+			queuedPackageIds.add(packageId);
+			handlers.metrics().increment("prefetch.queued");
+		}
+		fetchNext();
+	}
+
+	private static void collectPackageIds(Object value, Set<String> packageIds, int depth) {
+		if (depth > MAX_DEPTH) return;
+		if (value instanceof JsonObject) {
+			JsonObject object = (JsonObject) value;
+			Object packageId = object.getValue("packageId");
+			if (packageId instanceof String) packageIds.add((String) packageId);
+			for (String fieldName : object.getFieldNames()) {
+				collectPackageIds(object.getValue(fieldName), packageIds, depth + 1);
+			}
+		} else if (value instanceof JsonArray) {
+			for (Object entry : (JsonArray) value) {
+				collectPackageIds(entry, packageIds, depth + 1);
+			}
+		}
+	}
+
+	/**
+	 * Starts fetching queued manifests until the concurrency limit is reached.
+	 * Manifests cached in the meantime are skipped. Fetches may complete synchronously and call this method again, so the queue is not iterated.
+	 */
+	private void fetchNext() {
+		while (activePackageIds.size() < concurrency && !queuedPackageIds.isEmpty()) {
+			final String packageId = queuedPackageIds.iterator().next();
+			queuedPackageIds.remove(packageId);
+			if (connectors.cdsConnector().isManifestCached(packageId)) continue;
+			activePackageIds.add(packageId);
+			handlers.eventLoopMonitor().runLowPriority("prefetch", new Handler<Void>() {
+
+				@Override
+				public void handle(Void event) {
+					connectors.cdsConnector().retrieveContentManifest(packageId, new AsyncResultHandler<JsonObject>() {
+
+						@Override
+						public void handle(AsyncResult<JsonObject> manifestRequest) {
+							activePackageIds.remove(packageId);
+							if (manifestRequest.succeeded()) {
+								handlers.metrics().increment("prefetch.fetched");
+							} else {
+								handlers.metrics().increment("prefetch.failed");
+								logger.debug("Failed to prefetch manifest of content package " + packageId + ": " + manifestRequest.cause());
+							}
+							fetchNext();
+						}
+					});
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,151 @@
+package de.appsist.service.iid.server.handler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.appsist.service.iid.server.HandlerRegistry;
+import de.appsist.service.iid.server.model.Notification;
+
+/**
+ * Store for the notifications currently active in a session.
+ * Notifications may expire, expired notifications are dismissed on all views showing them.
+ * Notifications are removed when dismissed by a service or a client, and all notifications of a session are removed when its last view logs out or disconnects.
+ */
+public class NotificationStore {
+	private static final Logger logger = LoggerFactory.getLogger(NotificationStore.class);
+
+	// Default values if not configured.
+	private static final long DEFAULT_TTL = 0l; // No expiry.
+
+	private final HandlerRegistry handlers;
+	private final long defaultTtl;
+	private final Map<String, Map<String, StoredNotification>> notificationsForSession;
+
+	/**
+	 * Active notification with its expiry timer.
+	 */
+	private static class StoredNotification {
+		private final Notification notification;
+		private final Long timerId;
+
+		public StoredNotification(Notification notification, Long timerId) {
+			this.notification = notification;
+			this.timerId = timerId;
+		}
+	}
+
+	/**
+	 * Creates the store.
+	 * @param handlers Handler registry to access timers and views.
+	 * @param config Notification configuration. May be empty.
+	 */
+	public NotificationStore(HandlerRegistry handlers, JsonObject config) {
+		this.handlers = handlers;
+		this.defaultTtl = config.getLong("defaultTtl", DEFAULT_TTL);
+		this.notificationsForSession = new HashMap<>();
+	}
+
+	/**
+	 * Adds an active notification. A notification with the same identifier is replaced.
+	 * @param sessionId Session the notification is shown in.
+	 * @param notification Notification to add.
+	 * @param ttl Time in milliseconds until the notification expires, <code>null</code> for the configured default, 0 for no expiry.
+	 */
+	public void add(final String sessionId, Notification notification, Long ttl) {
+		final String notificationId = notification.getId();
+		Map<String, StoredNotification> notifications = notificationsForSession.get(sessionId);
+		if (notifications == null) {
+			notifications = new LinkedHashMap<>();
+			notificationsForSession.put(sessionId, notifications);
+		}
+		cancelExpiry(notifications.remove(notificationId));
+		long expiry = ttl != null ? ttl : defaultTtl;
+		Long timerId = null;
+		if (expiry > 0) {
+			timerId = handlers.vertx().setTimer(expiry, new Handler<Long>() {
+
+				@Override
+				public void handle(Long event) {
+					expire(sessionId, notificationId);
+				}
+			});
+		}
+		notifications.put(notificationId, new StoredNotification(notification, timerId));
+	}
+
+	/**
+	 * Removes an active notification.
+	 * @param sessionId Session the notification is shown in.
+	 * @param notificationId Identifier of the notification.
+	 * @return <code>true</code> if the notification was active, otherwise <code>false</code>.
+	 */
+	public boolean remove(String sessionId, String notificationId) {
+		Map<String, StoredNotification> notifications = notificationsForSession.get(sessionId);
+		if (notifications == null) return false;
+		StoredNotification storedNotification = notifications.remove(notificationId);
+		if (notifications.isEmpty()) notificationsForSession.remove(sessionId);
+		cancelExpiry(storedNotification);
+		return storedNotification != null;
+	}
+
+	/**
+	 * Removes all active notifications of a session.
+	 * @param sessionId Identifier of the session.
+	 */
+	public void clear(String sessionId) {
+		Map<String, StoredNotification> notifications = notificationsForSession.remove(sessionId);
+		if (notifications == null) return;
+		for (StoredNotification storedNotification : notifications.values()) {
+			cancelExpiry(storedNotification);
+		}
+	}
+
+	/**
+	 * Returns the active notifications of a session.
+	 * @param sessionId Identifier of the session.
+	 * @return List of notifications in the order they have been added. May be empty.
+	 */
+	public List<Notification> getActive(String sessionId) {
+		List<Notification> activeNotifications = new ArrayList<>();
+		Map<String, StoredNotification> notifications = notificationsForSession.get(sessionId);
+		if (notifications != null) for (StoredNotification storedNotification : notifications.values()) {
+			activeNotifications.add(storedNotification.notification);
+		}
+		return activeNotifications;
+	}
+
+	private void cancelExpiry(StoredNotification storedNotification) {
+		if (storedNotification != null && storedNotification.timerId != null) {
+			handlers.vertx().cancelTimer(storedNotification.timerId);
+		}
+	}
+
+	private void expire(String sessionId, final String notificationId) {
+		Map<String, StoredNotification> notifications = notificationsForSession.get(sessionId);
+		if (notifications == null || notifications.remove(notificationId) == null) return;
+		if (notifications.isEmpty()) notificationsForSession.remove(sessionId);
+		handlers.metrics().increment("notifications.expired");
+		for (ViewHandler viewHandler : handlers.clientHandler().getViewHandlersForSession(sessionId)) {
+			if (!viewHandler.hasNotification(notificationId)) continue;
+			viewHandler.dismissNotification(notificationId, new AsyncResultHandler<Void>() {
+
+				@Override
+				public void handle(AsyncResult<Void> dismissRequest) {
+					if (dismissRequest.failed()) {
+						logger.warn("Failed to dismiss expired notification " + notificationId + ".", dismissRequest.cause());
+					}
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package de.appsist.service.iid.server.handler;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.appsist.service.iid.server.PayloadSchema;
+import de.appsist.service.iid.server.monitor.Metrics;
+
+/**
+ * Handler deciding whether display payloads of trusted producers are forwarded as received, without creating model objects.
+ * Payloads are validated against compiled schemas. If a payload does not match, the regular model path is used.
+ */
+public class PassThroughHandler {
+	private static final Logger logger = LoggerFactory.getLogger(PassThroughHandler.class);
+
+	public static final String ASSISTANCE = "assistance";
+	public static final String LEARNING_OBJECT = "learningObject";
+	public static final String POPUP = "popup";
+	public static final String SITE_OVERVIEW = "siteOverview";
+
+	// Default values if not configured. Mirror the JSON representation of the models.
+	private static final String CONTENT_BODY_SCHEMA = "{\"type\": \"string\", \"packageId?\": \"string\"}";
+	private static final Map<String, String> SCHEMAS = new HashMap<>();
+	static {
+		SCHEMAS.put(ASSISTANCE, "{\"content\": " + CONTENT_BODY_SCHEMA + ", \"title?\": \"object\", \"warnings?\": [{\"icon?\": \"string\"}]}");
+		SCHEMAS.put(LEARNING_OBJECT, "{\"chapters\": [{\"body\": " + CONTENT_BODY_SCHEMA + "}]}");
+		SCHEMAS.put(POPUP, "{\"title\": \"string\", \"body\": " + CONTENT_BODY_SCHEMA + "}");
+	}
+	private static final String PACKAGE_TYPE = "package";
+
+	private final Metrics metrics;
+	private final Set<String> trustedProducers;
+	private final Map<String, PayloadSchema> schemas;
+
+	/**
+	 * Creates the handler.
+	 * @param metrics Metrics to count forwarded and rejected payloads.
+	 * @param config Pass-through configuration. May be empty.
+	 * @throws IllegalArgumentException A configured schema is invalid.
+	 */
+	public PassThroughHandler(Metrics metrics, JsonObject config) throws IllegalArgumentException {
+		this.metrics = metrics;
+		this.trustedProducers = new HashSet<>();
+		for (Object producer : config.getArray("producers", new JsonArray())) {
+			trustedProducers.add((String) producer);
+		}
+		this.schemas = new HashMap<>();
+		for (Map.Entry<String, String> entry : SCHEMAS.entrySet()) {
+			schemas.put(entry.getKey(), new PayloadSchema(new JsonObject(entry.getValue())));
+		}
+		JsonObject configuredSchemas = config.getObject("schemas", new JsonObject());
+		for (String type : configuredSchemas.getFieldNames()) {
+			schemas.put(type, new PayloadSchema(configuredSchemas.getObject(type)));
+		}
+	}
+
+	/**
+	 * Checks if a payload may be forwarded without creating a model object.
+	 * @param serviceId Identifier of the producing service.
+	 * @param type Payload type, e.g. {@link #ASSISTANCE}.
+	 * @param payload Payload to check.
+	 * @return <code>true</code> if the producer is trusted and the payload matches the schema for the type, otherwise <code>false</code>.
+	 */
+	public boolean accepts(String serviceId, String type, JsonObject payload) {
+		if (!trustedProducers.contains(serviceId)) return false;
+		PayloadSchema schema = schemas.get(type);
+		if (schema == null) return false;
+		String error = schema.validate(payload);
+		if (error != null) {
+			metrics.increment("passThrough.mismatch." + type);
+			logger.debug("Payload of " + serviceId + " does not match schema for " + type + ": " + error);
+			return false;
+		}
+		metrics.increment("passThrough.accepted." + type);
+		return true;
+	}
+
+	/**
+	 * Returns the package identifier of a content body in its JSON representation.
+	 * @param contentBody JSON representation of a content body. May be <code>null</code>.
+	 * @return Package identifier or <code>null</code> if the content body is no package.
+	 */
+	public static String getPackageId(JsonObject contentBody) {
+		if (contentBody == null || !PACKAGE_TYPE.equalsIgnoreCase(contentBody.getString("type"))) return null;
+		return contentBody.getString("packageId");
+	}
+}
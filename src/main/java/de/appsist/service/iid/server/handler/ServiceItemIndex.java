@@ -0,0 +1,66 @@
+package de.appsist.service.iid.server.handler;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inverted index from producing services to the catalogs containing their items.
+ * The index may contain catalogs which no longer contain items of a service, but never misses a catalog which does.
+ */
+public class ServiceItemIndex {
+	private final Map<String, Map<String, Set<String>>> catalogsForService;
+
+	/**
+	 * Creates an empty index.
+	 */
+	public ServiceItemIndex() {
+		catalogsForService = new HashMap<>();
+	}
+
+	/**
+	 * Adds a catalog containing items of a service.
+	 * @param serviceId Identifier of the service.
+	 * @param sessionId Session the catalog belongs to.
+	 * @param catalogId Identifier of the catalog.
+	 */
+	public void add(String serviceId, String sessionId, String catalogId) {
+		Map<String, Set<String>> catalogsForSession = catalogsForService.get(serviceId);
+		if (catalogsForSession == null) {
+			catalogsForSession = new HashMap<>();
+			catalogsForService.put(serviceId, catalogsForSession);
+		}
+		Set<String> catalogIds = catalogsForSession.get(sessionId);
+		if (catalogIds == null) {
+			catalogIds = new HashSet<>();
+			catalogsForSession.put(sessionId, catalogIds);
+		}
+		catalogIds.add(catalogId);
+	}
+
+	/**
+	 * Removes all entries of a service.
+	 * @param serviceId Identifier of the service.
+	 * @return Map with the session identifiers as keys and the identifiers of the catalogs containing items of the service as values. May be empty.
+	 */
+	public Map<String, Set<String>> remove(String serviceId) {
+		Map<String, Set<String>> catalogsForSession = catalogsForService.remove(serviceId);
+		return catalogsForSession != null ? catalogsForSession : Collections.<String, Set<String>>emptyMap();
+	}
+
+	/**
+	 * Removes the entries of a service for a single session.
+	 * @param serviceId Identifier of the service.
+	 * @param sessionId Identifier of the session.
+	 * @return Identifiers of the catalogs of the session containing items of the service. May be empty.
+	 */
+	public Set<String> remove(String serviceId, String sessionId) {
+		Map<String, Set<String>> catalogsForSession = catalogsForService.get(serviceId);
+		if (catalogsForSession == null) return Collections.emptySet();
+		Set<String> catalogIds = catalogsForSession.remove(sessionId);
+		if (catalogsForSession.isEmpty()) catalogsForService.remove(serviceId);
+		return catalogIds != null ? catalogIds : Collections.<String>emptySet();
+	}
+}
@@ -0,0 +1,180 @@
+package de.appsist.service.iid.server.handler;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.iid.server.model.Activity;
+import de.appsist.service.iid.server.model.Location;
+
+/**
+ * Index for the last known location and the activity of the users of all sessions.
+ * Each update increases the version of the index, so that clients may query the changes since a version they know.
+ * Removed sessions are kept as tombstones, so that the removal is reported as change. Only a limited number of tombstones is kept.
+ */
+public class SessionStatusIndex {
+	private static final int MAX_TOMBSTONES = 1000;
+	
+	private final Map<String, SessionStatus> statusForSession;
+	private final Set<String> removedSessionIds;
+	private long version;
+	private long minVersion;
+
+	/**
+	 * Status of a single session.
+	 */
+	private static class SessionStatus {
+		private Location location;
+		private Activity activity;
+		private long version;
+		private boolean isRemoved;
+
+		public SessionStatus() {
+			location = null;
+			activity = Activity.UNKNOWN;
+			isRemoved = false;
+		}
+
+		public JsonObject asJson() {
+			JsonObject json = new JsonObject();
+			if (isRemoved) {
+				json.putBoolean("removed", true);
+				json.putNumber("version", version);
+				return json;
+			}
+			if (location != null) json.putObject("location", location.asJson());
+			json.putString("activity", activity.toString());
+			json.putNumber("version", version);
+			return json;
+		}
+	}
+
+	/**
+	 * Creates an empty index.
+	 */
+	public SessionStatusIndex() {
+		statusForSession = new HashMap<>();
+		removedSessionIds = new LinkedHashSet<>();
+		version = 0;
+		minVersion = 0;
+	}
+
+	/**
+	 * Updates the last known location of a session. Locations older than the one known are ignored.
+	 * A removed session is only added again for a location reported after the last one known before the removal.
+	 * @param sessionId Identifier of the session.
+	 * @param location Location reported by a view of the session.
+	 */
+	public void updateLocation(String sessionId, Location location) {
+		if (location == null || location.getLastUpdate() == null) return;
+		SessionStatus knownStatus = statusForSession.get(sessionId);
+		if (knownStatus != null && knownStatus.location != null && knownStatus.location.getLastUpdate() != null) {
+			Date knownUpdate = knownStatus.location.getLastUpdate();
+			if (knownUpdate.after(location.getLastUpdate())) return;
+			if (knownStatus.isRemoved && !location.getLastUpdate().after(knownUpdate)) return;
+		}
+		SessionStatus status = getStatus(sessionId);
+		status.location = location;
+		status.version = ++version;
+	}
+
+	/**
+	 * Updates the activity of the user of a session. Unknown activities do not replace a known one and do not add a removed session again.
+	 * @param sessionId Identifier of the session.
+	 * @param activity Activity reported by a view of the session.
+	 */
+	public void updateActivity(String sessionId, Activity activity) {
+		if (activity == null || activity == Activity.UNKNOWN) return;
+		SessionStatus knownStatus = statusForSession.get(sessionId);
+		if (knownStatus != null && !knownStatus.isRemoved && activity == knownStatus.activity) return;
+		SessionStatus status = getStatus(sessionId);
+		status.activity = activity;
+		status.version = ++version;
+	}
+
+	/**
+	 * Removes the status of a session, e.g., when the user has logged out. The removal is reported as tombstone.
+	 * @param sessionId Identifier of the session.
+	 */
+	public void remove(String sessionId) {
+		SessionStatus status = statusForSession.get(sessionId);
+		if (status == null || status.isRemoved) return;
+		// The location is kept to ignore outdated reports for the removed session.
+		status.activity = Activity.UNKNOWN;
+		status.isRemoved = true;
+		status.version = ++version;
+		removedSessionIds.add(sessionId);
+		if (removedSessionIds.size() > MAX_TOMBSTONES) {
+			Iterator<String> iterator = removedSessionIds.iterator();
+			String prunedSessionId = iterator.next();
+			iterator.remove();
+			minVersion = statusForSession.remove(prunedSessionId).version;
+		}
+	}
+
+	/**
+	 * Returns the current version of the index.
+	 * @return Version, 0 if the index is empty.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Returns the oldest version for which changes are reported completely.
+	 * Clients knowing an older version may have missed removals and should request the status without a version.
+	 * @return Version, 0 if no tombstone has been discarded yet.
+	 */
+	public long getMinVersion() {
+		return minVersion;
+	}
+
+	/**
+	 * Returns the status of a session.
+	 * @param sessionId Identifier of the session.
+	 * @param since Version known by the client.
+	 * @return JSON object with the last known location [location], the activity [activity], and the version of the status [version],
+	 * a tombstone with the flag [removed] and the version if the session has been removed,
+	 * or <code>null</code> if the status is unknown or has not changed since the given version.
+	 */
+	public JsonObject getStatus(String sessionId, long since) {
+		SessionStatus status = statusForSession.get(sessionId);
+		return status != null && status.version > since ? status.asJson() : null;
+	}
+
+	/**
+	 * Returns the status of all sessions.
+	 * @param since Version known by the client.
+	 * @return JSON object with the session identifiers as keys and the status objects (see {@link #getStatus(String, long)}) as values,
+	 * only containing sessions changed since the given version.
+	 */
+	public JsonObject getAll(long since) {
+		JsonObject result = new JsonObject();
+		for (Map.Entry<String, SessionStatus> entry : statusForSession.entrySet()) {
+			// Tombstones are only relevant for clients knowing a previous state.
+			if (entry.getValue().isRemoved && since < 0) continue;
+			if (entry.getValue().version > since) {
+				result.putObject(entry.getKey(), entry.getValue().asJson());
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the status of a session to be updated. A tombstone is replaced with a new status, so callers must check for a change first.
+	 */
+	private SessionStatus getStatus(String sessionId) {
+		SessionStatus status = statusForSession.get(sessionId);
+		if (status == null || status.isRemoved) {
+			status = new SessionStatus();
+			statusForSession.put(sessionId, status);
+			removedSessionIds.remove(sessionId);
+		}
+		return status;
+	}
+}
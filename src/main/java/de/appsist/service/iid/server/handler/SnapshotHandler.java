@@ -0,0 +1,218 @@
+package de.appsist.service.iid.server.handler;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.file.FileSystem;
+import org.vertx.java.core.file.FileSystemException;
+import org.vertx.java.core.impl.BlockingAction;
+import org.vertx.java.core.impl.VertxInternal;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+import de.appsist.service.iid.server.HandlerRegistry;
+import de.appsist.service.iid.server.model.LocalSession;
+
+/**
+ * Handler persisting sessions, service catalogs, and views to a local file.
+ * The snapshot is restored on startup, so that devices can reattach to their sessions after a restart or redeployment.
+ */
+public class SnapshotHandler {
+	private static final Logger logger = LoggerFactory.getLogger(SnapshotHandler.class);
+	private static final int SNAPSHOT_VERSION = 1;
+
+	// Default values if not configured.
+	private static final String SNAPSHOT_FILE = "iid-server.snapshot";
+	private static final long SNAPSHOT_INTERVAL = MILLISECONDS.convert(30, SECONDS);
+
+	private final HandlerRegistry handlers;
+	private final String snapshotFile;
+	private final String tempFile;
+	private final long interval;
+	private Long timerId;
+	private String lastSnapshot;
+	private boolean isWriting;
+
+	/**
+	 * Creates the snapshot handler.
+	 * @param handlers Handler registry to retrieve sessions and views from.
+	 * @param config Snapshot configuration. May be empty.
+	 */
+	public SnapshotHandler(HandlerRegistry handlers, JsonObject config) {
+		this.handlers = handlers;
+		this.snapshotFile = config.getString("file", SNAPSHOT_FILE);
+		this.tempFile = snapshotFile + ".tmp";
+		this.interval = config.getLong("interval", SNAPSHOT_INTERVAL);
+		this.timerId = null;
+		this.lastSnapshot = null;
+		this.isWriting = false;
+	}
+
+	/**
+	 * Restores sessions and views from the snapshot file, if available.
+	 */
+	public void restore() {
+		FileSystem fileSystem = handlers.vertx().fileSystem();
+		if (!fileSystem.existsSync(snapshotFile)) {
+			logger.debug("No snapshot to restore: " + snapshotFile);
+			return;
+		}
+		JsonObject snapshot;
+		try {
+			snapshot = new JsonObject(fileSystem.readFileSync(snapshotFile).toString());
+		} catch (RuntimeException e) {
+			logger.warn("Failed to read snapshot: " + snapshotFile, e);
+			return;
+		}
+		if (snapshot.getInteger("version", 0) != SNAPSHOT_VERSION) {
+			logger.warn("Ignoring snapshot with unsupported version: " + snapshot.getInteger("version"));
+			return;
+		}
+
+		int sessionCount = 0;
+		JsonArray sessions = snapshot.getArray("sessions", new JsonArray());
+		for (Object entry : sessions) {
+			try {
+				handlers.localSessionHandler().restoreSession(new LocalSession((JsonObject) entry));
+				sessionCount++;
+			} catch (IllegalArgumentException | ClassCastException e) {
+				logger.warn("Skipping invalid session in snapshot.", e);
+			}
+		}
+		JsonArray views = snapshot.getArray("views", new JsonArray());
+		handlers.clientHandler().restoreViews(views);
+		logger.info("Restored " + sessionCount + " sessions and " + views.size() + " views from snapshot " + snapshotFile + ".");
+	}
+
+	/**
+	 * Starts to write snapshots periodically.
+	 */
+	public void start() {
+		if (timerId != null) return;
+		timerId = handlers.vertx().setPeriodic(interval, new Handler<Long>() {
+
+			@Override
+			public void handle(Long event) {
+				writeSnapshot();
+			}
+		});
+	}
+
+	/**
+	 * Stops the periodic snapshots and writes a final snapshot.
+	 */
+	public void stop() {
+		if (timerId != null) {
+			handlers.vertx().cancelTimer(timerId);
+			timerId = null;
+		}
+		writeSnapshotSync();
+	}
+
+	/**
+	 * Writes the current state synchronously. To be used on shutdown.
+	 */
+	public void writeSnapshotSync() {
+		String encodedSnapshot = generateSnapshot().encode();
+		try {
+			writeSnapshotFile(encodedSnapshot);
+			lastSnapshot = encodedSnapshot;
+		} catch (IOException e) {
+			logger.warn("Failed to write snapshot: " + snapshotFile, e);
+		}
+	}
+
+	private void writeSnapshot() {
+		if (isWriting) return; // Previous snapshot is still being written.
+		final String encodedSnapshot = generateSnapshot().encode();
+		if (encodedSnapshot.equals(lastSnapshot)) return; // Nothing changed.
+		isWriting = true;
+		// File operations are blocking, they are performed by the background pool of Vert.x.
+		new BlockingAction<Void>((VertxInternal) handlers.vertx(), new Handler<AsyncResult<Void>>() {
+
+			@Override
+			public void handle(AsyncResult<Void> writeRequest) {
+				isWriting = false;
+				if (writeRequest.succeeded()) {
+					lastSnapshot = encodedSnapshot;
+				} else {
+					logger.warn("Failed to write snapshot: " + snapshotFile, writeRequest.cause());
+				}
+			}
+		}) {
+
+			@Override
+			public Void action() {
+				try {
+					writeSnapshotFile(encodedSnapshot);
+				} catch (IOException e) {
+					throw new FileSystemException(e);
+				}
+				return null;
+			}
+		}.run();
+	}
+
+	/**
+	 * Writes the snapshot to the temporary file and replaces the snapshot file with it. Blocks the calling thread.
+	 * As the snapshot contains session data, the temporary file is created readable for the owner only before any content is written.
+	 * The content is forced to the storage device before the file is moved, so that a crash cannot leave an incomplete snapshot.
+	 * @param encodedSnapshot Snapshot to write.
+	 * @throws IOException Failed to write or replace the file.
+	 */
+	private void writeSnapshotFile(String encodedSnapshot) throws IOException {
+		Path source = Paths.get(tempFile);
+		Path target = Paths.get(snapshotFile);
+		Files.deleteIfExists(source);
+		Set<StandardOpenOption> options = EnumSet.of(StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+		FileChannel channel;
+		try {
+			channel = FileChannel.open(source, options, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+		} catch (UnsupportedOperationException e) {
+			// No POSIX file system, the permissions are inherited from the directory.
+			channel = FileChannel.open(source, options);
+		}
+		ByteBuffer content = ByteBuffer.wrap(encodedSnapshot.getBytes(StandardCharsets.UTF_8));
+		try (FileChannel output = channel) {
+			while (content.hasRemaining()) {
+				output.write(content);
+			}
+			output.force(true);
+		}
+		try {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	private JsonObject generateSnapshot() {
+		JsonObject snapshot = new JsonObject();
+		snapshot.putNumber("version", SNAPSHOT_VERSION);
+		JsonArray sessions = new JsonArray();
+		for (LocalSession session : handlers.localSessionHandler().getSessions()) {
+			sessions.addObject(session.asJson());
+		}
+		snapshot.putArray("sessions", sessions);
+		snapshot.putArray("views", handlers.clientHandler().getViewSnapshots());
+		return snapshot;
+	}
+}
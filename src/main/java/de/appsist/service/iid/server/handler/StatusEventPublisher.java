@@ -0,0 +1,164 @@
+package de.appsist.service.iid.server.handler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+import de.appsist.service.iid.server.HandlerRegistry;
+
+/**
+ * Publisher for changes of the location and activity of users.
+ * Events are only published if the value has changed. Changes within the minimum interval of a session are delayed, only the latest value is published.
+ * In batch mode, all changes of a batch interval are published as a single event.
+ */
+public class StatusEventPublisher {
+	public static final String ACTIVITY_ADDRESS = "appsist:event:userActivitySwitch";
+	public static final String LOCATION_ADDRESS = "appsist:event:userLocationChange";
+	public static final String BATCH_ADDRESS = "appsist:event:userStatusChanges";
+
+	// Default values if not configured.
+	private static final long LOCATION_INTERVAL = 1000l;
+	private static final long ACTIVITY_INTERVAL = 0l;
+	private static final long BATCH_INTERVAL = 0l; // Batch mode disabled.
+
+	private final HandlerRegistry handlers;
+	private final long locationInterval;
+	private final long activityInterval;
+	private final long batchInterval;
+	private final Map<String, EventStream> streams;
+	private JsonArray batch;
+
+	/**
+	 * Stream of events for a single session and address.
+	 */
+	private class EventStream {
+		private final String address;
+		private final long minInterval;
+		private JsonObject lastKey;
+		private long lastPublication;
+		private JsonObject pendingKey;
+		private JsonObject pendingEvent;
+		private boolean isTimerSet;
+
+		public EventStream(String address, long minInterval) {
+			this.address = address;
+			this.minInterval = minInterval;
+			this.lastKey = null;
+			this.lastPublication = 0;
+			this.pendingKey = null;
+			this.pendingEvent = null;
+			this.isTimerSet = false;
+		}
+
+		public void update(JsonObject key, JsonObject event) {
+			if (key.equals(lastKey)) {
+				// Unchanged, a delayed change is obsolete.
+				pendingEvent = null;
+				handlers.metrics().increment("statusEvents.duplicate");
+				return;
+			}
+			long delay = lastPublication + minInterval - System.currentTimeMillis();
+			if (delay <= 0) {
+				publish(key, event);
+				return;
+			}
+			pendingEvent = event;
+			pendingKey = key;
+			handlers.metrics().increment("statusEvents.debounced");
+			if (!isTimerSet) {
+				isTimerSet = true;
+				handlers.vertx().setTimer(delay, new Handler<Long>() {
+
+					@Override
+					public void handle(Long timerId) {
+						isTimerSet = false;
+						if (pendingEvent != null) {
+							JsonObject event = pendingEvent;
+							pendingEvent = null;
+							publish(pendingKey, event);
+						}
+					}
+				});
+			}
+		}
+
+		private void publish(JsonObject key, JsonObject event) {
+			lastKey = key;
+			lastPublication = System.currentTimeMillis();
+			handlers.metrics().increment("statusEvents.published");
+			if (batchInterval > 0) {
+				addToBatch(address, event);
+			} else {
+				handlers.eventBus().publish(address, event);
+			}
+		}
+	}
+
+	/**
+	 * Creates the publisher.
+	 * @param handlers Handler registry to access the event bus.
+	 * @param config Status event configuration. May be empty.
+	 */
+	public StatusEventPublisher(HandlerRegistry handlers, JsonObject config) {
+		this.handlers = handlers;
+		this.locationInterval = config.getLong("locationInterval", LOCATION_INTERVAL);
+		this.activityInterval = config.getLong("activityInterval", ACTIVITY_INTERVAL);
+		this.batchInterval = config.getLong("batchInterval", BATCH_INTERVAL);
+		this.streams = new HashMap<>();
+		this.batch = null;
+	}
+
+	/**
+	 * Publishes a change of the activity of a user, if the activity differs from the last one published for the session.
+	 * @param sessionId Session of the user.
+	 * @param event Event containing the activity [activity] and the session identifier [sessionId].
+	 */
+	public void activityChanged(String sessionId, JsonObject event) {
+		JsonObject key = new JsonObject().putString("activity", event.getString("activity"));
+		getStream(sessionId, ACTIVITY_ADDRESS, activityInterval).update(key, event);
+	}
+
+	/**
+	 * Publishes a change of the location of a user, if the location differs from the last one published for the session.
+	 * @param sessionId Session of the user.
+	 * @param location JSON representation of the location.
+	 */
+	public void locationChanged(String sessionId, JsonObject location) {
+		JsonObject key = location.copy();
+		key.removeField("lastUpdate");
+		JsonObject event = new JsonObject();
+		event.putString("sessionId", sessionId);
+		event.putObject("location", location);
+		getStream(sessionId, LOCATION_ADDRESS, locationInterval).update(key, event);
+	}
+
+	private EventStream getStream(String sessionId, String address, long minInterval) {
+		String streamId = sessionId + "|" + address;
+		EventStream stream = streams.get(streamId);
+		if (stream == null) {
+			stream = new EventStream(address, minInterval);
+			streams.put(streamId, stream);
+		}
+		return stream;
+	}
+
+	private void addToBatch(String address, JsonObject event) {
+		if (batch == null) {
+			batch = new JsonArray();
+			handlers.vertx().setTimer(batchInterval, new Handler<Long>() {
+
+				@Override
+				public void handle(Long timerId) {
+					JsonObject batchEvent = new JsonObject();
+					batchEvent.putArray("events", batch);
+					batch = null;
+					handlers.eventBus().publish(BATCH_ADDRESS, batchEvent);
+				}
+			});
+		}
+		batch.addObject(new JsonObject().putString("address", address).putObject("event", event));
+	}
+}
@@ -8,6 +8,7 @@ import java.util.UUID;
 
 import org.vertx.java.core.Handler;
 import org.vertx.java.core.eventbus.Message;
+import org.vertx.java.core.json.JsonArray;
 import org.vertx.java.core.json.JsonObject;
 import org.vertx.java.core.logging.Logger;
 import org.vertx.java.core.logging.impl.LoggerFactory;
@@ -16,23 +17,31 @@ import de.appsist.service.auth.connector.model.User;
 import de.appsist.service.auth.connector.model.View;
 import de.appsist.service.iid.server.ConnectorRegistry;
 import de.appsist.service.iid.server.HandlerRegistry;
+import de.appsist.service.iid.server.MainVerticle;
 import de.appsist.service.iid.server.model.LocalSession;
 
 public class TabletClientHandler implements ClientHandler, ViewStateHandler {
 	private static final Logger logger = LoggerFactory.getLogger(TabletClientHandler.class);
 	private static final String DEVICE_CLASS = "tablet";
+	private static final String SERVER_ADDRESS = "appsist:service:iid:server";
+	private static final String MULTIPLEXED_ADDRESS = SERVER_ADDRESS + ":commands";
 	
 	private final ConnectorRegistry connectors;
 	private final HandlerRegistry handlers;
 	
 	private final Map<View, TabletViewHandler> viewHandlers;
+	private final Map<String, TabletViewHandler> viewHandlersById;
+	private final Handler<Message<JsonObject>> registerHandler;
+	private final Handler<Message<JsonObject>> multiplexedCommandHandler;
+	private final boolean isMultiplexed;
 		
-	public TabletClientHandler(ConnectorRegistry connectors, HandlerRegistry handlers) {
+	public TabletClientHandler(ConnectorRegistry connectors, final HandlerRegistry handlers) {
 		this.connectors = connectors;
 		this.handlers = handlers;
 		
 		viewHandlers = new HashMap<>();
-		handlers.eventBus().registerHandler("appsist:service:iid:server", new Handler<Message<JsonObject>>() {
+		viewHandlersById = new HashMap<>();
+		registerHandler = new Handler<Message<JsonObject>>() {
 
 			@Override
 			public void handle(Message<JsonObject> message) {
@@ -42,6 +51,7 @@ public class TabletClientHandler implements ClientHandler, ViewStateHandler {
 					return;
 				}
 				String action = body.getString("action", "<none>");
+				long startTime = System.currentTimeMillis();
 				switch (action) {
 				case "register":
 					handleRegister(message);
@@ -49,9 +59,49 @@ public class TabletClientHandler implements ClientHandler, ViewStateHandler {
 				default:
 					message.reply(errorResponse(400, "Invalid action command [action]: " + action));
 				}
+				handlers.eventLoopMonitor().handlerCompleted(action, startTime);
 			}
-		});
+		};
+		handlers.eventBus().registerHandler(SERVER_ADDRESS, registerHandler);
 		
+		isMultiplexed = MainVerticle.getConfig().isMultiplexed();
+		multiplexedCommandHandler = new Handler<Message<JsonObject>>() {
+			
+			@Override
+			public void handle(Message<JsonObject> message) {
+				JsonObject body = message.body();
+				if (body == null) {
+					message.reply(errorResponse(400, "Missing message body."));
+					return;
+				}
+				String viewId = body.getString("viewId");
+				if (viewId == null) {
+					message.reply(errorResponse(400, "Missing view identifier [viewId]."));
+					return;
+				}
+				TabletViewHandler viewHandler = viewHandlersById.get(viewId);
+				if (viewHandler == null) {
+					message.reply(errorResponse(404, "Unknown view: " + viewId));
+					return;
+				}
+				viewHandler.handleCommand(message);
+			}
+		};
+		if (isMultiplexed) {
+			// Routing is based on the views of this instance, so the address must not be shared in a cluster.
+			handlers.eventBus().registerLocalHandler(MULTIPLEXED_ADDRESS, multiplexedCommandHandler);
+		}
+	}
+	
+	private void addViewHandler(View view, TabletViewHandler viewHandler) {
+		viewHandler.addViewStateHandler(this);
+		viewHandlers.put(view, viewHandler);
+		viewHandlersById.put(view.getId(), viewHandler);
+	}
+	
+	private void removeViewHandler(View view) {
+		viewHandlers.remove(view);
+		viewHandlersById.remove(view.getId());
 	}
 	
 	private void handleRegister(Message<JsonObject> message) {
@@ -70,16 +120,27 @@ public class TabletClientHandler implements ClientHandler, ViewStateHandler {
 		} else {
 			view = new View(UUID.randomUUID().toString(), DEVICE_CLASS, deviceId);
 			logger.debug("Received registering request for device: " + deviceId);
-			viewHandler = new TabletViewHandler(view, connectors, handlers);
-			viewHandler.addViewStateHandler(this);
-			viewHandlers.put(view, viewHandler);
+			viewHandler = new TabletViewHandler(view, connectors, handlers, isMultiplexed);
+			addViewHandler(view, viewHandler);
 		}
 		viewHandler.init();
 
 		JsonObject response = okResponse();
 		LocalSession session = viewHandler.getSession();
-		if (session != null) response.putObject("session", session.asJson());
+		if (session != null) {
+			response.putObject("session", session.asJson());
+			// Replay the missed messages if possible, otherwise the complete state.
+			Number lastSequenceNumber = body.getNumber("lastSeq");
+			JsonArray missedMessages = lastSequenceNumber != null ? viewHandler.getMessagesSince(lastSequenceNumber.longValue()) : null;
+			if (missedMessages != null) {
+				response.putArray("missedMessages", missedMessages);
+			} else {
+				response.putObject("state", viewHandler.getReplayState());
+			}
+		}
+		response.putNumber("seq", viewHandler.getSequenceNumber());
 		response.putObject("view", view.asJson());
+		response.putString("commandAddress", isMultiplexed ? MULTIPLEXED_ADDRESS : viewHandler.getCommandAddress());
 		message.reply(response);
 	}
 	
@@ -116,7 +177,7 @@ public class TabletClientHandler implements ClientHandler, ViewStateHandler {
 			logger.debug("Removing handler for view: " + view.getId());
 			viewHandler.removeViewStateListener(this);
 			viewHandler.destroy();
-			viewHandlers.remove(view);
+			removeViewHandler(view);
 		}
 	}
 
@@ -134,13 +195,10 @@ public class TabletClientHandler implements ClientHandler, ViewStateHandler {
 
 	@Override
 	public ViewHandler getViewHandler(String sessionId, String viewId) {
-		for (TabletViewHandler viewHandler : viewHandlers.values()) {
-			LocalSession session = viewHandler.getSession();
-			if (session != null && session.getId().equals(sessionId) && viewHandler.getView().getId().equals(viewId)) {
-				return viewHandler;
-			}
-		}
-		return null;
+		TabletViewHandler viewHandler = viewHandlersById.get(viewId);
+		if (viewHandler == null) return null;
+		LocalSession session = viewHandler.getSession();
+		return session != null && session.getId().equals(sessionId) ? viewHandler : null;
 	}
 
 	@Override
@@ -153,5 +211,52 @@ public class TabletClientHandler implements ClientHandler, ViewStateHandler {
 		}
 		return null;
 	}
+
+	@Override
+	public void destroy() {
+		handlers.eventBus().unregisterHandler(SERVER_ADDRESS, registerHandler);
+		if (isMultiplexed) {
+			handlers.eventBus().unregisterHandler(MULTIPLEXED_ADDRESS, multiplexedCommandHandler);
+		}
+		for (TabletViewHandler viewHandler : viewHandlers.values()) {
+			viewHandler.removeViewStateListener(this);
+			viewHandler.shutdown();
+		}
+		viewHandlers.clear();
+		viewHandlersById.clear();
+	}
+
+	@Override
+	public JsonArray getViewSnapshots() {
+		JsonArray snapshots = new JsonArray();
+		for (TabletViewHandler viewHandler : viewHandlers.values()) {
+			if (viewHandler.hasSession()) {
+				snapshots.addObject(viewHandler.getSnapshot());
+			}
+		}
+		return snapshots;
+	}
+
+	@Override
+	public void restoreViews(JsonArray snapshots) {
+		for (Object entry : snapshots) {
+			JsonObject snapshot = (JsonObject) entry;
+			View view;
+			try {
+				view = new View(snapshot.getObject("view"));
+			} catch (IllegalArgumentException | NullPointerException e) {
+				logger.warn("Skipping invalid view snapshot: " + snapshot.encode());
+				continue;
+			}
+			LocalSession session = handlers.localSessionHandler().getSession(snapshot.getString("sessionId"));
+			if (session == null || getViewForDevice(view.getDeviceId()) != null) {
+				continue;
+			}
+			TabletViewHandler viewHandler = new TabletViewHandler(view, connectors, handlers, isMultiplexed);
+			addViewHandler(view, viewHandler);
+			viewHandler.restore(snapshot, session);
+			logger.debug("Restored view " + view.getId() + " for device " + view.getDeviceId() + ".");
+		}
+	}
 	
 }
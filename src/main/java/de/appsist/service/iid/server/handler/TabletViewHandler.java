@@ -1,17 +1,17 @@
 package de.appsist.service.iid.server.handler;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
-import static java.util.concurrent.TimeUnit.MINUTES;
 import static java.util.concurrent.TimeUnit.SECONDS;
 
-import java.net.URI;
-import java.net.URISyntaxException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -32,10 +32,14 @@ import de.appsist.service.auth.connector.AuthServiceConnector.AuthType;
 import de.appsist.service.auth.connector.model.User;
 import de.appsist.service.auth.connector.model.View;
 import de.appsist.service.iid.server.ConnectorRegistry;
+import de.appsist.service.iid.server.ContentEnricher;
+import de.appsist.service.iid.server.DeferrableResultHandler;
 import de.appsist.service.iid.server.EventBusHelper;
 import de.appsist.service.iid.server.FailResult;
 import de.appsist.service.iid.server.HandlerRegistry;
+import de.appsist.service.iid.server.LocationCatalog;
 import de.appsist.service.iid.server.MainVerticle;
+import de.appsist.service.iid.server.ModuleConfiguration;
 import de.appsist.service.iid.server.OperationFailedException;
 import de.appsist.service.iid.server.ValueAggregationHandler;
 import de.appsist.service.iid.server.model.Action;
@@ -55,6 +59,8 @@ import de.appsist.service.iid.server.model.SendMessageAction;
 import de.appsist.service.iid.server.model.ServiceCatalog;
 import de.appsist.service.iid.server.model.SiteOverview;
 import de.appsist.service.iid.server.model.StationInfo;
+import de.appsist.service.iid.server.monitor.EventLoopMonitor;
+import de.appsist.service.iid.server.monitor.Trace;
 
 public class TabletViewHandler implements ViewHandler {
 	private final static Logger logger = LoggerFactory.getLogger(TabletViewHandler.class);
@@ -63,13 +69,12 @@ public class TabletViewHandler implements ViewHandler {
 	
 	// Default values if not configured.
 	private static final long HEARTBEAT_INTERVAL = MILLISECONDS.convert(10, SECONDS);
-	private static final long HEARTBEAT_TIMEOUT = 1000l;
-	private static final long DISCONNECTION_TIMEOUT = MILLISECONDS.convert(2, MINUTES);
 	
 	
 	private final ConnectorRegistry connectors;
 	private final HandlerRegistry handlers;
 	private final String clientAddress;
+	private final String commandAddress;
 	private final View view;
 	private final Handler<Message<JsonObject>> commandHandler;
 	
@@ -82,19 +87,54 @@ public class TabletViewHandler implements ViewHandler {
 	
 	private Date lastAction;
 	private Long heartBeatHandlerId;
+	private boolean isCommandHandlerRegistered;
+	private final boolean isMultiplexed;
 	private ViewState viewState;
 	private final Set<ViewStateHandler> connectionStateHandlers;
 	private final Map<JsonObject, AsyncResultHandler<Void>> messagesCache;
+	private DisplayState displayState;
+	private long sequenceNumber;
+	private final Deque<JsonObject> sentMessages;
+	private final int replayBufferSize;
 	
-	public TabletViewHandler(View view, ConnectorRegistry connectors, HandlerRegistry handlers) {
+	/**
+	 * Reference to a content package within a learning object.
+	 */
+	private static class PackageReference {
+		private final String packageId;
+		private final JsonObject contentBody;
+		private final JsonObject parent;
+		
+		public PackageReference(String packageId, JsonObject contentBody, JsonObject parent) {
+			this.packageId = packageId;
+			this.contentBody = contentBody;
+			this.parent = parent;
+		}
+	}
+	
+	/**
+	 * Creates a view handler.
+	 * @param view View to handle.
+	 * @param connectors Connector registry.
+	 * @param handlers Handler registry.
+	 * @param isMultiplexed <code>true</code> if client commands are routed by the client handler, <code>false</code> if the view handler listens to its own command address.
+	 */
+	public TabletViewHandler(View view, ConnectorRegistry connectors, final HandlerRegistry handlers, boolean isMultiplexed) {
 		this.handlers = handlers;
+		this.isMultiplexed = isMultiplexed;
 		this.connectors = connectors;
 		this.view = view;
 		connectionStateHandlers = new HashSet<>();
 		messagesCache = new LinkedHashMap<>();
+		displayState = new DisplayState();
+		sequenceNumber = 0l;
+		sentMessages = new ArrayDeque<>();
+		replayBufferSize = MainVerticle.getConfig().getReplayBufferSize();
 		viewState = ViewState.DISCONNECTED;
 		lastAction = new Date();
 		clientAddress = HandlerRegistry.SERVICE_ID + ":client:" + view.getId();
+		commandAddress = HandlerRegistry.SERVICE_ID + ":server:" + view.getId();
+		isCommandHandlerRegistered = false;
 		lastKnownLocation = null;
 		userActivity = Activity.UNKNOWN;
 		
@@ -108,6 +148,7 @@ public class TabletViewHandler implements ViewHandler {
 					return;
 				}
 				String action = body.getString("action", "null");
+				long startTime = System.currentTimeMillis();
 				switch (action) {
 				case "login":
 					handleLogin(message);
@@ -127,9 +168,16 @@ public class TabletViewHandler implements ViewHandler {
 				case "setUserActivity":
 					handleSetUserActivity(message);
 					break;
+				case "popupClosed":
+					handlePopupClosed(message);
+					break;
+				case "notificationDismissed":
+					handleNotificationDismissed(message);
+					break;
 				default:
 					message.reply(EventBusHelper.errorResponse(400, "Unknown action command."));
 				}
+				handlers.eventLoopMonitor().handlerCompleted(action, startTime);
 			}
 		};
 		
@@ -141,7 +189,16 @@ public class TabletViewHandler implements ViewHandler {
 	}
 	
 	private void setSession(LocalSession session) {
+		if (session == null || this.session == null || !session.getId().equals(this.session.getId())) {
+			// The display state belongs to the session shown.
+			displayState = new DisplayState();
+		}
 		this.session = session;
+		if (session != null && lastKnownLocation != null) {
+			handlers.locationIndex().update(view.getId(), session.getId(), lastKnownLocation.asJson());
+		} else {
+			handlers.locationIndex().remove(view.getId());
+		}
 		if (session != null) {
 			logger.debug("Connected session " + session.getId() + " ("  + session.getUser().getId() + ") with view " + view.getId() + ".");
 		} else {
@@ -159,13 +216,16 @@ public class TabletViewHandler implements ViewHandler {
 			return;
 		}
 		
-		// Listen to commands from client.
-		handlers.eventBus().registerHandler("appsist:service:iid:server:" + view.getId(), commandHandler);
+		ModuleConfiguration config = MainVerticle.getConfig();
+		// Listen to commands from client. In multiplexed mode, commands are routed by the client handler.
+		if (!isMultiplexed && !isCommandHandlerRegistered) {
+			handlers.eventBus().registerHandler(commandAddress, commandHandler);
+			isCommandHandlerRegistered = true;
+		}
 		// Start heart beat.
-		JsonObject connConfig = MainVerticle.getConfig().getClientConnectionConfig();
-		final long heartbeatInterval = connConfig.getLong("heartbeatInterval", HEARTBEAT_INTERVAL);
-		final long heartbeatTimeout = connConfig.getLong("heartbeatTimeout", HEARTBEAT_TIMEOUT);
-		final long disconnectionTimeout = connConfig.getLong("disconnectionTimeout", DISCONNECTION_TIMEOUT);
+		final long heartbeatInterval = config.getHeartbeatInterval();
+		final long heartbeatTimeout = config.getHeartbeatTimeout();
+		final long disconnectionTimeout = config.getDisconnectionTimeout();
 		handlers.vertx().setPeriodic(heartbeatInterval , new Handler<Long>() {
 			@Override
 			public void handle(Long handlerId) {
@@ -192,6 +252,11 @@ public class TabletViewHandler implements ViewHandler {
 									logger.warn(logMessageBuilder.toString());
 								}
 							} else {
+								EventLoopMonitor monitor = handlers.eventLoopMonitor();
+								if (monitor.isOverloaded()) {
+									logger.warn("Heartbeat for view " + view.getId() + " failed while the event loop lags " + monitor.getLag() + " ms.");
+									handlers.metrics().increment("heartbeat.failed.overloaded");
+								}
 								if (now.getTime() - lastAction.getTime() >= disconnectionTimeout) {
 									updateViewState(ViewState.DISCONNECTED);
 									handlers.vertx().cancelTimer(heartBeatHandlerId);
@@ -207,12 +272,168 @@ public class TabletViewHandler implements ViewHandler {
 		});
 	}
 	
+	/**
+	 * Returns a snapshot of the view state to be persisted.
+	 * Credentials are not persisted, so a restored view requires a new login before performing actions or logging out.
+	 * @return JSON object containing the view, the connected session, and the last known client state.
+	 */
+	public JsonObject getSnapshot() {
+		JsonObject snapshot = new JsonObject();
+		snapshot.putObject("view", view.asJson());
+		if (session != null) {
+			snapshot.putString("sessionId", session.getId());
+		}
+		if (lastKnownLocation != null) {
+			snapshot.putObject("location", lastKnownLocation.asJson());
+		}
+		snapshot.putString("activity", userActivity.toString());
+		if (!messagesCache.isEmpty()) {
+			JsonArray pendingMessages = new JsonArray();
+			for (JsonObject message : messagesCache.keySet()) {
+				pendingMessages.addObject(message);
+			}
+			snapshot.putArray("pendingMessages", pendingMessages);
+		}
+		if (!displayState.isEmpty()) {
+			snapshot.putObject("displayState", displayState.asJson());
+		}
+		snapshot.putNumber("seq", sequenceNumber);
+		return snapshot;
+	}
+	
+	/**
+	 * Restores the view state from a snapshot and starts listening for the client.
+	 * The view is treated as reconnecting until the client responds or the disconnection timeout is reached.
+	 * @param snapshot Snapshot as generated by {@link #getSnapshot()}.
+	 * @param session Restored session the view was connected with.
+	 */
+	public void restore(JsonObject snapshot, LocalSession session) {
+		sequenceNumber = snapshot.getLong("seq", 0l);
+		JsonObject locationObject = snapshot.getObject("location");
+		if (locationObject != null) {
+			try {
+				lastKnownLocation = new Location(locationObject);
+			} catch (IllegalArgumentException e) {
+				logger.warn("Ignoring invalid location in snapshot of view " + view.getId() + ".", e);
+			}
+		}
+		String activityString = snapshot.getString("activity");
+		if (activityString != null) {
+			try {
+				userActivity = Activity.fromString(activityString);
+			} catch (IllegalArgumentException e) {
+				userActivity = Activity.UNKNOWN;
+			}
+		}
+		JsonArray pendingMessages = snapshot.getArray("pendingMessages");
+		if (pendingMessages != null) for (Object entry : pendingMessages) {
+			messagesCache.put((JsonObject) entry, new AsyncResultHandler<Void>() {
+				
+				@Override
+				public void handle(AsyncResult<Void> event) {
+					if (event.failed()) {
+						logger.debug("Failed to deliver restored message to view " + view.getId() + ": " + event.cause().getMessage());
+					}
+				}
+			});
+		}
+		setSession(session);
+		handlers.sessionStatusIndex().updateLocation(session.getId(), lastKnownLocation);
+		handlers.sessionStatusIndex().updateActivity(session.getId(), userActivity);
+		JsonObject displayStateObject = snapshot.getObject("displayState");
+		if (displayStateObject != null) {
+			try {
+				displayState = new DisplayState(displayStateObject);
+			} catch (ClassCastException e) {
+				logger.warn("Ignoring invalid display state in snapshot of view " + view.getId() + ".", e);
+			}
+		}
+		init();
+		// Messages are cached until the client is back or the disconnection timeout is reached. 
+		viewState = ViewState.CONNECTING;
+	}
+	
+	/**
+	 * Releases the view handler on shutdown. Cached messages are failed, but the session is kept to be restored later.
+	 */
+	public void shutdown() {
+		purgeCachedMessages(messagesCache.entrySet().iterator(), new OperationFailedException(503, "Service is shutting down, the message is delivered after the restart."));
+		destroy();
+	}
+	
 	public void destroy() {
 		if (heartBeatHandlerId != null) {
 			handlers.vertx().cancelTimer(heartBeatHandlerId);
 		}
 		connectionStateHandlers.clear();
-		handlers.eventBus().unregisterHandler("appsist:service:iid:server:" + view.getId(), commandHandler);
+		handlers.locationIndex().remove(view.getId());
+		if (isCommandHandlerRegistered) {
+			handlers.eventBus().unregisterHandler(commandAddress, commandHandler);
+			isCommandHandlerRegistered = false;
+		}
+	}
+	
+	/**
+	 * Returns the sequence number of the latest message sent to the client.
+	 * @return Sequence number, <code>0</code> if no message has been sent yet.
+	 */
+	public long getSequenceNumber() {
+		return sequenceNumber;
+	}
+	
+	/**
+	 * Returns the messages sent after the given sequence number.
+	 * @param lastSequenceNumber Sequence number of the latest message the client has applied.
+	 * @return Array of messages in the order they were sent, or <code>null</code> if messages of the gap are no longer buffered. 
+	 */
+	public JsonArray getMessagesSince(long lastSequenceNumber) {
+		if (lastSequenceNumber > sequenceNumber) return null; // The client knows messages we do not know, e.g. after a restart.
+		JsonArray messages = new JsonArray();
+		if (lastSequenceNumber == sequenceNumber) return messages;
+		JsonObject oldestMessage = sentMessages.peekFirst();
+		if (oldestMessage == null || oldestMessage.getLong("seq") > lastSequenceNumber + 1) return null;
+		for (JsonObject message : sentMessages) {
+			if (message.getLong("seq") > lastSequenceNumber) {
+				messages.addObject(message);
+			}
+		}
+		return messages;
+	}
+	
+	/**
+	 * Returns the messages required to restore the screen of the client, i.e. the service catalogs of the session and the current display state.
+	 * @return JSON object containing the client messages to replay [messages].
+	 */
+	public JsonObject getReplayState() {
+		JsonArray messages = new JsonArray();
+		if (session != null) {
+			for (String catalogId : session.getServiceCatalogIds()) {
+				JsonObject message = new JsonObject();
+				message.putString("action", "updateCatalog");
+				message.putObject("catalog", session.getServiceCatalog(catalogId).asJson());
+				messages.addObject(message);
+			}
+		}
+		for (Object message : displayState.getMessages()) {
+			messages.add(message);
+		}
+		return new JsonObject().putArray("messages", messages);
+	}
+	
+	/**
+	 * Handles a command sent by the client via the multiplexed command address.
+	 * @param message Message containing the command.
+	 */
+	public void handleCommand(Message<JsonObject> message) {
+		commandHandler.handle(message);
+	}
+	
+	/**
+	 * Returns the address the client sends its commands to if commands are not multiplexed.
+	 * @return Event bus address of the view.
+	 */
+	public String getCommandAddress() {
+		return commandAddress;
 	}
 	
 	private void updateViewState(ViewState newState) {
@@ -221,7 +442,7 @@ public class TabletViewHandler implements ViewHandler {
 		switch (viewState) {
 		case DISCONNECTED:
 			logger.debug("Disconnected view " + view.getId() + ".");
-			purgeCachedMessages(messagesCache.entrySet().iterator());
+			purgeCachedMessages(messagesCache.entrySet().iterator(), new OperationFailedException(500, "Client disconnected."));
 			if (session != null) performLogout(new AsyncResultHandler<Void>() {
 				
 				@Override
@@ -285,6 +506,7 @@ public class TabletViewHandler implements ViewHandler {
 								JsonObject response = EventBusHelper.okResponse();
 								response.putObject("session", session.asJson());
 								message.reply(response);
+								showActiveNotifications();
 							} else {
 								message.reply(EventBusHelper.errorResponse(500, sessionRequest.cause().getMessage()));
 							}
@@ -307,6 +529,8 @@ public class TabletViewHandler implements ViewHandler {
 					logger.debug("User logged out: " + session.getId());
 					setSession(null);
 					message.reply(EventBusHelper.okResponse());
+				} else if (logoutRequest.cause() instanceof OperationFailedException) {
+					message.reply(((OperationFailedException) logoutRequest.cause()).generateErrorResponse());
 				} else {
 					message.reply(EventBusHelper.errorResponse(500, logoutRequest.cause().getMessage()));
 					logger.warn("Failed to logout user.", logoutRequest.cause());
@@ -338,6 +562,9 @@ public class TabletViewHandler implements ViewHandler {
 					return new Throwable("No user session to log out.");
 				}
 			});
+		} else if (authCode == null) {
+			// Credentials are not restored from snapshots.
+			resultHandler.handle(new FailResult(new OperationFailedException(401, "Login required.")));
 		} else {
 			final User user = session.getUser();
 			connectors.authService().generateTokenForUser(user.getId(), authType, authCode, new AsyncResultHandler<String>() {
@@ -346,10 +573,18 @@ public class TabletViewHandler implements ViewHandler {
 				public void handle(final AsyncResult<String> tokenRequest) {
 					if (tokenRequest.succeeded()) {
 						user.cacheToken(tokenRequest.result());
-						handlers.localSessionHandler().removeView(session.getId(), user.loadToken(), view.getId(), new AsyncResultHandler<Void>() {
+						final String sessionId = session.getId();
+						handlers.localSessionHandler().removeView(sessionId, user.loadToken(), view.getId(), new AsyncResultHandler<Void>() {
 							
 							@Override
 							public void handle(final AsyncResult<Void> removeRequest) {
+								if (removeRequest.succeeded()) {
+									LocalSession remainingSession = handlers.localSessionHandler().getSession(sessionId);
+									if (remainingSession == null || remainingSession.getViews() == null || remainingSession.getViews().isEmpty()) {
+										handlers.sessionStatusIndex().remove(sessionId);
+										handlers.notificationStore().clear(sessionId);
+									}
+								}
 								resultHandler.handle(new AsyncResult<Void>() {
 									
 									@Override
@@ -419,6 +654,11 @@ public class TabletViewHandler implements ViewHandler {
 			return;
 		}
 		
+		if (authCode == null) {
+			// Credentials are not restored from snapshots.
+			message.reply(EventBusHelper.errorResponse(401, "Login required."));
+			return;
+		}
 		action.setSessionId(session.getId());
 		connectors.authService().generateTokenForUser(session.getUser().getId(), authType, authCode, new AsyncResultHandler<String>() {
 			
@@ -477,6 +717,11 @@ public class TabletViewHandler implements ViewHandler {
 			location = new Location(locationObject);
 			if (location.getType() == Location.Type.FIX) {
 				lastKnownLocation = location;
+				if (session != null) {
+					handlers.sessionStatusIndex().updateLocation(session.getId(), location);
+					handlers.statusEventPublisher().locationChanged(session.getId(), location.asJson());
+					handlers.locationIndex().update(view.getId(), session.getId(), location.asJson());
+				}
 			}
 			response = EventBusHelper.okResponse();
 		} catch (IllegalArgumentException e) {
@@ -487,12 +732,16 @@ public class TabletViewHandler implements ViewHandler {
 	
 	private void handleGetFixLocations(Message<JsonObject> message) {
 		actionPerformed();
-		JsonArray locations = new JsonArray();
-		for (Location location : MainVerticle.getConfig().getLocations()) {
-            locations.addObject(location.asJson());
-		}
+		JsonObject body = message.body();
+		LocationCatalog catalog = MainVerticle.getConfig().getLocationCatalog();
 		JsonObject response = EventBusHelper.okResponse();
-		response.putArray("locations", locations);
+		response.putString("version", catalog.getVersion());
+		if (catalog.getVersion().equals(body.getString("version"))) {
+			// The client already holds the current locations.
+			response.putBoolean("notModified", true);
+		} else {
+			response.putArray("locations", catalog.getLocations(body.getString("building"), body.getString("type")));
+		}
 		message.reply(response);
 	}
 	
@@ -504,11 +753,14 @@ public class TabletViewHandler implements ViewHandler {
 			message.reply(EventBusHelper.errorResponse(400, "Missing activity string [activity]."));
 			return;
 		}
-        body.putString("sessionId", this.session.getId());
-        handlers.eventBus().publish("appsist:event:userActivitySwitch", body);
 		JsonObject response;
 		try {
 			userActivity = Activity.fromString(activityString);
+			if (session != null) {
+				handlers.sessionStatusIndex().updateActivity(session.getId(), userActivity);
+				body.putString("sessionId", session.getId());
+				handlers.statusEventPublisher().activityChanged(session.getId(), body);
+			}
 			response = EventBusHelper.okResponse();
 		} catch (IllegalArgumentException e) {
 			response = EventBusHelper.errorResponse(400, "Invalid activity string [activity], expecting \"main\", \"side\", or \"unknown\".");
@@ -516,6 +768,25 @@ public class TabletViewHandler implements ViewHandler {
 		message.reply(response);
 	}
 	
+	private void handlePopupClosed(Message<JsonObject> message) {
+		actionPerformed();
+		displayState.closePopup();
+		message.reply(EventBusHelper.okResponse());
+	}
+	
+	private void handleNotificationDismissed(Message<JsonObject> message) {
+		actionPerformed();
+		String notificationId = message.body().getString("notificationId");
+		if (notificationId == null) {
+			message.reply(EventBusHelper.errorResponse(400, "Missing notification identifier [notificationId]."));
+			return;
+		}
+		displayState.removeNotification(notificationId);
+		// Dismissed notifications are no longer shown to views logging in later.
+		if (session != null) handlers.notificationStore().remove(session.getId(), notificationId);
+		message.reply(EventBusHelper.okResponse());
+	}
+	
 	private void actionPerformed() {
 		lastAction = new Date();
 		updateViewState(ViewState.CONNECTED);
@@ -576,20 +847,58 @@ public class TabletViewHandler implements ViewHandler {
 		
 	}
 	
-	private void purgeCachedMessages(final Iterator<Entry<JsonObject, AsyncResultHandler<Void>>> iterator) {
+	private void purgeCachedMessages(final Iterator<Entry<JsonObject, AsyncResultHandler<Void>>> iterator, OperationFailedException cause) {
 		if (iterator.hasNext()) {
 			Entry<JsonObject, AsyncResultHandler<Void>> entry = iterator.next();
 			AsyncResultHandler<Void> resultHandler = entry.getValue();
-			resultHandler.handle(new FailResult(new OperationFailedException(500, "Client disconnected.")));
-			purgeCachedMessages(iterator);
+			resultHandler.handle(new FailResult(cause));
+			purgeCachedMessages(iterator, cause);
 		} else {
-			logger.debug("Purged " + messagesCache.size() + " cached messaged, because view " + view.getId() + " disconnected.");
+			logger.debug("Purged " + messagesCache.size() + " cached messaged for view " + view.getId() + ": " + cause.getMessage());
 			messagesCache.clear();
 		}
 		
 	}
 	
+	/**
+	 * Sends a message to the client as part of a traced request.
+	 * The correlation id is added to the message and the delivery is recorded as span.
+	 * @param message Message to send.
+	 * @param trace Trace of the request. May be <code>null</code>.
+	 * @param resultHandler Handler for the delivery result.
+	 */
+	private void sendMessageToClient(JsonObject message, final Trace trace, final AsyncResultHandler<Void> resultHandler) {
+		if (trace == null) {
+			sendMessageToClient(message, resultHandler);
+			return;
+		}
+		message.putString("correlationId", trace.getId());
+		final long deliveryStart = System.currentTimeMillis();
+		sendMessageToClient(message, new DeferrableResultHandler() {
+			
+			@Override
+			public void handle(AsyncResult<Void> deliveryResult) {
+				trace.addSpan("delivery:" + view.getId(), deliveryStart);
+				if (resultHandler != null) resultHandler.handle(deliveryResult);
+			}
+			
+			@Override
+			public void deferred() {
+				if (resultHandler instanceof DeferrableResultHandler) ((DeferrableResultHandler) resultHandler).deferred();
+			}
+		});
+	}
+	
 	private void sendMessageToClient(JsonObject message, final AsyncResultHandler<Void> resultHandler) {
+		if (viewState != ViewState.DISCONNECTED) {
+			// Messages which are not sent are neither replayed nor part of the display state.
+			message.putNumber("seq", ++sequenceNumber);
+			sentMessages.addLast(message);
+			while (sentMessages.size() > replayBufferSize) {
+				sentMessages.removeFirst();
+			}
+			displayState.update(message);
+		}
 		switch (viewState) {
 		case CONNECTED:
 			// TODO Retrieve timeout from configuration.			
@@ -634,6 +943,8 @@ public class TabletViewHandler implements ViewHandler {
 		case CONNECTING:
 			logger.debug("Added item to messages cache for view " + view.getId() + ".");
 			messagesCache.put(message, resultHandler);
+			// The requester may stop to count the request as in progress.
+			if (resultHandler instanceof DeferrableResultHandler) ((DeferrableResultHandler) resultHandler).deferred();
 			break;
 		case DISCONNECTED:
 			resultHandler.handle(new FailResult(new OperationFailedException(500, "The client is disconnected.")));
@@ -646,6 +957,7 @@ public class TabletViewHandler implements ViewHandler {
 		JsonObject message = new JsonObject();
 		message.putString("action", "showNotification");
 		message.putObject("notification", notification.asJson());
+		if (viewState != ViewState.DISCONNECTED) displayState.addNotification(notification.getId(), message);
 		
 		sendMessageToClient(message, resultHandler);
 	}
@@ -654,6 +966,7 @@ public class TabletViewHandler implements ViewHandler {
     public void purgeNotifications(final AsyncResultHandler<Void> resultHandler) {
         JsonObject message = new JsonObject();
         message.putString("action", "purgeNotifications");
+        displayState.clearNotifications();
         
 		sendMessageToClient(message, resultHandler);
     }
@@ -663,10 +976,39 @@ public class TabletViewHandler implements ViewHandler {
 		JsonObject message = new JsonObject();
 		message.putString("action", "dismissNotification");
 		message.putString("notificationId", notificationId);
+		displayState.removeNotification(notificationId);
 		
 		sendMessageToClient(message, resultHandler);
 	}
 
+	@Override
+	public boolean hasNotification(String notificationId) {
+		return displayState.hasNotification(notificationId);
+	}
+	
+	@Override
+	public boolean hasNotifications() {
+		return displayState.hasNotifications();
+	}
+	
+	/**
+	 * Shows the active notifications of the session which are not yet shown on the device.
+	 */
+	private void showActiveNotifications() {
+		for (final Notification notification : handlers.notificationStore().getActive(session.getId())) {
+			if (displayState.hasNotification(notification.getId())) continue;
+			showNotification(notification, new AsyncResultHandler<Void>() {
+				
+				@Override
+				public void handle(AsyncResult<Void> showRequest) {
+					if (showRequest.failed()) {
+						logger.warn("Failed to show active notification " + notification.getId() + " on view " + view.getId() + ".", showRequest.cause());
+					}
+				}
+			});
+		}
+	}
+
 	@Override
 	public void updateCatalog(ServiceCatalog catalog, AsyncResultHandler<Void> resultHandler) {
 		JsonObject message = new JsonObject();
@@ -677,147 +1019,169 @@ public class TabletViewHandler implements ViewHandler {
 	}
 
 	@Override
-	public void displayAssistance(final AssistanceStep assistance, final AsyncResultHandler<Void> resultHandler) {
-		logger.debug("Received assistance step to display: " + assistance.asJson().encodePrettily());
+	public void displayAssistance(AssistanceStep assistance, Trace trace, AsyncResultHandler<Void> resultHandler) {
+		ContentBody content = assistance.getContent();
+		String packageId = content.getType() == Type.PACKAGE ? ((ContentBody.Package) content).getPackageId() : null;
+		sendAssistance(assistance.asJson(), packageId, trace, resultHandler);
+	}
+	
+	@Override
+	public void displayAssistance(JsonObject assistance, Trace trace, AsyncResultHandler<Void> resultHandler) {
+		sendAssistance(assistance, PassThroughHandler.getPackageId(assistance.getObject("content")), trace, resultHandler);
+	}
+	
+	/**
+	 * Returns the path used by the client to retrieve content packages.
+	 * @return Path of the content proxy if enabled, otherwise the path of the content delivery service.
+	 */
+	private String getContentPath() {
+		ContentProxyHandler contentProxy = handlers.contentProxyHandler();
+		return contentProxy != null ? contentProxy.getBasePath() : MainVerticle.getConfig().getCdsPath();
+	}
+	
+	/**
+	 * Enriches an assistance step with the descriptor of its content package and sends it to the client.
+	 * @param assistanceStepObject JSON representation of the assistance step. Will be modified.
+	 * @param packageId Identifier of the content package or <code>null</code> if the content is no package.
+	 * @param trace Trace of the request. May be <code>null</code>.
+	 * @param resultHandler Handler for the delivery result. May be <code>null</code>.
+	 */
+	private void sendAssistance(final JsonObject assistanceStepObject, final String packageId, final Trace trace, final AsyncResultHandler<Void> resultHandler) {
+		if (logger.isDebugEnabled()) {
+			logger.debug("Received assistance step to display: " + assistanceStepObject.encodePrettily());
+		}
 		final JsonObject message = new JsonObject();
 		message.putString("action", "displayAssistance");
-		ContentBody content = assistance.getContent();
-		if (content.getType() == Type.PACKAGE) {
-			final ContentBody.Package packageContent = (ContentBody.Package) content;
-			connectors.cdsConnector().retrieveContentManifest(packageContent.getPackageId(), new AsyncResultHandler<JsonObject>() {
+		if (packageId != null) {
+			final long fetchStart = System.currentTimeMillis();
+			connectors.cdsConnector().retrieveContentManifest(packageId, new AsyncResultHandler<JsonObject>() {
 				
 				@Override
 				public void handle(AsyncResult<JsonObject> descriptorRequest) {
+					if (trace != null) trace.addSpan("cds:" + view.getId(), fetchStart);
 					if (descriptorRequest.succeeded()) {
-						JsonObject descriptor = descriptorRequest.result();
-						logger.debug("Received content descriptor for assistance step: " + descriptor.encodePrettily());
-						JsonObject assistanceStepObject = assistance.asJson();
-						String basePath = handlers.serviceConfig("cds").getObject("http").getString("path") + "/" + packageContent.getPackageId() + "/";
-						try {
-							importContentDescriptorForAssistanceStep(assistanceStepObject, descriptor, basePath);
-						} catch (IllegalArgumentException e) {
-							logger.warn("Failed to import content package descriptor for package: " + packageContent.getPackageId(), e);
-						}
-						
-						message.putObject("assistance", assistanceStepObject);
-						sendMessageToClient(message, resultHandler);
+						JsonObject request = new JsonObject();
+						request.putString("type", ContentEnricher.ASSISTANCE);
+						request.putObject("assistance", assistanceStepObject);
+						request.putObject("descriptor", descriptorRequest.result());
+						request.putString("basePath", getContentPath() + "/" + packageId + "/");
+						final long enrichmentStart = System.currentTimeMillis();
+						handlers.enrichmentHandler().enrich(request, new AsyncResultHandler<JsonObject>() {
+							
+							@Override
+							public void handle(AsyncResult<JsonObject> enrichmentRequest) {
+								if (trace != null) trace.addSpan("enrichment:" + view.getId(), enrichmentStart);
+								if (enrichmentRequest.succeeded()) {
+									message.putObject("assistance", enrichmentRequest.result().getObject("assistance"));
+								} else {
+									logger.warn("Failed to import content package descriptor for package: " + packageId, enrichmentRequest.cause());
+									message.putObject("assistance", assistanceStepObject);
+								}
+								sendMessageToClient(message, trace, resultHandler);
+							}
+						});
 					} else {
-						logger.warn("Failed to retrieve content package: " + packageContent.getPackageId());
+						logger.warn("Failed to retrieve content package: " + packageId);
+						if (resultHandler != null) resultHandler.handle(new FailResult(descriptorRequest.cause()));
 					}
 				}
 			});
 		} else {
-			message.putObject("assistance", assistance.asJson());
-			sendMessageToClient(message, resultHandler);
+			message.putObject("assistance", assistanceStepObject);
+			sendMessageToClient(message, trace, resultHandler);
 		}
 	}
 	
-	private static void importContentDescriptorForAssistanceStep(JsonObject assistanceStepObject, JsonObject descriptor, String baseUrl) throws IllegalArgumentException {
-		JsonObject content = assistanceStepObject.getObject("content"); 
-		String main = descriptor.getString("main");
-		if (main != null) {
-			URI uri;
-			try {
-				uri = new URI(main);
-			} catch (URISyntaxException e) {
-				throw new IllegalArgumentException("The [main] field contains no valid URI.", e);
-			}
-			content.putString("main", uri.isAbsolute() ? main : baseUrl + main);
-			content.putString("mimeType", descriptor.getString("mimeType"));
-		}
-		
-		String lastUpdate = descriptor.getString("lastUpdate");
-		if (lastUpdate != null) content.putString("lastUpdate", lastUpdate);
-		
-		String version = descriptor.getString("version");
-		if (version != null) content.putString("version", version);
-		
-		String title = descriptor.getString("title");
-		if (title != null) {
-			JsonObject titleContainer = assistanceStepObject.getObject("title");
-			if (titleContainer == null) {
-				titleContainer = new JsonObject();
-				assistanceStepObject.putObject("title", titleContainer);
+	@Override
+	public void displayLearningObject(LearningObject learningObject, Trace trace, AsyncResultHandler<Void> resultHandler) {
+		List<PackageReference> packageReferences = new ArrayList<>();
+		for (Chapter chapter : learningObject.getChapters()) {
+			ContentBody contentBody = chapter.getBody();
+			if (contentBody.getType() == Type.PACKAGE) {
+				String packageId = ((ContentBody.Package) contentBody).getPackageId();
+				packageReferences.add(new PackageReference(packageId, contentBody.asJson(), chapter.asJson()));
 			}
-			titleContainer.putString("current", title);
 		}
-		
-		String info = descriptor.getString("info");
-		if (info != null) assistanceStepObject.putString("info", info);
-		
-		String endorsement = descriptor.getString("endorsement");
-		if (endorsement != null) assistanceStepObject.putString("endorsement", endorsement);
-		
-		String arid = descriptor.getString("arid");
-		if (arid != null) assistanceStepObject.putString("arid", arid);
-		
-		JsonArray newWarnings = descriptor.getArray("warnings");
-		if (newWarnings != null) {
-			JsonArray existingWarnings = assistanceStepObject.getArray("warnings");
-			if (existingWarnings == null) {
-				existingWarnings = new JsonArray();
-				assistanceStepObject.putArray("warnings", existingWarnings);
-			}
-			for (Object entry : newWarnings) {
-				existingWarnings.add(entry);
-			}
-			for (Object entry : existingWarnings) {
-				JsonObject warning = (JsonObject) entry;
-				String icon = warning.getString("icon");
-				if (icon != null) {
-					URI uri;
-					try {
-						uri = new URI(icon);
-					} catch (URISyntaxException e) {
-						throw new IllegalArgumentException("The [icon] field contains no valid URI.", e);
-					}
-					warning.putString("icon", uri.isAbsolute() ? icon : baseUrl + icon);
-				}
+		sendLearningObject(learningObject.asJson(), packageReferences, trace, resultHandler);
+	}
+	
+	@Override
+	public void displayLearningObject(JsonObject learningObject, Trace trace, AsyncResultHandler<Void> resultHandler) {
+		List<PackageReference> packageReferences = new ArrayList<>();
+		for (Object entry : learningObject.getArray("chapters")) {
+			JsonObject chapter = (JsonObject) entry;
+			JsonObject contentBody = chapter.getObject("body");
+			String packageId = PassThroughHandler.getPackageId(contentBody);
+			if (packageId != null) {
+				packageReferences.add(new PackageReference(packageId, contentBody, chapter));
 			}
 		}
+		sendLearningObject(learningObject, packageReferences, trace, resultHandler);
 	}
-
-	@Override
-	public void displayLearningObject(final LearningObject learningObject, final AsyncResultHandler<Void> resultHandler) {
+	
+	/**
+	 * Enriches a learning object with the descriptors of its content packages and sends it to the client.
+	 * @param learningObjectJson JSON representation of the learning object. Will be modified.
+	 * @param packageReferences Content packages of the learning object.
+	 * @param trace Trace of the request. May be <code>null</code>.
+	 * @param resultHandler Handler for the delivery result. May be <code>null</code>.
+	 */
+	private void sendLearningObject(final JsonObject learningObjectJson, final List<PackageReference> packageReferences, final Trace trace, final AsyncResultHandler<Void> resultHandler) {
 		final JsonObject message = new JsonObject();
 		message.putString("action", "displayLearningObject");
 		
-		List<String> contentPackageIds = new ArrayList<>();
-		for (final Chapter chapter : learningObject.getChapters()) {
-			if (chapter.getBody().getType() == Type.PACKAGE) {
-				ContentBody.Package packageContent = (ContentBody.Package) chapter.getBody();
-				contentPackageIds.add(packageContent.getPackageId());
-			}
-		}
-		
-		if (contentPackageIds.isEmpty()) {
+		if (packageReferences.isEmpty()) {
 			// No need to retrieve package metadata, just forward object.
-			message.putObject("learningObject", learningObject.asJson());
-			sendMessageToClient(message, resultHandler);
+			message.putObject("learningObject", learningObjectJson);
+			sendMessageToClient(message, trace, resultHandler);
 			return;
 		}
 		
+		Set<String> contentPackageIds = new LinkedHashSet<>();
+		for (PackageReference packageReference : packageReferences) {
+			contentPackageIds.add(packageReference.packageId);
+		}
+		
+		final long fetchStart = System.currentTimeMillis();
 		ValueAggregationHandler<String, JsonObject> aggregationHandler = new ValueAggregationHandler<String, JsonObject>(contentPackageIds, new AsyncResultHandler<Map<String, AsyncResult<JsonObject>>>() {
 
 			@Override
 			public void handle(final AsyncResult<Map<String, AsyncResult<JsonObject>>> aggregatedRequest) {
+				if (trace != null) trace.addSpan("cds:" + view.getId(), fetchStart);
 				if (aggregatedRequest.succeeded()) {
 					Map<String, AsyncResult<JsonObject>> packageDescriptorRequests = aggregatedRequest.result();
-					for (final Chapter chapter : learningObject.getChapters()) {
-						ContentBody contentBody = chapter.getBody();
-						if (contentBody.getType() == Type.PACKAGE) {
-							ContentBody.Package packageContent = (ContentBody.Package) contentBody;
-							JsonObject descriptor = packageDescriptorRequests.get(packageContent.getPackageId()).result();
-							String basePath = handlers.serviceConfig("cds").getObject("http").getString("path") + "/" + packageContent.getPackageId() + "/";
-							try {
-								importContentDescriptor(contentBody.asJson(), chapter.asJson(), descriptor, basePath);
-							} catch (IllegalArgumentException e) {
-								logger.warn("Failed to import content package descriptor for package: " + packageContent.getPackageId(), e);
+					String contentPath = getContentPath();
+					JsonArray items = new JsonArray();
+					for (PackageReference packageReference : packageReferences) {
+						JsonObject item = new JsonObject();
+						item.putObject("descriptor", packageDescriptorRequests.get(packageReference.packageId).result());
+						item.putString("basePath", contentPath + "/" + packageReference.packageId + "/");
+						items.addObject(item);
+					}
+					JsonObject request = new JsonObject();
+					request.putString("type", ContentEnricher.LEARNING_OBJECT);
+					request.putArray("items", items);
+					final long enrichmentStart = System.currentTimeMillis();
+					handlers.enrichmentHandler().enrich(request, new AsyncResultHandler<JsonObject>() {
+						
+						@Override
+						public void handle(AsyncResult<JsonObject> enrichmentRequest) {
+							if (trace != null) trace.addSpan("enrichment:" + view.getId(), enrichmentStart);
+							if (enrichmentRequest.succeeded()) {
+								JsonArray results = enrichmentRequest.result().getArray("items");
+								for (int i = 0; i < packageReferences.size(); i++) {
+									JsonObject result = results.get(i);
+									PackageReference packageReference = packageReferences.get(i);
+									packageReference.contentBody.mergeIn(result.getObject("body"));
+									packageReference.parent.mergeIn(result.getObject("parent"));
+								}
+							} else {
+								logger.warn("Failed to import content package descriptors for learning object.", enrichmentRequest.cause());
 							}
+							message.putObject("learningObject", learningObjectJson);
+							sendMessageToClient(message, trace, resultHandler);
 						}
-					}
-					message.putObject("learningObject", learningObject.asJson());
-					sendMessageToClient(message, resultHandler);
+					});
 				} else {
 					final Throwable cause = aggregatedRequest.cause();
 					logger.warn("Failed to retrieve content package.", cause);
@@ -831,43 +1195,16 @@ public class TabletViewHandler implements ViewHandler {
 		}
 	}
 	
-	private static void importContentDescriptor(JsonObject contentBody, JsonObject parent, JsonObject descriptor, String baseUrl) throws IllegalArgumentException {
-		String main = descriptor.getString("main");
-		if (main != null) {
-			URI uri;
-			try {
-				uri = new URI(main);
-			} catch (URISyntaxException e) {
-				throw new IllegalArgumentException("The [main] field contains no valid URI.", e);
-			}
-			contentBody.putString("main", uri.isAbsolute() ? main : baseUrl + main);
-            contentBody.putString("mimeType", descriptor.getString("mimeType"));
-            contentBody.putString("info", descriptor.getString("info", ""));
-            contentBody.putString("title", descriptor.getString("title", ""));
-        }
-        else {
-            contentBody.putString("mimeType", descriptor.getString("mimeType"));
-            contentBody.putString("info", descriptor.getString("info", ""));
-            contentBody.putString("title", descriptor.getString("title", ""));
-		}
-		
-		String lastUpdate = descriptor.getString("lastUpdate");
-		if (lastUpdate != null) contentBody.putString("lastUpdate", lastUpdate);
-		
-		String version = descriptor.getString("version");
-		if (version != null) contentBody.putString("version", version);
-		
-		String title = descriptor.getString("title");
-		if (title != null) {
-			parent.putString("caption", title);
-		}
-	}
-
 	@Override
 	public void displaySiteOverview(final SiteOverview siteOverview, final AsyncResultHandler<Void> resultHandler) {
+		displaySiteOverview(siteOverview.asJson(), resultHandler);
+	}
+	
+	@Override
+	public void displaySiteOverview(JsonObject siteOverview, AsyncResultHandler<Void> resultHandler) {
 		final JsonObject message = new JsonObject();
 		message.putString("action", "displaySiteOverview");
-		message.putObject("siteOverview", siteOverview.asJson());
+		message.putObject("siteOverview", siteOverview);
 
 		sendMessageToClient(message, resultHandler);
 	}
@@ -890,52 +1227,69 @@ public class TabletViewHandler implements ViewHandler {
 	}
 
 	@Override
-	public void displayPopup(final Popup popup, final AsyncResultHandler<Void> resultHandler) {
+	public void displayPopup(Popup popup, Trace trace, AsyncResultHandler<Void> resultHandler) {
+		ContentBody content = popup.getBody();
+		String packageId = content.getType() == Type.PACKAGE ? ((ContentBody.Package) content).getPackageId() : null;
+		sendPopup(popup.asJson(), content.asJson(), packageId, trace, resultHandler);
+	}
+	
+	@Override
+	public void displayPopup(JsonObject popup, Trace trace, AsyncResultHandler<Void> resultHandler) {
+		JsonObject content = popup.getObject("body");
+		sendPopup(popup, content, PassThroughHandler.getPackageId(content), trace, resultHandler);
+	}
+	
+	/**
+	 * Enriches a popup with the descriptor of its content package and sends it to the client.
+	 * @param popupJson JSON representation of the popup. Will be modified.
+	 * @param contentJson JSON representation of the popup content. Will be modified.
+	 * @param packageId Identifier of the content package or <code>null</code> if the content is no package.
+	 * @param trace Trace of the request. May be <code>null</code>.
+	 * @param resultHandler Handler for the delivery result. May be <code>null</code>.
+	 */
+	private void sendPopup(final JsonObject popupJson, final JsonObject contentJson, final String packageId, final Trace trace, final AsyncResultHandler<Void> resultHandler) {
 		final JsonObject message = new JsonObject();
 		message.putString("action", "displayPopup");
 		
-		final ContentBody content = popup.getBody();
-		if (content.getType() == Type.PACKAGE) {
-			final ContentBody.Package packageContent = (ContentBody.Package) content;
-			connectors.cdsConnector().retrieveContentManifest(packageContent.getPackageId(), new AsyncResultHandler<JsonObject>() {
+		if (packageId != null) {
+			final long fetchStart = System.currentTimeMillis();
+			connectors.cdsConnector().retrieveContentManifest(packageId, new AsyncResultHandler<JsonObject>() {
 				
 				@Override
 				public void handle(AsyncResult<JsonObject> descriptorRequest) {
-					JsonObject popupJson = popup.asJson();
-					JsonObject contentJson = content.asJson();
-					String basePath = handlers.serviceConfig("cds").getObject("http").getString("path") + "/" + packageContent.getPackageId() + "/";
+					if (trace != null) trace.addSpan("cds:" + view.getId(), fetchStart);
 					if (descriptorRequest.succeeded()) {
-						JsonObject descriptor = descriptorRequest.result();
-						for (String field : descriptor.getFieldNames()) {
-							switch (field) {
-							case "title":
-								String title = descriptor.getString("title");
-								popupJson.putString("title", popupJson.getString("title") + ": " + title);
-								break;
-							case "main":
-								String main = descriptor.getString("main");
-								URI uri;
-								try {
-									uri = new URI(main);
-								} catch (URISyntaxException e) {
-									throw new IllegalArgumentException("The [main] field contains no valid URI.", e);
+						JsonObject request = new JsonObject();
+						request.putString("type", ContentEnricher.POPUP);
+						request.putString("title", popupJson.getString("title"));
+						request.putObject("descriptor", descriptorRequest.result());
+						request.putString("basePath", getContentPath() + "/" + packageId + "/");
+						final long enrichmentStart = System.currentTimeMillis();
+						handlers.enrichmentHandler().enrich(request, new AsyncResultHandler<JsonObject>() {
+							
+							@Override
+							public void handle(AsyncResult<JsonObject> enrichmentRequest) {
+								if (trace != null) trace.addSpan("enrichment:" + view.getId(), enrichmentStart);
+								if (enrichmentRequest.succeeded()) {
+									JsonObject result = enrichmentRequest.result();
+									contentJson.mergeIn(result.getObject("body"));
+									popupJson.mergeIn(result.getObject("parent"));
+								} else {
+									logger.warn("Failed to import content package descriptor for package: " + packageId, enrichmentRequest.cause());
 								}
-								contentJson.putString("main", uri.isAbsolute() ? main : basePath + main);
-								break;
-							default:
-								contentJson.putValue(field, descriptor.getValue(field));
+								message.putObject("popup", popupJson);
+								sendMessageToClient(message, trace, resultHandler);
 							}
-						}
-						message.putObject("popup", popup.asJson());
-						sendMessageToClient(message, resultHandler);
+						});
 					} else {
-						logger.warn("Failed to retrieve content package: " + packageContent.getPackageId());
+						logger.warn("Failed to retrieve content package: " + packageId);
+						if (resultHandler != null) resultHandler.handle(new FailResult(descriptorRequest.cause()));
 					}
 				}
 			});
 		} else {
-			message.putObject("popup", popup.asJson());
-			sendMessageToClient(message, resultHandler);
+			message.putObject("popup", popupJson);
+			sendMessageToClient(message, trace, resultHandler);
 		}
 	}
 
@@ -1,6 +1,7 @@
 package de.appsist.service.iid.server.handler;
 
 import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.json.JsonObject;
 
 import de.appsist.service.auth.connector.model.View;
 import de.appsist.service.iid.server.model.Activity;
@@ -13,6 +14,7 @@ import de.appsist.service.iid.server.model.Popup;
 import de.appsist.service.iid.server.model.ServiceCatalog;
 import de.appsist.service.iid.server.model.SiteOverview;
 import de.appsist.service.iid.server.model.StationInfo;
+import de.appsist.service.iid.server.monitor.Trace;
 
 
 public interface ViewHandler {
@@ -71,6 +73,19 @@ public interface ViewHandler {
      */
 	public void dismissNotification(String notificationId, AsyncResultHandler<Void> resultHandler);
 	
+	/**
+	 * Checks if a notification is shown on the device.
+	 * @param notificationId Identifier of the notification.
+	 * @return <code>true</code> if the notification has been shown and not been dismissed, otherwise <code>false</code>.
+	 */
+	public boolean hasNotification(String notificationId);
+	
+	/**
+	 * Checks if any notification is shown on the device.
+	 * @return <code>true</code> if at least one notification is shown, otherwise <code>false</code>.
+	 */
+	public boolean hasNotifications();
+	
 	/**
 	 * Sends a notification to update a service catalog.
 	 * @param catalog Service catalog to update.
@@ -81,16 +96,34 @@ public interface ViewHandler {
 	/**
 	 * Display a assistance step.
 	 * @param assistance Assistance information.
+	 * @param trace Trace of the request. May be <code>null</code>.
 	 * @param resultHandler Handler to check of the operation succeeded. May be <code>null</code>.
 	 */
-	public void displayAssistance(AssistanceStep assistance, AsyncResultHandler<Void> resultHandler);
+	public void displayAssistance(AssistanceStep assistance, Trace trace, AsyncResultHandler<Void> resultHandler);
+	
+	/**
+	 * Display a assistance step validated by the {@link PassThroughHandler}.
+	 * @param assistance JSON representation of the assistance step. Will be modified.
+	 * @param trace Trace of the request. May be <code>null</code>.
+	 * @param resultHandler Handler to check of the operation succeeded. May be <code>null</code>.
+	 */
+	public void displayAssistance(JsonObject assistance, Trace trace, AsyncResultHandler<Void> resultHandler);
 	
 	/**
 	 * Display a learning object.
 	 * @param learningObject Learning object to display.
+	 * @param trace Trace of the request. May be <code>null</code>.
+	 * @param resultHandler Handler to check of the operation succeeded. May be <code>null</code>.
+	 */
+	public void displayLearningObject(LearningObject learningObject, Trace trace, AsyncResultHandler<Void> resultHandler);
+	
+	/**
+	 * Display a learning object validated by the {@link PassThroughHandler}.
+	 * @param learningObject JSON representation of the learning object. Will be modified.
+	 * @param trace Trace of the request. May be <code>null</code>.
 	 * @param resultHandler Handler to check of the operation succeeded. May be <code>null</code>.
 	 */
-	public void displayLearningObject(LearningObject learningObject, AsyncResultHandler<Void> resultHandler);
+	public void displayLearningObject(JsonObject learningObject, Trace trace, AsyncResultHandler<Void> resultHandler);
 
     /**
      * Display a site overview page.
@@ -102,6 +135,13 @@ public interface ViewHandler {
      */
 	public void displaySiteOverview(SiteOverview siteOverview, AsyncResultHandler<Void> resultHandler);
 	
+	/**
+	 * Display a site overview page validated by the {@link PassThroughHandler}.
+	 * @param siteOverview JSON representation of the site overview.
+	 * @param resultHandler Handler to check of the operation succeeded. May be <code>null</code>.
+	 */
+	public void displaySiteOverview(JsonObject siteOverview, AsyncResultHandler<Void> resultHandler);
+	
 	/**
 	 * Display a station info page.
 	 * @param stationInfo Station info page to display.
@@ -118,9 +158,18 @@ public interface ViewHandler {
 	/**
 	 * Display a popup window.
 	 * @param popup Popup window to display.
+	 * @param trace Trace of the request. May be <code>null</code>.
+	 * @param resultHandler Handler to check of the operation succeeded. May be <code>null</code>.
+	 */
+	public void displayPopup(Popup popup, Trace trace, AsyncResultHandler<Void> resultHandler);
+	
+	/**
+	 * Display a popup window validated by the {@link PassThroughHandler}.
+	 * @param popup JSON representation of the popup window. Will be modified.
+	 * @param trace Trace of the request. May be <code>null</code>.
 	 * @param resultHandler Handler to check of the operation succeeded. May be <code>null</code>.
 	 */
-	public void displayPopup(Popup popup, AsyncResultHandler<Void> resultHandler);
+	public void displayPopup(JsonObject popup, Trace trace, AsyncResultHandler<Void> resultHandler);
 		
 	/**
 	 * Returns the view of the device, containing information about the device class and id.
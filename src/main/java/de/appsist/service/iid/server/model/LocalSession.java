@@ -25,6 +25,41 @@ public class LocalSession {
 		this.user = user;
 	}
 	
+	/**
+	 * Restores a session from its JSON representation, as generated by {@link #asJson()}.
+	 * @param json JSON object representing the session.
+	 * @throws IllegalArgumentException The given JSON object is no valid session representation.
+	 */
+	public LocalSession(JsonObject json) throws IllegalArgumentException {
+		this.serviceCatalogs = new LinkedHashMap<String, ServiceCatalog>();
+		this.id = json.getString("id");
+		if (id == null) {
+			throw new IllegalArgumentException("Missing session identifier [id].");
+		}
+		JsonObject userObject = json.getObject("user");
+		if (userObject == null) {
+			throw new IllegalArgumentException("Missing user information [user].");
+		}
+		this.user = new User(userObject);
+		this.views = new ArrayList<View>();
+		JsonArray viewsArray = json.getArray("views");
+		if (viewsArray != null) for (Object entry : viewsArray) {
+			views.add(new View((JsonObject) entry));
+		}
+		JsonArray catalogsArray = json.getArray("catalogs");
+		if (catalogsArray != null) for (Object entry : catalogsArray) {
+			JsonObject catalogObject = (JsonObject) entry;
+			ServiceCatalog catalog = new ServiceCatalog(catalogObject.getString("id"));
+			List<ServiceItem> items = new ArrayList<ServiceItem>();
+			JsonArray itemsArray = catalogObject.getArray("items");
+			if (itemsArray != null) for (Object item : itemsArray) {
+				items.add(new ServiceItem((JsonObject) item));
+			}
+			catalog.addItems(items);
+			addServiceCatalog(catalog);
+		}
+	}
+	
 	public void addServiceCatalog(ServiceCatalog serviceCatalog) {
 		this.serviceCatalogs.put(serviceCatalog.getId(), serviceCatalog);
 	}
@@ -45,6 +80,10 @@ public class LocalSession {
 		return id;
 	}
 	
+	public List<View> getViews() {
+		return views;
+	}
+	
 	public JsonObject asJson() {
 		JsonObject json = new JsonObject();
 		json.putString("id", id);
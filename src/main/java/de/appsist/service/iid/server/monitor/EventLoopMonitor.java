@@ -0,0 +1,158 @@
+package de.appsist.service.iid.server.monitor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.Vertx;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.java.core.logging.Logger;
+import org.vertx.java.core.logging.impl.LoggerFactory;
+
+/**
+ * Monitor for the event loop of the verticle.
+ * The lag is measured as drift of a periodic timer. If the lag exceeds a threshold, low priority tasks are deferred until the event loop recovers.
+ */
+public class EventLoopMonitor {
+	private static final Logger logger = LoggerFactory.getLogger(EventLoopMonitor.class);
+
+	// Default values if not configured.
+	private static final long PROBE_INTERVAL = 100l;
+	private static final long LAG_THRESHOLD = 200l;
+	private static final long LONG_HANDLER_THRESHOLD = 50l;
+	private static final long MAX_DEFERRAL = 5000l;
+
+	private final Vertx vertx;
+	private final Metrics metrics;
+	private final long probeInterval;
+	private final long lagThreshold;
+	private final long longHandlerThreshold;
+	private final long maxDeferral;
+	private final Deque<DeferredTask> deferredTasks;
+	private Long timerId;
+	private long expectedProbe;
+	private long lag;
+
+	private static class DeferredTask {
+		private final String name;
+		private final Handler<Void> task;
+		private final long created;
+
+		public DeferredTask(String name, Handler<Void> task) {
+			this.name = name;
+			this.task = task;
+			this.created = System.currentTimeMillis();
+		}
+	}
+
+	/**
+	 * Creates the monitor.
+	 * @param vertx Vert.x instance of the monitored verticle.
+	 * @param metrics Metrics to record lags and deferrals.
+	 * @param config Monitor configuration. May be empty.
+	 */
+	public EventLoopMonitor(Vertx vertx, Metrics metrics, JsonObject config) {
+		this.vertx = vertx;
+		this.metrics = metrics;
+		this.probeInterval = config.getLong("probeInterval", PROBE_INTERVAL);
+		this.lagThreshold = config.getLong("lagThreshold", LAG_THRESHOLD);
+		this.longHandlerThreshold = config.getLong("longHandlerThreshold", LONG_HANDLER_THRESHOLD);
+		this.maxDeferral = config.getLong("maxDeferral", MAX_DEFERRAL);
+		this.deferredTasks = new ArrayDeque<>();
+		this.timerId = null;
+		this.lag = 0l;
+	}
+
+	/**
+	 * Starts the lag probe.
+	 */
+	public void start() {
+		if (timerId != null) return;
+		expectedProbe = System.currentTimeMillis() + probeInterval;
+		timerId = vertx.setPeriodic(probeInterval, new Handler<Long>() {
+
+			@Override
+			public void handle(Long event) {
+				long now = System.currentTimeMillis();
+				lag = Math.max(0l, now - expectedProbe);
+				expectedProbe = now + probeInterval;
+				metrics.record("eventloop.lag", lag);
+				if (lag >= lagThreshold) {
+					metrics.increment("eventloop.overloaded");
+					logger.debug("Event loop lag of " + lag + " ms, " + deferredTasks.size() + " tasks deferred.");
+				}
+				runDeferredTasks(lag < lagThreshold);
+			}
+		});
+	}
+
+	/**
+	 * Stops the lag probe and runs all deferred tasks.
+	 */
+	public void stop() {
+		if (timerId != null) {
+			vertx.cancelTimer(timerId);
+			timerId = null;
+		}
+		runDeferredTasks(true);
+	}
+
+	/**
+	 * Returns the latest measured lag of the event loop.
+	 * @return Lag in milliseconds.
+	 */
+	public long getLag() {
+		return lag;
+	}
+
+	/**
+	 * Checks if the event loop lag exceeds the configured threshold.
+	 * @return <code>true</code> if the event loop is overloaded, otherwise <code>false</code>.
+	 */
+	public boolean isOverloaded() {
+		return lag >= lagThreshold;
+	}
+
+	/**
+	 * Runs a low priority task. If the event loop is overloaded, the task is deferred until the lag drops below the threshold or the maximum deferral time is reached.
+	 * @param name Name of the task for metrics and logging.
+	 * @param task Task to run.
+	 */
+	public void runLowPriority(String name, Handler<Void> task) {
+		if (!isOverloaded() && deferredTasks.isEmpty()) {
+			task.handle(null);
+		} else {
+			metrics.increment("loadshedding.deferred." + name);
+			deferredTasks.add(new DeferredTask(name, task));
+		}
+	}
+
+	/**
+	 * Records the execution time of a handler and logs handlers blocking the event loop for too long.
+	 * @param action Action performed by the handler.
+	 * @param startTime Time the handler has been started, in milliseconds.
+	 */
+	public void handlerCompleted(String action, long startTime) {
+		long duration = System.currentTimeMillis() - startTime;
+		metrics.record("handler.duration", duration);
+		if (duration >= longHandlerThreshold) {
+			metrics.increment("handler.long." + action);
+			logger.warn("Handler for action [" + action + "] blocked the event loop for " + duration + " ms.");
+		}
+	}
+
+	private void runDeferredTasks(boolean runAll) {
+		long now = System.currentTimeMillis();
+		while (!deferredTasks.isEmpty()) {
+			DeferredTask deferredTask = deferredTasks.peek();
+			if (!runAll && now - deferredTask.created < maxDeferral) break;
+			deferredTasks.poll();
+			metrics.record("loadshedding.delay", now - deferredTask.created);
+			try {
+				deferredTask.task.handle(null);
+			} catch (RuntimeException e) {
+				logger.warn("Deferred task [" + deferredTask.name + "] failed.", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package de.appsist.service.iid.server.monitor;
+
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Registry for counters and measurements of the service.
+ * Metrics may be updated from worker threads, so all operations are thread safe.
+ */
+public class Metrics {
+	private final ConcurrentMap<String, AtomicLong> counters;
+	private final ConcurrentMap<String, Measurement> measurements;
+	
+	/**
+	 * Aggregation of recorded values.
+	 */
+	private static class Measurement {
+		private long count = 0;
+		private long sum = 0;
+		private long max = 0;
+		
+		public synchronized void record(long value) {
+			count++;
+			sum += value;
+			if (value > max) max = value;
+		}
+		
+		public synchronized JsonObject asJson() {
+			JsonObject json = new JsonObject();
+			json.putNumber("count", count);
+			json.putNumber("sum", sum);
+			json.putNumber("max", max);
+			json.putNumber("avg", count > 0 ? (double) sum / count : 0d);
+			return json;
+		}
+	}
+	
+	public Metrics() {
+		counters = new ConcurrentHashMap<>();
+		measurements = new ConcurrentHashMap<>();
+	}
+	
+	/**
+	 * Increments a counter by one.
+	 * @param name Name of the counter.
+	 */
+	public void increment(String name) {
+		add(name, 1l);
+	}
+	
+	/**
+	 * Adds a value to a counter.
+	 * @param name Name of the counter.
+	 * @param value Value to add.
+	 */
+	public void add(String name, long value) {
+		AtomicLong counter = counters.get(name);
+		if (counter == null) {
+			AtomicLong newCounter = new AtomicLong();
+			counter = counters.putIfAbsent(name, newCounter);
+			if (counter == null) counter = newCounter;
+		}
+		counter.addAndGet(value);
+	}
+	
+	/**
+	 * Returns the current value of a counter.
+	 * @param name Name of the counter.
+	 * @return Value of the counter or <code>0</code> if the counter does not exist.
+	 */
+	public long get(String name) {
+		AtomicLong counter = counters.get(name);
+		return counter != null ? counter.get() : 0l;
+	}
+	
+	/**
+	 * Records a value for a measurement, e.g., a duration or a size.
+	 * @param name Name of the measurement.
+	 * @param value Value to record.
+	 */
+	public void record(String name, long value) {
+		Measurement measurement = measurements.get(name);
+		if (measurement == null) {
+			Measurement newMeasurement = new Measurement();
+			measurement = measurements.putIfAbsent(name, newMeasurement);
+			if (measurement == null) measurement = newMeasurement;
+		}
+		measurement.record(value);
+	}
+	
+	/**
+	 * Returns a JSON representation of all metrics.
+	 * @return JSON object containing counters and measurements.
+	 */
+	public JsonObject asJson() {
+		JsonObject countersJson = new JsonObject();
+		for (Entry<String, AtomicLong> entry : counters.entrySet()) {
+			countersJson.putNumber(entry.getKey(), entry.getValue().get());
+		}
+		JsonObject measurementsJson = new JsonObject();
+		for (Entry<String, Measurement> entry : measurements.entrySet()) {
+			measurementsJson.putObject(entry.getKey(), entry.getValue().asJson());
+		}
+		JsonObject json = new JsonObject();
+		json.putObject("counters", countersJson);
+		json.putObject("measurements", measurementsJson);
+		return json;
+	}
+}
@@ -0,0 +1,110 @@
+package de.appsist.service.iid.server.monitor;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Trace of a single request, identified by its correlation id.
+ * Spans are only recorded if the trace is sampled, the correlation id is propagated in any case.
+ */
+public class Trace {
+	private final String id;
+	private final String name;
+	private final boolean isSampled;
+	private final long startTime;
+	private final JsonArray spans;
+	private long duration;
+	private String status;
+	
+	/**
+	 * Creates a trace.
+	 * @param id Correlation id of the request.
+	 * @param name Name of the traced operation, e.g. the action of the request.
+	 * @param isSampled Whether spans should be recorded.
+	 */
+	public Trace(String id, String name, boolean isSampled) {
+		this.id = id;
+		this.name = name;
+		this.isSampled = isSampled;
+		this.startTime = System.currentTimeMillis();
+		this.spans = new JsonArray();
+		this.duration = -1l;
+		this.status = null;
+	}
+	
+	/**
+	 * Returns the correlation id of the traced request.
+	 * @return Correlation id.
+	 */
+	public String getId() {
+		return id;
+	}
+	
+	/**
+	 * Returns the time the trace has been started.
+	 * @return Start time in milliseconds.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+	
+	/**
+	 * Checks if spans of this trace are recorded.
+	 * @return <code>true</code> if the trace is sampled, otherwise <code>false</code>.
+	 */
+	public boolean isSampled() {
+		return isSampled;
+	}
+	
+	/**
+	 * Checks if the trace is finished.
+	 * @return <code>true</code> if the traced request has been completed, otherwise <code>false</code>. 
+	 */
+	public synchronized boolean isFinished() {
+		return duration >= 0;
+	}
+	
+	/**
+	 * Records a span ending now.
+	 * @param spanName Name of the span, e.g. the processing stage.
+	 * @param spanStartTime Time the span has been started, in milliseconds.
+	 */
+	public synchronized void addSpan(String spanName, long spanStartTime) {
+		if (!isSampled) return;
+		JsonObject span = new JsonObject();
+		span.putString("name", spanName);
+		span.putNumber("offset", spanStartTime - startTime);
+		span.putNumber("duration", System.currentTimeMillis() - spanStartTime);
+		spans.addObject(span);
+	}
+	
+	/**
+	 * Marks the trace as finished.
+	 * @param finalStatus Status of the reply, e.g. "ok" or "error".
+	 */
+	synchronized void finish(String finalStatus) {
+		if (isFinished()) return;
+		duration = System.currentTimeMillis() - startTime;
+		status = finalStatus;
+	}
+	
+	/**
+	 * Returns a JSON representation of the trace.
+	 * @param includeSpans Whether to include the recorded spans.
+	 * @return JSON object representing the trace.
+	 */
+	public synchronized JsonObject asJson(boolean includeSpans) {
+		JsonObject json = new JsonObject();
+		json.putString("correlationId", id);
+		json.putString("name", name);
+		json.putNumber("start", startTime);
+		if (isFinished()) {
+			json.putNumber("duration", duration);
+			json.putString("status", status);
+		}
+		if (includeSpans) {
+			json.putArray("spans", spans.copy());
+		}
+		return json;
+	}
+}
@@ -0,0 +1,96 @@
+package de.appsist.service.iid.server.monitor;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+
+/**
+ * Tracer creating request traces and keeping the latest sampled traces in a rolling buffer.
+ */
+public class Tracer {
+	// Default values if not configured.
+	private static final double SAMPLE_RATE = 0.1d;
+	private static final int BUFFER_SIZE = 500;
+	
+	private final double sampleRate;
+	private final int bufferSize;
+	private final Deque<Trace> traces;
+	
+	/**
+	 * Creates the tracer.
+	 * @param config Tracing configuration. May be empty.
+	 */
+	public Tracer(JsonObject config) {
+		Number configuredRate = config.getNumber("sampleRate");
+		this.sampleRate = configuredRate != null ? configuredRate.doubleValue() : SAMPLE_RATE;
+		this.bufferSize = config.getInteger("bufferSize", BUFFER_SIZE);
+		this.traces = new ArrayDeque<>();
+	}
+	
+	/**
+	 * Starts a trace for a request.
+	 * @param correlationId Correlation id provided by the requester. If <code>null</code>, a new id is generated.
+	 * @param name Name of the traced operation.
+	 * @param forceSampling If <code>true</code>, the trace is recorded regardless of the sample rate.
+	 * @return Trace for the request.
+	 */
+	public Trace startTrace(String correlationId, String name, boolean forceSampling) {
+		String id = correlationId != null ? correlationId : UUID.randomUUID().toString();
+		boolean isSampled = forceSampling || (sampleRate > 0d && ThreadLocalRandom.current().nextDouble() < sampleRate);
+		return new Trace(id, name, isSampled);
+	}
+	
+	/**
+	 * Finishes a trace and adds it to the buffer if sampled.
+	 * @param trace Trace to finish.
+	 * @param status Status of the reply.
+	 */
+	public void finishTrace(Trace trace, String status) {
+		if (trace.isFinished()) return;
+		trace.finish(status);
+		if (!trace.isSampled()) return;
+		synchronized (traces) {
+			traces.addFirst(trace);
+			while (traces.size() > bufferSize) {
+				traces.removeLast();
+			}
+		}
+	}
+	
+	/**
+	 * Returns summaries of the latest traces, without spans.
+	 * @param limit Maximum number of traces to return.
+	 * @return Array of trace summaries, latest first.
+	 */
+	public JsonArray getTraces(int limit) {
+		JsonArray result = new JsonArray();
+		synchronized (traces) {
+			Iterator<Trace> iterator = traces.iterator();
+			while (iterator.hasNext() && result.size() < limit) {
+				result.addObject(iterator.next().asJson(false));
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns a buffered trace including its spans.
+	 * @param correlationId Correlation id of the trace.
+	 * @return Trace or <code>null</code> if no trace with this id is buffered.
+	 */
+	public JsonObject getTrace(String correlationId) {
+		synchronized (traces) {
+			for (Trace trace : traces) {
+				if (trace.getId().equals(correlationId)) {
+					return trace.asJson(true);
+				}
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,351 @@
+package de.appsist.service.iid.server.integration;
+
+import static org.vertx.testtools.VertxAssert.assertEquals;
+import static org.vertx.testtools.VertxAssert.assertTrue;
+import static org.vertx.testtools.VertxAssert.fail;
+import static org.vertx.testtools.VertxAssert.testComplete;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.http.HttpServer;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonArray;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.testtools.TestVerticle;
+
+import de.appsist.service.iid.server.connector.CDSConnector;
+import de.appsist.service.iid.server.monitor.Metrics;
+
+/**
+ * Tests the balancing of the CDS connector over multiple endpoints, each represented by a local stand-in for the content delivery service.
+ */
+public class CDSEndpointTest extends TestVerticle {
+	private static final int ENDPOINTS = 3;
+	private static final int MAX_BIND_ATTEMPTS = 5;
+	private static final long POLL_INTERVAL = 20l;
+	private static final long POLL_TIMEOUT = 10000l;
+
+	private List<Endpoint> endpoints;
+	private CDSConnector connector;
+	private Metrics metrics;
+	private int nextContentId;
+
+	/**
+	 * Behavior of a stand-in for requests of manifests.
+	 */
+	private enum Mode {
+		RESPOND, // Responds with a manifest.
+		HOLD, // Never responds.
+		FAIL // Responds with a server error.
+	}
+
+	/**
+	 * Stand-in for an endpoint of the content delivery service.
+	 */
+	private class Endpoint {
+		private int port;
+		private final HttpServer server;
+		private final List<Mode> modes;
+		private int requestCount;
+		private boolean isHealthy;
+
+		public Endpoint() {
+			this.modes = new ArrayList<>();
+			this.requestCount = 0;
+			this.isHealthy = true;
+			this.server = vertx.createHttpServer();
+			server.requestHandler(new Handler<HttpServerRequest>() {
+
+				@Override
+				public void handle(HttpServerRequest request) {
+					if (request.path().equals("/cds/")) {
+						request.response().setStatusCode(isHealthy ? 200 : 503).end();
+						return;
+					}
+					requestCount++;
+					// The last mode applies to all further requests.
+					Mode mode = modes.isEmpty() ? Mode.RESPOND : (modes.size() > 1 ? modes.remove(0) : modes.get(0));
+					switch (mode) {
+					case RESPOND:
+						request.response().putHeader("Content-Type", "application/json");
+						request.response().end(new JsonObject().putString("path", request.path()).encode());
+						break;
+					case FAIL:
+						request.response().setStatusCode(500).end("Internal server error.");
+						break;
+					case HOLD:
+						break;
+					}
+				}
+			});
+		}
+
+		public String getMetricPrefix() {
+			return "cds.endpoint.localhost:" + port;
+		}
+	}
+
+	/**
+	 * Condition to wait for.
+	 */
+	private interface Condition {
+		public boolean isMet();
+	}
+
+	@Override
+	public void start() {
+		initialize();
+		metrics = new Metrics();
+		nextContentId = 0;
+		endpoints = new ArrayList<>();
+		final int[] listening = {0};
+		for (int i = 0; i < ENDPOINTS; i++) {
+			Endpoint endpoint = new Endpoint();
+			endpoints.add(endpoint);
+			listen(endpoint, 1, new Handler<Void>() {
+
+				@Override
+				public void handle(Void event) {
+					if (++listening[0] == ENDPOINTS) startTests();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Starts a stand-in on a free port.
+	 * Vert.x does not expose the port bound for port 0, so a free port is looked up. If it is taken before the bind, another port is tried.
+	 */
+	private void listen(final Endpoint endpoint, final int attempt, final Handler<Void> next) {
+		endpoint.port = findFreePort();
+		endpoint.server.listen(endpoint.port, "localhost", new Handler<AsyncResult<HttpServer>>() {
+
+			@Override
+			public void handle(AsyncResult<HttpServer> listenRequest) {
+				if (listenRequest.succeeded()) {
+					next.handle(null);
+				} else if (attempt < MAX_BIND_ATTEMPTS) {
+					listen(endpoint, attempt + 1, next);
+				} else {
+					fail("Failed to start stand-in: " + listenRequest.cause());
+				}
+			}
+		});
+	}
+
+	@Override
+	public void stop() {
+		if (connector != null) connector.close();
+		for (Endpoint endpoint : endpoints) {
+			endpoint.server.close();
+		}
+	}
+
+	private static int findFreePort() {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		} catch (IOException e) {
+			throw new IllegalStateException("No free port available.", e);
+		}
+	}
+
+	/**
+	 * Creates the connector for the first endpoints.
+	 * @param endpointCount Number of endpoints to use.
+	 * @param httpConfig Connector configuration without endpoints.
+	 */
+	private void createConnector(int endpointCount, JsonObject httpConfig) {
+		JsonArray endpointsArray = new JsonArray();
+		for (int i = 0; i < endpointCount; i++) {
+			endpointsArray.addObject(new JsonObject().putString("host", "localhost").putNumber("port", endpoints.get(i).port));
+		}
+		httpConfig.putString("path", "/cds");
+		httpConfig.putArray("endpoints", endpointsArray);
+		connector = new CDSConnector(vertx, httpConfig, metrics);
+	}
+
+	/**
+	 * Sends requests for uncached manifests one after another and continues when all are completed, regardless of their result.
+	 */
+	private void sendSequentially(final int count, final Handler<Void> next) {
+		if (count == 0) {
+			next.handle(null);
+			return;
+		}
+		connector.retrieveContentManifest("pkg" + (nextContentId++), new AsyncResultHandler<JsonObject>() {
+
+			@Override
+			public void handle(AsyncResult<JsonObject> manifestRequest) {
+				sendSequentially(count - 1, next);
+			}
+		});
+	}
+
+	/**
+	 * Polls the condition until it is met and continues with the next step. Fails if the condition is not met in time.
+	 */
+	private void waitFor(final Condition condition, final Handler<Void> next) {
+		final long deadline = System.currentTimeMillis() + POLL_TIMEOUT;
+		vertx.setPeriodic(POLL_INTERVAL, new Handler<Long>() {
+
+			@Override
+			public void handle(Long timerId) {
+				if (condition.isMet()) {
+					vertx.cancelTimer(timerId);
+					next.handle(null);
+				} else if (System.currentTimeMillis() > deadline) {
+					vertx.cancelTimer(timerId);
+					fail("Condition not met in time.");
+				}
+			}
+		});
+	}
+
+	@Test
+	public void testLeastOutstandingSelection() {
+		createConnector(3, new JsonObject().putObject("healthCheck", new JsonObject().putNumber("interval", 0)));
+		final Endpoint first = endpoints.get(0);
+		final Endpoint second = endpoints.get(1);
+		final Endpoint third = endpoints.get(2);
+		first.modes.add(Mode.HOLD);
+		second.modes.add(Mode.HOLD);
+		// The first two requests are held, so that further requests are sent to the third endpoint.
+		connector.retrieveContentManifest("held0", new AsyncResultHandler<JsonObject>() {
+
+			@Override
+			public void handle(AsyncResult<JsonObject> event) {}
+		});
+		connector.retrieveContentManifest("held1", new AsyncResultHandler<JsonObject>() {
+
+			@Override
+			public void handle(AsyncResult<JsonObject> event) {}
+		});
+		sendSequentially(4, new Handler<Void>() {
+
+			@Override
+			public void handle(Void event) {
+				assertEquals(1, first.requestCount);
+				assertEquals(1, second.requestCount);
+				assertEquals(4, third.requestCount);
+				testComplete();
+			}
+		});
+	}
+
+	@Test
+	public void testEjectionAfterFailures() {
+		createConnector(2, new JsonObject()
+			.putNumber("maxFailures", 2)
+			.putNumber("ejectionTime", 10000)
+			.putNumber("requestTimeout", 500)
+			.putObject("healthCheck", new JsonObject().putNumber("interval", 0)));
+		final Endpoint failing = endpoints.get(0);
+		final Endpoint healthy = endpoints.get(1);
+		// A server error followed by timeouts.
+		failing.modes.add(Mode.FAIL);
+		failing.modes.add(Mode.HOLD);
+		sendSequentially(8, new Handler<Void>() {
+
+			@Override
+			public void handle(Void event) {
+				// Requests alternate until the failing endpoint is ejected after its second failure.
+				assertEquals(2, failing.requestCount);
+				assertEquals(6, healthy.requestCount);
+				assertEquals(2, metrics.get(failing.getMetricPrefix() + ".failed"));
+				assertEquals(1, metrics.get(failing.getMetricPrefix() + ".ejected"));
+				assertEquals(0, metrics.get(healthy.getMetricPrefix() + ".failed"));
+				testComplete();
+			}
+		});
+	}
+
+	@Test
+	public void testHealthCheckRecovery() {
+		createConnector(2, new JsonObject().putObject("healthCheck", new JsonObject().putNumber("interval", 100).putNumber("timeout", 500)));
+		final Endpoint recovering = endpoints.get(0);
+		final Endpoint healthy = endpoints.get(1);
+		recovering.isHealthy = false;
+		waitFor(new Condition() {
+
+			@Override
+			public boolean isMet() {
+				return metrics.get(recovering.getMetricPrefix() + ".unhealthy") == 1;
+			}
+		}, new Handler<Void>() {
+
+			@Override
+			public void handle(Void event) {
+				sendSequentially(4, new Handler<Void>() {
+
+					@Override
+					public void handle(Void event) {
+						assertEquals(0, recovering.requestCount);
+						assertEquals(4, healthy.requestCount);
+						recovering.isHealthy = true;
+						waitFor(new Condition() {
+
+							@Override
+							public boolean isMet() {
+								return metrics.get(recovering.getMetricPrefix() + ".recovered") == 1;
+							}
+						}, new Handler<Void>() {
+
+							@Override
+							public void handle(Void event) {
+								sendSequentially(4, new Handler<Void>() {
+
+									@Override
+									public void handle(Void event) {
+										assertEquals(2, recovering.requestCount);
+										assertEquals(6, healthy.requestCount);
+										testComplete();
+									}
+								});
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	@Test
+	public void testFallbackWithoutAvailableEndpoint() {
+		createConnector(2, new JsonObject().putObject("healthCheck", new JsonObject().putNumber("interval", 100).putNumber("timeout", 500)));
+		final Endpoint first = endpoints.get(0);
+		final Endpoint second = endpoints.get(1);
+		first.isHealthy = false;
+		second.isHealthy = false;
+		waitFor(new Condition() {
+
+			@Override
+			public boolean isMet() {
+				return metrics.get(first.getMetricPrefix() + ".unhealthy") == 1 && metrics.get(second.getMetricPrefix() + ".unhealthy") == 1;
+			}
+		}, new Handler<Void>() {
+
+			@Override
+			public void handle(Void event) {
+				// Requests are still sent if no endpoint is available.
+				connector.retrieveContentManifest("fallback", new AsyncResultHandler<JsonObject>() {
+
+					@Override
+					public void handle(AsyncResult<JsonObject> manifestRequest) {
+						assertTrue(manifestRequest.succeeded());
+						assertEquals("/cds/fallback/content.json", manifestRequest.result().getString("path"));
+						assertEquals(1, first.requestCount + second.requestCount);
+						assertEquals(1, metrics.get("cds.endpoint.noneAvailable"));
+						testComplete();
+					}
+				});
+			}
+		});
+	}
+}
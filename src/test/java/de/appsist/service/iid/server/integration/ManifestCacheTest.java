@@ -0,0 +1,350 @@
+package de.appsist.service.iid.server.integration;
+
+import static org.vertx.testtools.VertxAssert.assertEquals;
+import static org.vertx.testtools.VertxAssert.assertNotSame;
+import static org.vertx.testtools.VertxAssert.assertTrue;
+import static org.vertx.testtools.VertxAssert.fail;
+import static org.vertx.testtools.VertxAssert.testComplete;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.vertx.java.core.AsyncResult;
+import org.vertx.java.core.AsyncResultHandler;
+import org.vertx.java.core.Handler;
+import org.vertx.java.core.http.HttpServer;
+import org.vertx.java.core.http.HttpServerRequest;
+import org.vertx.java.core.json.JsonObject;
+import org.vertx.testtools.TestVerticle;
+
+import de.appsist.service.iid.server.connector.CDSConnector;
+import de.appsist.service.iid.server.connector.HttpException;
+import de.appsist.service.iid.server.monitor.Metrics;
+
+/**
+ * Tests the manifest cache of the CDS connector against a stand-in for the content delivery service.
+ * The stand-in serves manifests with validators and answers conditional requests with 304 (Not Modified).
+ */
+public class ManifestCacheTest extends TestVerticle {
+	private static final String ETAG = "\"v1\"";
+	private static final String LAST_MODIFIED = "Mon, 05 Oct 2026 10:00:00 GMT";
+	private static final long MANIFEST_TTL = 500l;
+	private static final int MAX_BIND_ATTEMPTS = 5;
+	private static final long POLL_INTERVAL = 20l;
+	private static final long POLL_TIMEOUT = 10000l;
+
+	private HttpServer server;
+	private CDSConnector connector;
+	private Metrics metrics;
+	// Requests received by the stand-in, per content package.
+	private Map<String, Integer> requestCounts;
+	// Conditional requests received by the stand-in, per content package.
+	private Map<String, Integer> conditionalRequestCounts;
+	// Content packages answered with 404 (Not Found).
+	private Map<String, Boolean> removedPackages;
+	private long responseDelay;
+
+	/**
+	 * Condition to wait for.
+	 */
+	private interface Condition {
+		public boolean isMet();
+	}
+
+	@Override
+	public void start() {
+		initialize();
+		requestCounts = new HashMap<>();
+		conditionalRequestCounts = new HashMap<>();
+		removedPackages = new HashMap<>();
+		responseDelay = 0;
+		server = vertx.createHttpServer();
+		server.requestHandler(new Handler<HttpServerRequest>() {
+
+			@Override
+			public void handle(final HttpServerRequest request) {
+				final String contentId = request.path().split("/")[2];
+				increment(requestCounts, contentId);
+				if (request.headers().contains("If-None-Match") || request.headers().contains("If-Modified-Since")) {
+					increment(conditionalRequestCounts, contentId);
+				}
+				if (responseDelay > 0) {
+					vertx.setTimer(responseDelay, new Handler<Long>() {
+
+						@Override
+						public void handle(Long timerId) {
+							respond(request, contentId);
+						}
+					});
+				} else {
+					respond(request, contentId);
+				}
+			}
+		});
+		listen(1);
+	}
+
+	/**
+	 * Starts the stand-in on a free port and the tests afterwards.
+	 * Vert.x does not expose the port bound for port 0, so a free port is looked up. If it is taken before the bind, another port is tried.
+	 */
+	private void listen(final int attempt) {
+		final int port = findFreePort();
+		server.listen(port, "localhost", new Handler<AsyncResult<HttpServer>>() {
+
+			@Override
+			public void handle(AsyncResult<HttpServer> listenRequest) {
+				if (listenRequest.failed()) {
+					if (attempt < MAX_BIND_ATTEMPTS) {
+						listen(attempt + 1);
+					} else {
+						fail("Failed to start stand-in: " + listenRequest.cause());
+					}
+					return;
+				}
+				metrics = new Metrics();
+				JsonObject httpConfig = new JsonObject()
+					.putString("host", "localhost")
+					.putNumber("port", port)
+					.putString("path", "/cds")
+					.putNumber("manifestTtl", MANIFEST_TTL);
+				connector = new CDSConnector(vertx, httpConfig, metrics);
+				startTests();
+			}
+		});
+	}
+
+	@Override
+	public void stop() {
+		if (connector != null) connector.close();
+		server.close();
+	}
+
+	private void respond(HttpServerRequest request, String contentId) {
+		if (removedPackages.containsKey(contentId)) {
+			request.response().setStatusCode(404).end("Content package not found.");
+			return;
+		}
+		if (ETAG.equals(request.headers().get("If-None-Match"))) {
+			request.response().setStatusCode(304).end();
+			return;
+		}
+		request.response().putHeader("ETag", ETAG);
+		request.response().putHeader("Last-Modified", LAST_MODIFIED);
+		request.response().putHeader("Content-Type", "application/json");
+		request.response().end(new JsonObject().putString("id", contentId).putString("icon", "icon.png").encode());
+	}
+
+	private static int findFreePort() {
+		try (ServerSocket socket = new ServerSocket(0)) {
+			return socket.getLocalPort();
+		} catch (IOException e) {
+			throw new IllegalStateException("No free port available.", e);
+		}
+	}
+
+	private static void increment(Map<String, Integer> counts, String contentId) {
+		Integer count = counts.get(contentId);
+		counts.put(contentId, count != null ? count + 1 : 1);
+	}
+
+	private static int get(Map<String, Integer> counts, String contentId) {
+		Integer count = counts.get(contentId);
+		return count != null ? count : 0;
+	}
+
+	/**
+	 * Polls the condition until it is met and continues with the next step. Fails if the condition is not met in time.
+	 */
+	private void waitFor(final Condition condition, final Handler<Void> next) {
+		final long deadline = System.currentTimeMillis() + POLL_TIMEOUT;
+		vertx.setPeriodic(POLL_INTERVAL, new Handler<Long>() {
+
+			@Override
+			public void handle(Long timerId) {
+				if (condition.isMet()) {
+					vertx.cancelTimer(timerId);
+					next.handle(null);
+				} else if (System.currentTimeMillis() > deadline) {
+					vertx.cancelTimer(timerId);
+					fail("Condition not met in time.");
+				}
+			}
+		});
+	}
+
+	/**
+	 * Continues after the manifest TTL has passed, with a margin for slow timers.
+	 */
+	private void waitForExpiry(final Handler<Void> next) {
+		vertx.setTimer(2 * MANIFEST_TTL, new Handler<Long>() {
+
+			@Override
+			public void handle(Long timerId) {
+				next.handle(null);
+			}
+		});
+	}
+
+	/**
+	 * Retrieves a manifest, fails if the request fails.
+	 */
+	private void retrieve(String contentId, final Handler<JsonObject> manifestHandler) {
+		connector.retrieveContentManifest(contentId, new AsyncResultHandler<JsonObject>() {
+
+			@Override
+			public void handle(AsyncResult<JsonObject> manifestRequest) {
+				if (manifestRequest.failed()) {
+					fail("Failed to retrieve manifest: " + manifestRequest.cause());
+					return;
+				}
+				manifestHandler.handle(manifestRequest.result());
+			}
+		});
+	}
+
+	/**
+	 * Retrieves a manifest until the request fails, i.e., the stale manifest has been evicted.
+	 */
+	private void retrieveUntilFailed(final String contentId, final long deadline, final AsyncResultHandler<JsonObject> failureHandler) {
+		connector.retrieveContentManifest(contentId, new AsyncResultHandler<JsonObject>() {
+
+			@Override
+			public void handle(AsyncResult<JsonObject> manifestRequest) {
+				if (manifestRequest.failed()) {
+					failureHandler.handle(manifestRequest);
+				} else if (System.currentTimeMillis() > deadline) {
+					fail("Manifest has not been evicted in time.");
+				} else {
+					vertx.setTimer(POLL_INTERVAL, new Handler<Long>() {
+
+						@Override
+						public void handle(Long timerId) {
+							retrieveUntilFailed(contentId, deadline, failureHandler);
+						}
+					});
+				}
+			}
+		});
+	}
+
+	@Test
+	public void testStaleWhileRevalidate() {
+		retrieve("pkg", new Handler<JsonObject>() {
+
+			@Override
+			public void handle(JsonObject manifest) {
+				assertEquals(1, get(requestCounts, "pkg"));
+				// Modifications of a returned manifest do not affect the cache.
+				manifest.putString("icon", "/modified/icon.png");
+				waitForExpiry(new Handler<Void>() {
+
+					@Override
+					public void handle(Void event) {
+						retrieve("pkg", new Handler<JsonObject>() {
+
+							@Override
+							public void handle(JsonObject staleManifest) {
+								// The stale manifest is returned before the revalidation has been answered.
+								assertEquals(1, metrics.get("cds.manifest.stale"));
+								assertEquals(0, metrics.get("cds.manifest.notModified"));
+								assertEquals("icon.png", staleManifest.getString("icon"));
+								waitFor(new Condition() {
+
+									@Override
+									public boolean isMet() {
+										return metrics.get("cds.manifest.notModified") == 1;
+									}
+								}, new Handler<Void>() {
+
+									@Override
+									public void handle(Void event) {
+										assertEquals(2, get(requestCounts, "pkg"));
+										assertEquals(1, get(conditionalRequestCounts, "pkg"));
+										retrieve("pkg", new Handler<JsonObject>() {
+
+											@Override
+											public void handle(JsonObject revalidatedManifest) {
+												// Answered from the cache, the revalidation has refreshed the manifest.
+												assertEquals(2, get(requestCounts, "pkg"));
+												assertEquals("icon.png", revalidatedManifest.getString("icon"));
+												testComplete();
+											}
+										});
+									}
+								});
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	@Test
+	public void testEvictionOnNotFound() {
+		retrieve("gone", new Handler<JsonObject>() {
+
+			@Override
+			public void handle(JsonObject manifest) {
+				removedPackages.put("gone", true);
+				waitForExpiry(new Handler<Void>() {
+
+					@Override
+					public void handle(Void event) {
+						// The stale manifest is still served, the revalidation evicts it.
+						retrieve("gone", new Handler<JsonObject>() {
+
+							@Override
+							public void handle(JsonObject staleManifest) {
+								assertEquals(1, metrics.get("cds.manifest.stale"));
+								retrieveUntilFailed("gone", System.currentTimeMillis() + POLL_TIMEOUT, new AsyncResultHandler<JsonObject>() {
+
+									@Override
+									public void handle(AsyncResult<JsonObject> manifestRequest) {
+										assertTrue(manifestRequest.cause() instanceof HttpException);
+										assertEquals(404, ((HttpException) manifestRequest.cause()).getStatusCode());
+										// Initial request, revalidation, and a new request after the eviction.
+										assertEquals(2, metrics.get("cds.manifest.miss"));
+										assertEquals(3, get(requestCounts, "gone"));
+										testComplete();
+									}
+								});
+							}
+						});
+					}
+				});
+			}
+		});
+	}
+
+	@Test
+	public void testMissCoalescing() {
+		responseDelay = 200;
+		final JsonObject[] manifests = new JsonObject[3];
+		final int[] responses = {0};
+		for (int i = 0; i < manifests.length; i++) {
+			final int index = i;
+			retrieve("shared", new Handler<JsonObject>() {
+
+				@Override
+				public void handle(JsonObject manifest) {
+					assertEquals("shared", manifest.getString("id"));
+					manifests[index] = manifest;
+					if (++responses[0] < manifests.length) return;
+					assertEquals(1, get(requestCounts, "shared"));
+					assertEquals(1, metrics.get("cds.manifest.miss"));
+					assertEquals(2, metrics.get("cds.manifest.coalesced"));
+					// Each request receives its own copy.
+					assertNotSame(manifests[0], manifests[1]);
+					assertNotSame(manifests[1], manifests[2]);
+					assertEquals(manifests[0], manifests[2]);
+					testComplete();
+				}
+			});
+		}
+	}
+}